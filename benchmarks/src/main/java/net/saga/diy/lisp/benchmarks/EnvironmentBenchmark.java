@@ -0,0 +1,90 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.benchmarks;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import net.saga.diy.lisp.parser.Engine;
+import net.saga.diy.lisp.parser.Parser;
+import net.saga.diy.lisp.parser.types.Environment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of looking up a global and a local variable from {@code depth} nested
+ * scopes, of the same global read by compiled code, which caches it, and of
+ * extending an environment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvironmentBenchmark {
+
+    @Param({ "1", "8", "32" })
+    public int depth;
+
+    private Environment env;
+    private Object compiledLookup;
+
+    @Setup
+    public void nest() {
+        HashMap<String, Object> globals = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            globals.put("global-" + i, i);
+        }
+        env = new Environment(globals);
+        for (int i = 0; i < depth; i++) {
+            env = env.extend(new Object[] { "a" + i, "b" + i }, new Object[] { i, i });
+        }
+        compiledLookup = Engine.COMPILER.prepare(Parser.parse("global-100"));
+    }
+
+    @Benchmark
+    public Object lookupGlobal() {
+        return env.lookup("global-100");
+    }
+
+    @Benchmark
+    public Object lookupGlobalCompiled() {
+        return Engine.COMPILER.run(compiledLookup, env);
+    }
+
+    @Benchmark
+    public Object lookupInnermost() {
+        return env.lookup("b" + (depth - 1));
+    }
+
+    @Benchmark
+    public Environment extend() {
+        return env.extend("x", 1);
+    }
+
+}
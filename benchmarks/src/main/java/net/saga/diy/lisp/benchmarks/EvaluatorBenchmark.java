@@ -0,0 +1,103 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import net.saga.diy.lisp.parser.Engine;
+import net.saga.diy.lisp.parser.Fuel;
+import net.saga.diy.lisp.parser.Parser;
+import net.saga.diy.lisp.parser.types.Environment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluation speed of recursive programs on each engine. The programs are
+ * parsed once; only evaluation is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluatorBenchmark {
+
+    private static final String[] DEFINITIONS = {
+            "(define fib (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))",
+            "(define ack (lambda (m n) (if (eq m 0) (+ n 1) (if (eq n 0) (ack (- m 1) 1) (ack (- m 1) (ack m (- n 1)))))))",
+            "(define build (lambda (n acc) (if (eq n 0) acc (build (- n 1) (cons n acc)))))",
+            "(define count (lambda (xs n) (if (empty xs) n (count (tail xs) (+ n 1)))))" };
+
+    @Param({ "TREE_WALKER", "COMPILER", "BYTECODE", "TIERED" })
+    public Engine engine;
+
+    private Environment env;
+    private Object fib;
+    private Object ackermann;
+    private Object arrayList;
+    private Object persistentList;
+
+    @Setup
+    public void define() {
+        env = new Environment();
+        for (String definition : DEFINITIONS) {
+            engine.evaluate(Parser.parse(definition), env);
+        }
+        fib = Parser.parse("(fib 20)");
+        ackermann = Parser.parse("(ack 2 9)");
+        arrayList = Parser.parse("(count (build 1000 '()) 0)");
+        persistentList = Parser.parse("(count (build 1000 (list)) 0)");
+    }
+
+    @Benchmark
+    public Object fib() {
+        return engine.evaluate(fib, env);
+    }
+
+    /** The same as {@link #fib()} with a budget that is never used up. */
+    @Benchmark
+    public Object fibWithFuel() {
+        return engine.evaluate(fib, env, new Fuel(Long.MAX_VALUE));
+    }
+
+    @Benchmark
+    public Object ackermann() {
+        return engine.evaluate(ackermann, env);
+    }
+
+    @Benchmark
+    public Object buildArrayList() {
+        return engine.evaluate(arrayList, env);
+    }
+
+    @Benchmark
+    public Object buildPersistentList() {
+        return engine.evaluate(persistentList, env);
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import net.saga.diy.lisp.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse throughput on a small snippet and on generated sources of roughly
+ * {@code size} bytes, from a string, a reader and a mapped file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    private static final String SNIPPET = "(define fact (lambda (n) (if (eq n 0) 1 (* n (fact (- n 1))))))";
+
+    @Param({ "1024", "4194304" })
+    public int size;
+
+    private String source;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        StringBuilder builder = new StringBuilder(size + 128);
+        for (int i = 0; builder.length() < size; i++) {
+            builder.append("; rule ").append(i).append('\n')
+                    .append("(define rule-").append(i)
+                    .append(" (lambda (x y) (if (> x ").append(i).append(") (cons x '(a b #t)) (+ y (* x 3)))))\n");
+        }
+        source = builder.toString();
+        file = File.createTempFile("parser-benchmark", ".diy");
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Object parseSnippet() {
+        return Parser.parse(SNIPPET);
+    }
+
+    @Benchmark
+    public Object parseWrapped() {
+        return Parser.parse("(" + source + ")");
+    }
+
+    @Benchmark
+    public Object[] parseMultipleReader() {
+        return Parser.parseMultiple(new StringReader(source));
+    }
+
+    @Benchmark
+    public long parseFile() {
+        try (Stream<Object> expressions = Parser.parseFile(file)) {
+            return expressions.count();
+        }
+    }
+
+}
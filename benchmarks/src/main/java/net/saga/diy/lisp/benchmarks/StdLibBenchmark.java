@@ -0,0 +1,99 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.saga.diy.lisp.parser.EnvironmentImage;
+import net.saga.diy.lisp.parser.Interpreter;
+import net.saga.diy.lisp.parser.types.Environment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to load the standard library into a fresh environment, from source
+ * and from the saved image, compared with forking an environment that already
+ * has it loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StdLibBenchmark {
+
+    private File stdLib;
+    private File stdImage;
+    private Environment loaded;
+
+    @Setup(Level.Trial)
+    public void extract() throws IOException {
+        stdLib = File.createTempFile("std", ".diy");
+        try (InputStream in = StdLibBenchmark.class.getClassLoader().getResourceAsStream("std/std.diy")) {
+            Files.copy(in, stdLib.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        stdImage = File.createTempFile("std", ".img");
+        try (InputStream in = StdLibBenchmark.class.getClassLoader().getResourceAsStream("std/std.img")) {
+            Files.copy(in, stdImage.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Environment env = new Environment();
+        Interpreter.interpretFile(stdLib, env);
+        loaded = env.snapshot();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        stdLib.delete();
+        stdImage.delete();
+    }
+
+    @Benchmark
+    public List<Object> interpretStdLib() {
+        return Interpreter.interpretFile(stdLib, new Environment());
+    }
+
+    @Benchmark
+    public Environment readStdLibImage() {
+        return EnvironmentImage.read(stdImage);
+    }
+
+    @Benchmark
+    public Environment forkStdLib() {
+        Environment request = loaded.fork();
+        request.set("request", 1);
+        return request;
+    }
+
+}
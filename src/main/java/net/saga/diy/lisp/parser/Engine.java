@@ -0,0 +1,113 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import net.saga.diy.lisp.parser.compiler.Bytecode;
+import net.saga.diy.lisp.parser.compiler.BytecodeCompiler;
+import net.saga.diy.lisp.parser.compiler.Compiler;
+import net.saga.diy.lisp.parser.compiler.Frame;
+import net.saga.diy.lisp.parser.compiler.Node;
+import net.saga.diy.lisp.parser.types.Environment;
+
+/**
+ * The available ways of running a parsed expression. Running happens in two
+ * steps, so the result of {@code prepare} can be kept and run again.
+ */
+public enum Engine {
+
+    /** Walks the AST directly, see {@link Evaluator}. */
+    TREE_WALKER {
+        @Override
+        public Object prepare(Object ast) {
+            return ast;
+        }
+
+        @Override
+        public Object run(Object prepared, Environment env, Fuel fuel) {
+            return Evaluator.evaluate(prepared, env, fuel);
+        }
+    },
+
+    /** Compiles the AST to a tree of nodes first, see {@link Compiler}. */
+    COMPILER {
+        @Override
+        public Object prepare(Object ast) {
+            return Compiler.compile(ast);
+        }
+
+        @Override
+        public Object run(Object prepared, Environment env, Fuel fuel) {
+            return ((Node) prepared).exec(new Frame(env, fuel));
+        }
+    },
+
+    /** Compiles the AST to bytecode run by a virtual machine, see {@link BytecodeCompiler}. */
+    BYTECODE {
+        @Override
+        public Object prepare(Object ast) {
+            return BytecodeCompiler.compile(ast);
+        }
+
+        @Override
+        public Object run(Object prepared, Environment env, Fuel fuel) {
+            return ((Bytecode) prepared).exec(new Frame(env, fuel));
+        }
+    },
+
+    /**
+     * Runs bytecode like {@link #BYTECODE}, and compiles closures called often
+     * enough to JVM classes.
+     */
+    TIERED {
+        @Override
+        public Object prepare(Object ast) {
+            return BytecodeCompiler.compile(ast, BytecodeCompiler.DEFAULT_THRESHOLD);
+        }
+
+        @Override
+        public Object run(Object prepared, Environment env, Fuel fuel) {
+            return ((Bytecode) prepared).exec(new Frame(env, fuel));
+        }
+    };
+
+    /**
+     * Turns a parsed expression into this engine's executable form. The result
+     * is immutable and may be run any number of times, from any thread.
+     */
+    public abstract Object prepare(Object ast);
+
+    public Object run(Object prepared, Environment env) {
+        return run(prepared, env, null);
+    }
+
+    /**
+     * Runs a prepared expression, spending {@code fuel}, or without a limit
+     * when it is null.
+     */
+    public abstract Object run(Object prepared, Environment env, Fuel fuel);
+
+    public Object evaluate(Object ast, Environment env) {
+        return run(prepare(ast), env, null);
+    }
+
+    public Object evaluate(Object ast, Environment env, Fuel fuel) {
+        return run(prepare(ast), env, fuel);
+    }
+
+}
@@ -0,0 +1,433 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import com.google.common.io.ByteStreams;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import net.saga.diy.lisp.parser.compiler.BytecodeClosure;
+import net.saga.diy.lisp.parser.compiler.BytecodeCompiler;
+import net.saga.diy.lisp.parser.compiler.CompiledClosure;
+import net.saga.diy.lisp.parser.compiler.Compiler;
+import net.saga.diy.lisp.parser.compiler.Frame;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.ConsList;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import net.saga.diy.lisp.parser.types.PersistentMap;
+import net.saga.diy.lisp.parser.types.Symbols;
+
+/**
+ * Saves an evaluated {@link Environment} to a binary image and loads it back
+ * without parsing or evaluating anything.
+ * <p>
+ * The image holds everything reachable from the environment: the bindings of
+ * it and its parents, closures and the environments they captured, and the
+ * lists that make up their bodies. Every object is written once and later
+ * occurrences refer back to it, so sharing and cycles survive the round trip.
+ * The bindings of an environment are written after everything else that
+ * refers to it, which lets the loader create each environment before the
+ * closures that live in it. Symbols are interned again when they are read.
+ * <p>
+ * Closures compiled at the top level are compiled again when they are
+ * loaded. Closures that captured compiled local variables cannot be saved.
+ * Memoized closures keep their cache settings, but not the results cached.
+ * A read-only environment is restored as a snapshot of a new environment.
+ */
+public final class EnvironmentImage {
+
+    private static final int MAGIC = 0x44495949;
+    private static final int VERSION = 4;
+
+    private static final byte NULL = 0;
+    private static final byte REFERENCE = 1;
+    private static final byte INTEGER = 2;
+    private static final byte BIG_INTEGER = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte SYMBOL = 6;
+    private static final byte LIST = 7;
+    private static final byte CONS_LIST = 8;
+    private static final byte CLOSURE = 9;
+    private static final byte COMPILED_CLOSURE = 10;
+    private static final byte ENVIRONMENT = 11;
+    private static final byte BYTECODE_CLOSURE = 12;
+    private static final byte MEMOIZED_CLOSURE = 13;
+
+    private EnvironmentImage() {
+    }
+
+    public static void write(Environment env, File imageFile) {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(imageFile))) {
+            write(env, out);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static void write(Environment env, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeBoolean(env.isReadOnly());
+        new Writer(data).writeAll(env);
+        data.flush();
+    }
+
+    /**
+     * Loads an image through a memory mapped channel.
+     */
+    public static Environment read(File imageFile) {
+        try (FileChannel channel = FileChannel.open(imageFile.toPath(), StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static Environment read(InputStream in) throws IOException {
+        return read(ByteBuffer.wrap(ByteStreams.toByteArray(in)));
+    }
+
+    public static Environment read(ByteBuffer image) {
+        try {
+            if (image.getInt() != MAGIC || image.getInt() != VERSION) {
+                throw new LispException("Not an environment image");
+            }
+            boolean readOnly = image.get() != 0;
+            Environment env = new Reader(image).readAll();
+            return readOnly ? env.snapshot() : env;
+        } catch (BufferUnderflowException | ClassCastException | IndexOutOfBoundsException ex) {
+            throw new LispException("Corrupt environment image");
+        }
+    }
+
+    /**
+     * Loads each source file into a new environment, in order, and saves the
+     * result to the image file given last. The build uses this to save the
+     * standard library ahead of time.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: EnvironmentImage <source>... <image>");
+            System.exit(1);
+        }
+        Environment env = new Environment();
+        for (int i = 0; i < args.length - 1; i++) {
+            Interpreter.loadFile(new File(args[i]), env);
+        }
+        write(env, new File(args[args.length - 1]));
+    }
+
+    private static final class Writer {
+
+        private final DataOutputStream out;
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        private final ArrayDeque<Environment> pending = new ArrayDeque<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeAll(Environment env) throws IOException {
+            write(env);
+            Environment next;
+            while ((next = pending.poll()) != null) {
+                for (Object value : next.getValues()) {
+                    write(value);
+                }
+                PersistentMap<String, Object> definitions = next.getDefinitions();
+                out.writeInt(definitions.size());
+                try {
+                    definitions.forEach((name, value) -> {
+                        try {
+                            write(name);
+                            write(value);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
+                } catch (UncheckedIOException ex) {
+                    throw ex.getCause();
+                }
+            }
+        }
+
+        private void write(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+                return;
+            }
+            if (value instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+                return;
+            }
+            if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+                return;
+            }
+            if (value instanceof BigInteger) {
+                byte[] bytes = ((BigInteger) value).toByteArray();
+                out.writeByte(BIG_INTEGER);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                return;
+            }
+
+            Integer id = ids.get(value);
+            if (id != null) {
+                out.writeByte(REFERENCE);
+                out.writeInt(id);
+                return;
+            }
+            ids.put(value, ids.size());
+
+            if (value instanceof String) {
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                out.writeByte(SYMBOL);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } else if (value instanceof Object[]) {
+                Object[] list = (Object[]) value;
+                out.writeByte(LIST);
+                out.writeInt(list.length);
+                for (Object element : list) {
+                    write(element);
+                }
+            } else if (value instanceof ConsList) {
+                ConsList list = (ConsList) value;
+                out.writeByte(CONS_LIST);
+                out.writeInt(list.size());
+                for (Object element : list) {
+                    write(element);
+                }
+            } else if (value instanceof MemoizedClosure) {
+                MemoizedClosure closure = (MemoizedClosure) value;
+                out.writeByte(MEMOIZED_CLOSURE);
+                write(closure.getFunction());
+                out.writeLong(closure.getMaximumSize());
+                out.writeBoolean(closure.hasWeakValues());
+            } else if (value instanceof Closure) {
+                Closure closure = (Closure) value;
+                if (closure instanceof CompiledClosure) {
+                    if (!((CompiledClosure) closure).isTopLevel()) {
+                        throw new LispException("Cannot save a compiled closure that captures local variables");
+                    }
+                    out.writeByte(COMPILED_CLOSURE);
+                } else if (closure instanceof BytecodeClosure) {
+                    if (!((BytecodeClosure) closure).isTopLevel()) {
+                        throw new LispException("Cannot save a compiled closure that captures local variables");
+                    }
+                    out.writeByte(BYTECODE_CLOSURE);
+                } else {
+                    out.writeByte(CLOSURE);
+                }
+                write(closure.getEnv());
+                write(closure.getParams());
+                write(closure.getBody());
+                write(closure.getName());
+            } else if (value instanceof Environment) {
+                Environment env = (Environment) value;
+                out.writeByte(ENVIRONMENT);
+                out.writeBoolean(env.isConcurrent());
+                write(env.getParent());
+                Object[] names = env.getNames();
+                out.writeInt(names.length);
+                for (Object name : names) {
+                    write(name);
+                }
+                pending.add(env);
+            } else {
+                throw new LispException("Cannot save " + value.getClass().getName());
+            }
+        }
+
+    }
+
+    private static final class Reader {
+
+        private final ByteBuffer in;
+        private final List<Object> objects = new ArrayList<>();
+        private final List<Environment> environments = new ArrayList<>();
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        Environment readAll() {
+            Environment env = (Environment) read();
+            for (int i = 0; i < environments.size(); i++) {
+                Environment next = environments.get(i);
+                Object[] values = next.getValues();
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = read();
+                }
+                for (int j = length(); j > 0; j--) {
+                    next.set((String) read(), read());
+                }
+            }
+            return env;
+        }
+
+        private Object read() {
+            byte tag = in.get();
+            switch (tag) {
+            case NULL:
+                return null;
+            case REFERENCE: {
+                Object value = objects.get(in.getInt());
+                if (value == null) {
+                    /* Reserved for an object still being read, which nothing written refers to. */
+                    throw new LispException("Corrupt environment image");
+                }
+                return value;
+            }
+            case INTEGER:
+                return Numbers.valueOf(in.getInt());
+            case BIG_INTEGER:
+                return new BigInteger(bytes());
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case SYMBOL: {
+                String symbol = Symbols.intern(new String(bytes(), StandardCharsets.UTF_8));
+                objects.add(symbol);
+                return symbol;
+            }
+            case LIST: {
+                Object[] list = new Object[length()];
+                objects.add(list);
+                for (int i = 0; i < list.length; i++) {
+                    list[i] = read();
+                }
+                return list;
+            }
+            case CONS_LIST: {
+                int id = reserve();
+                Object[] elements = new Object[length()];
+                for (int i = 0; i < elements.length; i++) {
+                    elements[i] = read();
+                }
+                return define(id, ConsList.of(elements));
+            }
+            case CLOSURE:
+            case COMPILED_CLOSURE:
+            case BYTECODE_CLOSURE: {
+                int id = reserve();
+                Environment env = (Environment) read();
+                Object[] params = (Object[]) read();
+                Object body = read();
+                String name = (String) read();
+                Closure closure;
+                if (tag == CLOSURE) {
+                    closure = new Closure(env, params, body);
+                } else {
+                    Object[] lambda = { SpecialForm.LAMBDA.symbol(), params, body };
+                    if (tag == COMPILED_CLOSURE) {
+                        closure = (Closure) Compiler.compile(lambda).exec(new Frame(env));
+                    } else {
+                        closure = (Closure) BytecodeCompiler.compile(lambda).exec(new Frame(env));
+                    }
+                }
+                closure.setName(name);
+                return define(id, closure);
+            }
+            case MEMOIZED_CLOSURE: {
+                int id = reserve();
+                Closure function = (Closure) read();
+                long maximumSize = in.getLong();
+                boolean weakValues = in.get() != 0;
+                if (maximumSize < 0) {
+                    throw new LispException("Corrupt environment image");
+                }
+                return define(id, new MemoizedClosure(function, maximumSize, weakValues));
+            }
+            case ENVIRONMENT: {
+                int id = reserve();
+                boolean concurrent = in.get() != 0;
+                Environment parent = (Environment) read();
+                Object[] names = new Object[length()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = read();
+                }
+                Environment env;
+                if (parent != null) {
+                    env = parent.extend(names, new Object[names.length]);
+                } else {
+                    env = concurrent ? Environment.concurrent() : new Environment();
+                }
+                environments.add(env);
+                return define(id, env);
+            }
+            default:
+                throw new LispException("Corrupt environment image");
+            }
+        }
+
+        private byte[] bytes() {
+            byte[] bytes = new byte[length()];
+            in.get(bytes);
+            return bytes;
+        }
+
+        /**
+         * Reads the length of what follows. Everything in an image takes at
+         * least a byte, so a length beyond what is left is corrupt, and is
+         * caught before anything that size is allocated.
+         */
+        private int length() {
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                throw new LispException("Corrupt environment image");
+            }
+            return length;
+        }
+
+        private int reserve() {
+            objects.add(null);
+            return objects.size() - 1;
+        }
+
+        private Object define(int id, Object value) {
+            objects.set(id, value);
+            return value;
+        }
+
+    }
+
+}
@@ -18,12 +18,363 @@
  */
 package net.saga.diy.lisp.parser;
 
+import java.util.Arrays;
+import net.saga.diy.lisp.parser.compiler.BytecodeClosure;
+import net.saga.diy.lisp.parser.compiler.CompiledClosure;
+import net.saga.diy.lisp.parser.profiler.Probe;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.ConsList;
 import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.EvaluationInterruptedException;
+import net.saga.diy.lisp.parser.types.LispException;
 
 public class Evaluator {
 
+    /**
+     * Evaluates {@code input} in {@code env}. Expressions in tail position, the
+     * chosen branch of an {@code if} and the body of a called closure, are
+     * evaluated by the same loop instead of a nested call, so tail recursive
+     * functions run in constant stack.
+     */
     public static Object evaluate(Object input, Environment env) {
-        throw new IllegalStateException("not implemented");
+        return evaluate(input, env, null);
+    }
+
+    /**
+     * Evaluates {@code input}, spending one step of {@code fuel} on every
+     * special form and function call. A null fuel means no limit.
+     */
+    public static Object evaluate(Object input, Environment env, Fuel fuel) {
+        // The probe that entered the closure whose body this loop is running, if
+        // any. A tail call leaves that closure before entering the next one.
+        Probe probe = null;
+        try {
+            for (;;) {
+                if (!(input instanceof Object[])) {
+                    if (input instanceof String) {
+                        return env.lookup((String) input);
+                    }
+                    return input;
+                }
+
+                Object[] ast = (Object[]) input;
+                if (ast.length == 0) {
+                    throw new LispException("Cannot evaluate an empty list");
+                }
+                Fuel.burn(fuel, 1);
+
+                SpecialForm form = ast[0] instanceof String ? SpecialForm.of(ast[0]) : null;
+                if (form != null) {
+                    switch (form) {
+                    case QUOTE:
+                        checkArguments(ast, 1);
+                        return ast[1];
+                    case ATOM:
+                        checkArguments(ast, 1);
+                        return isAtom(evaluate(ast[1], env, fuel));
+                    case EQ:
+                        checkArguments(ast, 2);
+                        return eq(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel));
+                    case ADD:
+                        checkArguments(ast, 2);
+                        return Numbers.add(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel));
+                    case SUBTRACT:
+                        checkArguments(ast, 2);
+                        return Numbers.subtract(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel));
+                    case MULTIPLY:
+                        checkArguments(ast, 2);
+                        return Numbers.multiply(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel));
+                    case DIVIDE:
+                        checkArguments(ast, 2);
+                        return Numbers.divide(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel));
+                    case MODULO:
+                        checkArguments(ast, 2);
+                        return Numbers.modulo(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel));
+                    case GREATER_THAN:
+                        checkArguments(ast, 2);
+                        return Numbers.greaterThan(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel));
+                    case LESS_THAN:
+                        checkArguments(ast, 2);
+                        return Numbers.lessThan(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel));
+                    case IF:
+                        checkArguments(ast, 3);
+                        input = isTrue(evaluate(ast[1], env, fuel)) ? ast[2] : ast[3];
+                        continue;
+                    case DEFINE:
+                        checkArguments(ast, 2);
+                        if (!(ast[1] instanceof String)) {
+                            throw new LispException("Variable name must be a symbol: " + ast[1]);
+                        }
+                        env.set((String) ast[1], named(evaluate(ast[2], env, fuel), (String) ast[1]));
+                        return ast[1];
+                    case LAMBDA:
+                        checkArguments(ast, 2);
+                        if (!(ast[1] instanceof Object[])) {
+                            throw new LispException("Lambda parameters must be a list: " + ast[1]);
+                        }
+                        return new Closure(env, (Object[]) ast[1], ast[2]);
+                    case CONS:
+                        checkArguments(ast, 2);
+                        return cons(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel));
+                    case HEAD:
+                        checkArguments(ast, 1);
+                        return head(evaluate(ast[1], env, fuel));
+                    case TAIL:
+                        checkArguments(ast, 1);
+                        return tail(evaluate(ast[1], env, fuel));
+                    case EMPTY:
+                        checkArguments(ast, 1);
+                        return empty(evaluate(ast[1], env, fuel));
+                    case LIST:
+                        Object[] elements = new Object[ast.length - 1];
+                        for (int i = 0; i < elements.length; i++) {
+                            elements[i] = evaluate(ast[i + 1], env, fuel);
+                        }
+                        return ConsList.of(elements);
+                    case PMAP:
+                        checkArguments(ast, 2);
+                        return ParallelLists.map(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel), fuel);
+                    case PFILTER:
+                        checkArguments(ast, 2);
+                        return ParallelLists.filter(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel), fuel);
+                    case PREDUCE:
+                        checkArguments(ast, 3);
+                        return ParallelLists.reduce(evaluate(ast[1], env, fuel), evaluate(ast[2], env, fuel),
+                                evaluate(ast[3], env, fuel), fuel);
+                    case MEMOIZE: {
+                        checkArguments(ast, 1, 3);
+                        Object[] args = MemoizedClosure.arguments(ast);
+                        return MemoizedClosure.memoize(evaluate(args[0], env, fuel), evaluate(args[1], env, fuel),
+                                evaluate(args[2], env, fuel));
+                    }
+                    default:
+                        break;
+                    }
+                }
+
+                Object function = evaluate(ast[0], env, fuel);
+                if (!(function instanceof Closure)) {
+                    if (ast.length == 1 && ast[0] instanceof Object[]) {
+                        return function;
+                    }
+                    throw new LispException("Not a function: " + toString(function));
+                }
+
+                Object[] args = new Object[ast.length - 1];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = evaluate(ast[i + 1], env, fuel);
+                }
+                if (function instanceof CompiledClosure) {
+                    return ((CompiledClosure) function).invoke(args, fuel);
+                }
+                if (function instanceof BytecodeClosure) {
+                    return ((BytecodeClosure) function).invoke(args, fuel);
+                }
+                if (function instanceof MemoizedClosure) {
+                    return ((MemoizedClosure) function).invoke(args, fuel);
+                }
+
+                Closure closure = (Closure) function;
+                checkArity(closure.getParams(), args);
+                checkpoint(fuel);
+                if (probe != null) {
+                    probe.exit();
+                }
+                probe = Probe.active();
+                if (probe != null) {
+                    probe.enter(closure);
+                }
+                env = closure.getEnv().extend(closure.getParams(), args);
+                input = closure.getBody();
+            }
+        } catch (LispException ex) {
+            if (ex.getForm() == null && input instanceof Object[]) {
+                ex.setForm(input);
+            }
+            throw ex;
+        } finally {
+            if (probe != null) {
+                probe.exit();
+            }
+        }
+    }
+
+    /**
+     * Calls {@code closure} with already evaluated arguments. Closures created by
+     * the compiling engines run their compiled body, memoized ones look in
+     * their cache first.
+     */
+    public static Object apply(Closure closure, Object[] args) {
+        return apply(closure, args, null);
+    }
+
+    public static Object apply(Closure closure, Object[] args, Fuel fuel) {
+        if (closure instanceof CompiledClosure) {
+            return ((CompiledClosure) closure).invoke(args, fuel);
+        }
+        if (closure instanceof BytecodeClosure) {
+            return ((BytecodeClosure) closure).invoke(args, fuel);
+        }
+        if (closure instanceof MemoizedClosure) {
+            return ((MemoizedClosure) closure).invoke(args, fuel);
+        }
+        Object[] params = closure.getParams();
+        checkArity(params, args);
+        checkpoint(fuel);
+        Probe probe = Probe.active();
+        if (probe == null) {
+            return evaluate(closure.getBody(), closure.getEnv().extend(params, args), fuel);
+        }
+        probe.enter(closure);
+        try {
+            return evaluate(closure.getBody(), closure.getEnv().extend(params, args), fuel);
+        } finally {
+            probe.exit();
+        }
+    }
+
+    /**
+     * Names {@code value} after {@code name} when it is a closure that has not
+     * been defined under another name yet.
+     */
+    public static Object named(Object value, String name) {
+        if (value instanceof Closure && ((Closure) value).getName() == null) {
+            ((Closure) value).setName(name);
+        }
+        return value;
+    }
+
+    /**
+     * Called on every function call, by every engine. Any computation that
+     * does not end has to keep calling functions, so this is where an
+     * evaluation stops once its thread has been interrupted or its
+     * {@code fuel}, which may be null, has been cancelled.
+     */
+    public static void checkpoint(Fuel fuel) {
+        if (Thread.currentThread().isInterrupted() || fuel != null && fuel.isCancelled()) {
+            throw new EvaluationInterruptedException();
+        }
+    }
+
+    public static void checkArity(Object[] params, Object[] args) {
+        if (params.length != args.length) {
+            throw new LispException("Wrong number of arguments, expected " + params.length + " got " + args.length);
+        }
+    }
+
+    private static void checkArguments(Object[] ast, int count) {
+        String error = argumentError(ast, count);
+        if (error != null) {
+            throw new LispException(error);
+        }
+    }
+
+    private static void checkArguments(Object[] ast, int least, int most) {
+        String error = argumentError(ast, least, most);
+        if (error != null) {
+            throw new LispException(error);
+        }
+    }
+
+    /**
+     * Returns the error for a special form called with the wrong number of
+     * arguments, or null if the count is right.
+     */
+    public static String argumentError(Object[] ast, int count) {
+        if (ast.length == count + 1) {
+            return null;
+        }
+        return "Wrong number of arguments to " + ast[0] + ", expected " + count + " got " + (ast.length - 1);
+    }
+
+    /**
+     * Like {@link #argumentError(Object[], int)}, for special forms taking
+     * from {@code least} to {@code most} arguments.
+     */
+    public static String argumentError(Object[] ast, int least, int most) {
+        if (ast.length > least && ast.length <= most + 1) {
+            return null;
+        }
+        return "Wrong number of arguments to " + ast[0] + ", expected " + least + " to " + most + " got "
+                + (ast.length - 1);
+    }
+
+    public static boolean isTrue(Object value) {
+        return !Boolean.FALSE.equals(value);
+    }
+
+    public static boolean isAtom(Object value) {
+        return !(value instanceof Object[]) && !(value instanceof ConsList);
+    }
+
+    /**
+     * Symbols are interned, so they are the same atom only if they are the same
+     * object.
+     */
+    public static boolean eq(Object first, Object second) {
+        if (first instanceof String) {
+            return first == second;
+        }
+        return isAtom(first) && first.equals(second);
+    }
+
+    /**
+     * Prepends {@code head}. Consing onto a {@link ConsList} shares the tail,
+     * consing onto an array copies it into a new array.
+     */
+    public static Object cons(Object head, Object tail) {
+        if (tail instanceof ConsList) {
+            return ((ConsList) tail).cons(head);
+        }
+        Object[] list = list(tail);
+        Object[] result = new Object[list.length + 1];
+        result[0] = head;
+        System.arraycopy(list, 0, result, 1, list.length);
+        return result;
+    }
+
+    public static Object head(Object value) {
+        if (value instanceof ConsList) {
+            return ((ConsList) value).head();
+        }
+        Object[] list = list(value);
+        if (list.length == 0) {
+            throw new LispException("Cannot take the head of an empty list");
+        }
+        return list[0];
+    }
+
+    /**
+     * The rest of the list. A {@link ConsList} shares it, an array copies it,
+     * so that callers holding arrays keep getting arrays.
+     */
+    public static Object tail(Object value) {
+        if (value instanceof ConsList) {
+            return ((ConsList) value).tail();
+        }
+        Object[] list = list(value);
+        if (list.length == 0) {
+            throw new LispException("Cannot take the tail of an empty list");
+        }
+        return Arrays.copyOfRange(list, 1, list.length);
+    }
+
+    public static boolean empty(Object value) {
+        if (value instanceof ConsList) {
+            return ((ConsList) value).isEmpty();
+        }
+        return list(value).length == 0;
+    }
+
+    private static Object[] list(Object value) {
+        if (!(value instanceof Object[])) {
+            throw new LispException("Not a list: " + toString(value));
+        }
+        return (Object[]) value;
+    }
+
+    public static String toString(Object value) {
+        return value instanceof Object[] ? Arrays.deepToString((Object[]) value) : String.valueOf(value);
     }
 
 }
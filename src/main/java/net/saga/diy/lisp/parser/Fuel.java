@@ -0,0 +1,133 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import net.saga.diy.lisp.parser.types.OutOfFuelException;
+
+/**
+ * A budget of evaluation steps. The tree walker spends one step on every
+ * special form and function call it evaluates. Compiled closures spend, on
+ * each call, the number of forms in their body.
+ * <p>
+ * Steps are counted down in a plain field of a {@code Fuel} that only one
+ * thread uses at a time. Only when that runs out is the next batch of steps
+ * taken from the shared total, so the hot path has no atomics, and
+ * evaluation without a budget, where the fuel is null, only pays for a null
+ * check. Threads that work for the same evaluation, like the workers behind
+ * {@code pmap}, each count with their own {@link #share() share} of the
+ * total. Batches start small and double up to {@link #BATCH} steps. Steps
+ * left in a share when its work is done are not returned, so a budget spread
+ * over several shares can run out somewhat early.
+ * <p>
+ * A fuel can also be {@link #cancel() cancelled}, which stops the evaluation
+ * using it, and every share of it, at the next function call. Unlike an
+ * interrupt this reaches the pool threads that {@code pmap} and the like run
+ * on.
+ */
+public final class Fuel {
+
+    public static final int BATCH = 1024;
+
+    private static final int FIRST_BATCH = 16;
+
+    private final AtomicLong tank;
+    private final AtomicBoolean cancelled;
+    private final long steps;
+    private long remaining;
+    private int batch = FIRST_BATCH;
+
+    public Fuel(long steps) {
+        this(new AtomicLong(steps), new AtomicBoolean(), steps);
+    }
+
+    private Fuel(AtomicLong tank, AtomicBoolean cancelled, long steps) {
+        this.tank = tank;
+        this.cancelled = cancelled;
+        this.steps = steps;
+    }
+
+    /**
+     * A budget that never runs out, for evaluations that only need to be
+     * cancellable.
+     */
+    public static Fuel unlimited() {
+        return new Fuel(Long.MAX_VALUE);
+    }
+
+    /**
+     * A fuel that draws from the same total, for use on another thread.
+     * Cancelling either cancels both.
+     */
+    public Fuel share() {
+        return new Fuel(tank, cancelled, steps);
+    }
+
+    /**
+     * A fuel that draws from the same total but is cancelled on its own, for
+     * a run that has to be stopped without stopping others spending this
+     * budget.
+     */
+    public Fuel detach() {
+        return new Fuel(tank, new AtomicBoolean(), steps);
+    }
+
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * The steps not yet spent, leaving out those taken by shares that are
+     * still counting down.
+     */
+    public long remaining() {
+        return Math.max(0, tank.get()) + Math.max(0, remaining);
+    }
+
+    /**
+     * Spends {@code count} steps of {@code fuel}, which may be null for no
+     * limit. Throws an {@link OutOfFuelException} when the budget is used up.
+     */
+    public static void burn(Fuel fuel, int count) {
+        if (fuel != null && (fuel.remaining -= count) < 0) {
+            fuel.refill();
+        }
+    }
+
+    private void refill() {
+        while (remaining < 0) {
+            long left = tank.get();
+            if (left <= 0) {
+                remaining = 0;
+                throw new OutOfFuelException(steps);
+            }
+            long take = Math.min(batch, left);
+            if (tank.compareAndSet(left, left - take)) {
+                remaining += take;
+                batch = Math.min(batch * 2, BATCH);
+            }
+        }
+    }
+
+}
@@ -18,47 +18,267 @@
  */
 package net.saga.diy.lisp.parser;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import static net.saga.diy.lisp.parser.Evaluator.evaluate;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 import static net.saga.diy.lisp.parser.Parser.parse;
 import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
 
+/**
+ * Runs source code. The static methods parse everything they are given. An
+ * instance is bound to one engine and can keep a cache of prepared
+ * expressions keyed by their source text, so snippets that are run over and
+ * over are parsed, and compiled, only once.
+ * <p>
+ * Expressions are passed through the {@link Optimizer}, always by the
+ * static methods and unless turned off by an instance, which can run files
+ * as well. Cached expressions may be run in any environment, so they are
+ * only optimized in ways that do not depend on one.
+ */
 public class Interpreter {
 
+    private final Engine engine;
+    private final boolean optimizing;
+    private final Cache<String, Object> cache;
+
+    public Interpreter() {
+        this(Engine.TREE_WALKER, 0);
+    }
+
+    /**
+     * @param engine the engine to run expressions on
+     * @param maximumCachedChars the total length of source text whose prepared
+     *            form is kept, least recently used entries are evicted first.
+     *            Zero disables the cache.
+     */
+    public Interpreter(Engine engine, long maximumCachedChars) {
+        this(engine, maximumCachedChars, true);
+    }
+
+    /**
+     * @param optimizing false to run expressions exactly as written, which is
+     *            easier to debug, profile and count {@link Fuel} for
+     */
+    public Interpreter(Engine engine, long maximumCachedChars, boolean optimizing) {
+        this.engine = engine;
+        this.optimizing = optimizing;
+        if (maximumCachedChars > 0) {
+            this.cache = CacheBuilder.newBuilder()
+                    .maximumWeight(maximumCachedChars)
+                    .weigher((String source, Object prepared) -> source.length())
+                    .recordStats()
+                    .build();
+        } else {
+            this.cache = null;
+        }
+    }
+
+    public Object execute(String source, Environment env) {
+        return execute(source, env, null);
+    }
+
+    /**
+     * Runs {@code source} with a budget of steps, see {@link Fuel}. A null
+     * fuel means no limit.
+     */
+    public Object execute(String source, Environment env, Fuel fuel) {
+        if (env == null) {
+            env = new Environment();
+        }
+
+        return engine.run(prepare(source), env, fuel);
+    }
+
+    /**
+     * Like {@link #interpretFile(File, Environment, Engine)}, on this
+     * interpreter's engine.
+     */
+    public List<Object> executeFile(File sourceFile, Environment env) {
+        return interpretFile(sourceFile, env, engine, optimizing);
+    }
+
+    /**
+     * Like {@link #interpretFileInParallel(File, Environment, Engine, ForkJoinPool)},
+     * on this interpreter's engine.
+     */
+    public List<Object> executeFileInParallel(File sourceFile, Environment env, ForkJoinPool pool) {
+        return interpretFileInParallel(sourceFile, env, engine, pool, optimizing);
+    }
+
+    /**
+     * Like {@link #loadFile(File, Environment, Engine)}, on this interpreter's
+     * engine.
+     */
+    public Object load(File sourceFile, Environment env) {
+        return loadFile(sourceFile, env, engine, optimizing);
+    }
+
+    public boolean isOptimizing() {
+        return optimizing;
+    }
+
+    /**
+     * Hit, miss and eviction counts of the cache, all zero when caching is
+     * disabled.
+     */
+    public CacheStats cacheStats() {
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    private Object prepare(String source) {
+        if (cache == null) {
+            return engine.prepare(optimize(parse(source)));
+        }
+        try {
+            return cache.get(source, () -> engine.prepare(optimize(parse(source))));
+        } catch (UncheckedExecutionException | ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
     public static void interpret(String source) {
         interpret(source, null);
     }
 
     public static Object interpret(String source, Environment env) {
+        return interpret(source, env, Engine.TREE_WALKER);
+    }
+
+    public static Object interpret(String source, Environment env, Engine engine) {
+        return interpret(source, env, engine, null);
+    }
+
+    /**
+     * Parses and runs {@code source}. Errors say where in it they happened.
+     */
+    public static Object interpret(String source, Environment env, Engine engine, Fuel fuel) {
         if (env == null) {
             env = new Environment();
         }
 
-        return evaluate(parse(source), env);
-
+        Object ast = parse(source, new SourceMap(null, false));
+        try {
+            return engine.evaluate(Optimizer.optimize(ast, env), env, fuel);
+        } catch (LispException ex) {
+            throw SourceMap.locate(ex, ast, source);
+        }
     }
 
     public static List<Object> interpretFile(File sourceFile, Environment env) {
+        return interpretFile(sourceFile, env, Engine.TREE_WALKER);
+    }
+
+    public static List<Object> interpretFile(File sourceFile, Environment env, Engine engine) {
+        return interpretFile(sourceFile, env, engine, true);
+    }
+
+    private static List<Object> interpretFile(File sourceFile, Environment env, Engine engine,
+            boolean optimizing) {
         if (env == null) {
             env = new Environment();
         }
 
-        try {
-            Reader reader = new FileReader(sourceFile);
-            List results = new ArrayList();
-            for (Object exp : Parser.parseMultiple(reader)) {
-                results.add(evaluate(exp, env));
+        List<Object> results = new ArrayList<>();
+        SourceMap positions = new SourceMap(sourceFile.getPath());
+        try (Stream<Object> expressions = Parser.parseFile(sourceFile, positions)) {
+            for (Iterator<Object> it = expressions.iterator(); it.hasNext();) {
+                results.add(evaluate(it, env, engine, positions, optimizing));
             }
-            return results;
-        } catch (FileNotFoundException ex) {
-            throw new RuntimeException(ex);
+        }
+        return results;
+    }
+
+    public static List<Object> interpretFileInParallel(File sourceFile, Environment env) {
+        return interpretFileInParallel(sourceFile, env, Engine.TREE_WALKER, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Like {@link #interpretFile}, but forms are evaluated while the rest of
+     * the file is still being parsed, and forms that do not depend on each
+     * other's definitions run at the same time on {@code pool}. The results
+     * are in source order and are the same as those of
+     * {@link #interpretFile}. When a form fails, forms after it that did not
+     * depend on it may still have been evaluated.
+     * 
+     * @param env a {@link Environment#concurrent() concurrent} environment,
+     *            or null for a new one
+     */
+    public static List<Object> interpretFileInParallel(File sourceFile, Environment env, Engine engine,
+            ForkJoinPool pool) {
+        return interpretFileInParallel(sourceFile, env, engine, pool, true);
+    }
+
+    private static List<Object> interpretFileInParallel(File sourceFile, Environment env, Engine engine,
+            ForkJoinPool pool, boolean optimizing) {
+        if (env == null) {
+            env = Environment.concurrent();
+        } else if (!env.isConcurrent()) {
+            throw new IllegalArgumentException("Parallel evaluation needs a concurrent environment");
+        }
+
+        SourceMap positions = new SourceMap(sourceFile.getPath());
+        try (Stream<Object> expressions = Parser.parseFile(sourceFile, positions)) {
+            return new ParallelEvaluation(env, engine, pool, positions, optimizing).evaluate(expressions.iterator());
+        }
+    }
+
+    /**
+     * Evaluates every expression in the file as it is read and returns the value
+     * of the last one. Memory use does not grow with the size of the file.
+     */
+    public static Object loadFile(File sourceFile, Environment env) {
+        return loadFile(sourceFile, env, Engine.TREE_WALKER);
+    }
+
+    public static Object loadFile(File sourceFile, Environment env, Engine engine) {
+        return loadFile(sourceFile, env, engine, true);
+    }
+
+    private static Object loadFile(File sourceFile, Environment env, Engine engine, boolean optimizing) {
+        if (env == null) {
+            env = new Environment();
+        }
+
+        Object result = null;
+        SourceMap positions = new SourceMap(sourceFile.getPath());
+        try (Stream<Object> expressions = Parser.parseFile(sourceFile, positions)) {
+            for (Iterator<Object> it = expressions.iterator(); it.hasNext();) {
+                result = evaluate(it, env, engine, positions, optimizing);
+            }
+        }
+        return result;
+    }
+
+    private Object optimize(Object ast) {
+        return optimizing ? Optimizer.optimize(ast) : ast;
+    }
+
+    /**
+     * Evaluates the next expression of a file. Its positions are forgotten
+     * afterwards unless it contains a lambda, so they do not pile up.
+     */
+    private static Object evaluate(Iterator<Object> expressions, Environment env, Engine engine,
+            SourceMap positions, boolean optimizing) {
+        int mark = positions.mark();
+        Object ast = expressions.next();
+        try {
+            return engine.evaluate(optimizing ? Optimizer.optimize(ast, env) : ast, env);
+        } catch (LispException ex) {
+            throw positions.locate(ex, ast);
+        } finally {
+            positions.forget(mark);
         }
     }
 
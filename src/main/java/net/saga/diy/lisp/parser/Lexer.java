@@ -0,0 +1,299 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import net.saga.diy.lisp.parser.types.LispException;
+import net.saga.diy.lisp.parser.types.Symbols;
+
+/**
+ * Single pass tokenizer over a character buffer, optionally refilled from a
+ * {@link Reader}. Atoms are decoded straight out of the buffer. The line and
+ * column of every token are tracked by counting newlines as they are skipped.
+ */
+final class Lexer {
+
+    static final int EOF = 0;
+    static final int OPEN = 1;
+    static final int CLOSE = 2;
+    static final int QUOTE = 3;
+    static final int ATOM = 4;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int SYMBOL_CACHE_SIZE = 256;
+
+    private final Reader in;
+    private char[] buf;
+    private int pos;
+    private int limit;
+    private Object atom;
+    private String[] symbols;
+    private int line = 1;
+    /** Buffer offset of the current line's first character, negative once it was shifted out. */
+    private int lineStart;
+    /** Characters shifted out of the buffer so far, to turn buffer offsets into source offsets. */
+    private int shifted;
+    private int tokenLine;
+    private int tokenColumn;
+    private int tokenOffset;
+
+    Lexer(char[] source) {
+        this.in = null;
+        this.buf = source;
+        this.limit = source.length;
+    }
+
+    Lexer(Reader in) {
+        this.in = in;
+        this.buf = new char[BUFFER_SIZE];
+    }
+
+    int next() {
+        for (;;) {
+            if (pos == limit && !fill()) {
+                return EOF;
+            }
+            char c = buf[pos];
+            tokenLine = line;
+            tokenColumn = pos - lineStart + 1;
+            tokenOffset = shifted + pos;
+            switch (c) {
+            case '(':
+                pos++;
+                return OPEN;
+            case ')':
+                pos++;
+                return CLOSE;
+            case '\'':
+                pos++;
+                return QUOTE;
+            case ';':
+                skipComment();
+                break;
+            default:
+                if (c == '\n') {
+                    line++;
+                    lineStart = pos + 1;
+                }
+                if (Character.isWhitespace(c)) {
+                    pos++;
+                } else {
+                    readAtom();
+                    return ATOM;
+                }
+            }
+        }
+    }
+
+    Object atom() {
+        return atom;
+    }
+
+    /**
+     * Line of the last token, counting from 1.
+     */
+    int line() {
+        return tokenLine;
+    }
+
+    /**
+     * Column of the last token, counting from 1.
+     */
+    int column() {
+        return tokenColumn;
+    }
+
+    /**
+     * Offset of the last token in the source, counting from 0.
+     */
+    int offset() {
+        return tokenOffset;
+    }
+
+    /**
+     * Line of the last character of the last token.
+     */
+    int endLine() {
+        return line;
+    }
+
+    /**
+     * Column of the last character of the last token.
+     */
+    int endColumn() {
+        return pos - lineStart;
+    }
+
+    /**
+     * Offset just past the last token.
+     */
+    int endOffset() {
+        return shifted + pos;
+    }
+
+    /**
+     * Describes where the last token starts, for error messages.
+     */
+    String position() {
+        return "line " + tokenLine + ", column " + tokenColumn;
+    }
+
+    private void skipComment() {
+        for (;;) {
+            while (pos < limit) {
+                if (buf[pos++] == '\n') {
+                    line++;
+                    lineStart = pos;
+                    return;
+                }
+            }
+            if (!fill()) {
+                return;
+            }
+        }
+    }
+
+    private void readAtom() {
+        int start = pos;
+        for (;;) {
+            while (pos < limit && !isDelimiter(buf[pos])) {
+                pos++;
+            }
+            if (pos < limit || in == null) {
+                break;
+            }
+            int length = pos - start;
+            if (!fill(start)) {
+                start = pos - length;
+                break;
+            }
+            start = pos - length;
+        }
+        atom = decode(start, pos);
+    }
+
+    private Object decode(int start, int end) {
+        char first = buf[start];
+        int length = end - start;
+        if (first == '#') {
+            if (length == 2 && buf[start + 1] == 't') {
+                return Boolean.TRUE;
+            }
+            if (length == 2 && buf[start + 1] == 'f') {
+                return Boolean.FALSE;
+            }
+            throw new LispException("Illegal token: " + new String(buf, start, length) + " at " + position());
+        }
+        if (first >= '0' && first <= '9') {
+            long value = 0;
+            int i = start;
+            for (; i < end && buf[i] >= '0' && buf[i] <= '9'; i++) {
+                if (value <= Integer.MAX_VALUE) {
+                    value = value * 10 + (buf[i] - '0');
+                }
+            }
+            if (i == end) {
+                if (value > Integer.MAX_VALUE) {
+                    return Numbers.valueOf(new BigInteger(new String(buf, start, length)));
+                }
+                return Numbers.valueOf(value);
+            }
+        }
+        return symbol(start, length);
+    }
+
+    /**
+     * Returns the interned symbol for the given characters. Recently seen
+     * symbols are found in a small cache without allocating a string.
+     */
+    private String symbol(int start, int length) {
+        if (symbols == null) {
+            symbols = new String[SYMBOL_CACHE_SIZE];
+        }
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + buf[i];
+        }
+        int index = (hash ^ (hash >>> 16)) & (SYMBOL_CACHE_SIZE - 1);
+        String cached = symbols[index];
+        if (cached != null && cached.length() == length) {
+            int i = 0;
+            while (i < length && cached.charAt(i) == buf[start + i]) {
+                i++;
+            }
+            if (i == length) {
+                return cached;
+            }
+        }
+        String symbol = Symbols.intern(new String(buf, start, length));
+        symbols[index] = symbol;
+        return symbol;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c == '(' || c == ')' || c == '\'' || c == ';' || Character.isWhitespace(c);
+    }
+
+    private boolean fill() {
+        shifted += pos;
+        lineStart -= pos;
+        pos = 0;
+        limit = 0;
+        return fill(0);
+    }
+
+    /**
+     * Reads more input, keeping the characters from {@code keep} onwards. The
+     * kept characters are moved to the front of the buffer and {@code pos} is
+     * adjusted accordingly.
+     */
+    private boolean fill(int keep) {
+        if (in == null) {
+            return false;
+        }
+        int kept = limit - keep;
+        if (buf.length - kept < 2) {
+            char[] grown = new char[buf.length * 2];
+            System.arraycopy(buf, keep, grown, 0, kept);
+            buf = grown;
+        } else if (keep > 0) {
+            System.arraycopy(buf, keep, buf, 0, kept);
+        }
+        pos -= keep;
+        lineStart -= keep;
+        shifted += keep;
+        limit = kept;
+        try {
+            int read;
+            do {
+                read = in.read(buf, limit, buf.length - limit);
+            } while (read == 0);
+            if (read < 0) {
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
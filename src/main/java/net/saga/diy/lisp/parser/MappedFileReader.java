@@ -0,0 +1,100 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes UTF-8 source straight out of a memory mapped file. The file is
+ * mapped in fixed size windows so arbitrarily large files can be read without
+ * holding more than one window of address space at a time.
+ */
+final class MappedFileReader extends Reader {
+
+    private static final long WINDOW_SIZE = 64L << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private final long size;
+    private long windowStart;
+    private ByteBuffer window;
+    private boolean flushed;
+
+    MappedFileReader(File source) throws IOException {
+        this.file = new RandomAccessFile(source, "r");
+        this.channel = file.getChannel();
+        this.size = channel.size();
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(0);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (flushed) {
+            return -1;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        for (;;) {
+            boolean endOfInput = windowStart + window.limit() == size;
+            CoderResult result = decoder.decode(window, out, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (endOfInput && !window.hasRemaining() && !flushed) {
+                decoder.flush(out);
+                flushed = true;
+            }
+            if (out.position() > off || result.isOverflow()) {
+                return out.position() - off;
+            }
+            if (endOfInput) {
+                return -1;
+            }
+            /* Remap from the first unconsumed byte so split sequences survive. */
+            map(windowStart + window.position());
+        }
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+}
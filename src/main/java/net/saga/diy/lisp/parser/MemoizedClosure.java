@@ -0,0 +1,195 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.util.Arrays;
+import java.util.Iterator;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.ConsList;
+import net.saga.diy.lisp.parser.types.LispException;
+
+/**
+ * A closure that remembers what it returned, made by
+ * {@code (memoize f maximum-size weak-values)}, where the options may be left
+ * out.
+ * Calls with arguments that are structurally equal to those of an earlier
+ * call return the earlier result without calling the function, or spending
+ * any {@link Fuel}. Only functions without side effects should be memoized.
+ * <p>
+ * Results are kept in a concurrent cache that holds at most
+ * {@code maximumSize} of them, {@link #DEFAULT_MAXIMUM_SIZE} unless given,
+ * and evicts the least recently used first.
+ * With weak values, results are also dropped once nothing else refers to
+ * them. Calls from several threads share the cache; two threads may compute
+ * the same result at the same time, and the last one is kept.
+ * <p>
+ * Arguments are hashed once per call, lists element by element, whether they
+ * are arrays or {@link ConsList}s. A list is equal to any other list with
+ * equal elements.
+ */
+public final class MemoizedClosure extends Closure {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final Closure function;
+    private final long maximumSize;
+    private final boolean weakValues;
+    private final Cache<Arguments, Object> results;
+
+    public MemoizedClosure(Closure function) {
+        this(function, DEFAULT_MAXIMUM_SIZE, false);
+    }
+
+    public MemoizedClosure(Closure function, long maximumSize, boolean weakValues) {
+        super(function.getEnv(), function.getParams(), function.getBody());
+        this.function = function;
+        this.maximumSize = maximumSize;
+        this.weakValues = weakValues;
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats();
+        this.results = weakValues ? builder.weakValues().build() : builder.build();
+        setName(function.getName());
+    }
+
+    /**
+     * The arguments of a {@code memoize} form, with the options that were
+     * left out filled in.
+     */
+    public static Object[] arguments(Object[] ast) {
+        return new Object[] { ast[1], ast.length > 2 ? ast[2] : DEFAULT_MAXIMUM_SIZE,
+            ast.length > 3 ? ast[3] : false };
+    }
+
+    /**
+     * The value of a {@code memoize} form once its arguments are evaluated. A
+     * closure that is already memoized with the same options is returned as
+     * it is, otherwise the function it wraps is memoized again.
+     */
+    public static Object memoize(Object function, Object maximumSize, Object weakValues) {
+        if (!(maximumSize instanceof Integer) || (Integer) maximumSize < 0) {
+            throw new LispException("Not a cache size: " + Evaluator.toString(maximumSize));
+        }
+        boolean weak = Evaluator.isTrue(weakValues);
+        if (function instanceof MemoizedClosure) {
+            MemoizedClosure memoized = (MemoizedClosure) function;
+            if (memoized.maximumSize == (Integer) maximumSize && memoized.weakValues == weak) {
+                return memoized;
+            }
+            function = memoized.function;
+        }
+        if (!(function instanceof Closure)) {
+            throw new LispException("Not a function: " + Evaluator.toString(function));
+        }
+        return new MemoizedClosure((Closure) function, (Integer) maximumSize, weak);
+    }
+
+    public Closure getFunction() {
+        return function;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public boolean hasWeakValues() {
+        return weakValues;
+    }
+
+    /**
+     * Hits, misses and evictions of the results so far.
+     */
+    public CacheStats stats() {
+        return results.stats();
+    }
+
+    @Override
+    public void setName(String name) {
+        super.setName(name);
+        if (function.getName() == null) {
+            function.setName(name);
+        }
+    }
+
+    public Object invoke(Object[] args, Fuel fuel) {
+        Arguments key = new Arguments(args);
+        Object result = results.getIfPresent(key);
+        if (result == null) {
+            result = Evaluator.apply(function, args, fuel);
+            results.put(key, result);
+        }
+        return result;
+    }
+
+    private static final class Arguments {
+
+        private final Object[] values;
+        private final int hash;
+
+        Arguments(Object[] values) {
+            this.values = values;
+            this.hash = hash(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Arguments && ((Arguments) other).hash == hash
+                    && equal(values, ((Arguments) other).values);
+        }
+
+        private static int hash(Object value) {
+            if (value instanceof Object[] || value instanceof ConsList) {
+                int hash = 1;
+                for (Object element : elements(value)) {
+                    hash = 31 * hash + hash(element);
+                }
+                return hash;
+            }
+            return value.hashCode();
+        }
+
+        private static boolean equal(Object first, Object second) {
+            if (first == second) {
+                return true;
+            }
+            if ((first instanceof Object[] || first instanceof ConsList) && (second instanceof Object[] || second instanceof ConsList)) {
+                Iterator<Object> theirs = elements(second).iterator();
+                for (Object element : elements(first)) {
+                    if (!theirs.hasNext() || !equal(element, theirs.next())) {
+                        return false;
+                    }
+                }
+                return !theirs.hasNext();
+            }
+            return first.equals(second);
+        }
+
+        private static Iterable<Object> elements(Object list) {
+            return list instanceof ConsList ? (ConsList) list : Arrays.asList((Object[]) list);
+        }
+
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.math.BigInteger;
+import net.saga.diy.lisp.parser.types.LispException;
+
+/**
+ * Integer arithmetic for the language. Numbers that fit in an int are always
+ * represented as {@link Integer}, anything larger as {@link BigInteger}, so
+ * results never wrap around and equal numbers are always equal objects.
+ * Common small values come from a preallocated cache instead of being boxed.
+ */
+public final class Numbers {
+
+    private static final int CACHE_LOW = -1024;
+    private static final int CACHE_HIGH = 16383;
+    private static final Integer[] CACHE = new Integer[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = i + CACHE_LOW;
+        }
+    }
+
+    private Numbers() {
+    }
+
+    public static Object valueOf(long value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+            return CACHE[(int) value - CACHE_LOW];
+        }
+        if (value == (int) value) {
+            return (int) value;
+        }
+        return BigInteger.valueOf(value);
+    }
+
+    public static Object valueOf(BigInteger value) {
+        return value.bitLength() < 32 ? valueOf(value.intValue()) : value;
+    }
+
+    public static boolean isNumber(Object value) {
+        return value instanceof Integer || value instanceof BigInteger;
+    }
+
+    public static Object add(Object first, Object second) {
+        if (first instanceof Integer && second instanceof Integer) {
+            return valueOf((long) (Integer) first + (Integer) second);
+        }
+        return valueOf(big("+", first, second, first).add(big("+", first, second, second)));
+    }
+
+    public static Object subtract(Object first, Object second) {
+        if (first instanceof Integer && second instanceof Integer) {
+            return valueOf((long) (Integer) first - (Integer) second);
+        }
+        return valueOf(big("-", first, second, first).subtract(big("-", first, second, second)));
+    }
+
+    public static Object multiply(Object first, Object second) {
+        if (first instanceof Integer && second instanceof Integer) {
+            return valueOf((long) (Integer) first * (Integer) second);
+        }
+        return valueOf(big("*", first, second, first).multiply(big("*", first, second, second)));
+    }
+
+    public static Object divide(Object first, Object second) {
+        if (first instanceof Integer && second instanceof Integer) {
+            return valueOf((long) (Integer) first / nonZero((Integer) second));
+        }
+        BigInteger divisor = big("/", first, second, second);
+        nonZero(divisor.signum());
+        return valueOf(big("/", first, second, first).divide(divisor));
+    }
+
+    public static Object modulo(Object first, Object second) {
+        if (first instanceof Integer && second instanceof Integer) {
+            return valueOf((long) (Integer) first % nonZero((Integer) second));
+        }
+        BigInteger divisor = big("mod", first, second, second);
+        nonZero(divisor.signum());
+        return valueOf(big("mod", first, second, first).remainder(divisor));
+    }
+
+    public static boolean greaterThan(Object first, Object second) {
+        if (first instanceof Integer && second instanceof Integer) {
+            return (Integer) first > (Integer) second;
+        }
+        return big(">", first, second, first).compareTo(big(">", first, second, second)) > 0;
+    }
+
+    public static boolean lessThan(Object first, Object second) {
+        if (first instanceof Integer && second instanceof Integer) {
+            return (Integer) first < (Integer) second;
+        }
+        return big("<", first, second, first).compareTo(big("<", first, second, second)) < 0;
+    }
+
+    /* Exact long arithmetic for callers that keep intermediate results unboxed. */
+
+    public static Object add(long first, long second) {
+        long result = first + second;
+        if (((first ^ result) & (second ^ result)) < 0) {
+            return BigInteger.valueOf(first).add(BigInteger.valueOf(second));
+        }
+        return valueOf(result);
+    }
+
+    public static Object subtract(long first, long second) {
+        long result = first - second;
+        if (((first ^ second) & (first ^ result)) < 0) {
+            return BigInteger.valueOf(first).subtract(BigInteger.valueOf(second));
+        }
+        return valueOf(result);
+    }
+
+    public static Object multiply(long first, long second) {
+        long result = first * second;
+        if (((Math.abs(first) | Math.abs(second)) >>> 31 != 0)
+                && ((second != 0 && result / second != first) || (first == Long.MIN_VALUE && second == -1))) {
+            return BigInteger.valueOf(first).multiply(BigInteger.valueOf(second));
+        }
+        return valueOf(result);
+    }
+
+    public static Object divide(long first, long second) {
+        nonZero(second);
+        if (first == Long.MIN_VALUE && second == -1) {
+            return BigInteger.valueOf(first).negate();
+        }
+        return valueOf(first / second);
+    }
+
+    public static Object modulo(long first, long second) {
+        nonZero(second);
+        return second == -1 ? valueOf(0) : valueOf(first % second);
+    }
+
+    private static long nonZero(long divisor) {
+        if (divisor == 0) {
+            throw new LispException("Division by zero");
+        }
+        return divisor;
+    }
+
+    private static BigInteger big(String operator, Object first, Object second, Object value) {
+        if (value instanceof Integer) {
+            return BigInteger.valueOf((Integer) value);
+        }
+        if (value instanceof BigInteger) {
+            return (BigInteger) value;
+        }
+        throw new LispException("Math operations require integers: (" + operator + " " + Evaluator.toString(first) + " "
+                + Evaluator.toString(second) + ")");
+    }
+
+}
@@ -0,0 +1,510 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import net.saga.diy.lisp.parser.compiler.BytecodeClosure;
+import net.saga.diy.lisp.parser.compiler.CompiledClosure;
+import net.saga.diy.lisp.parser.profiler.Probe;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+
+/**
+ * Rewrites a parsed expression into a smaller one with the same meaning,
+ * before it is run. It
+ * <ul>
+ * <li>folds arithmetic, comparisons, {@code eq} and {@code atom} of
+ * constants,</li>
+ * <li>keeps only the taken branch of an {@code if} with a constant
+ * condition,</li>
+ * <li>drops the {@code quote} around numbers and booleans, and</li>
+ * <li>given an environment, replaces calls to small functions defined there
+ * with their bodies.</li>
+ * </ul>
+ * Forms that would fail are left alone, so they fail when run, as they
+ * would have. Lists that are not rewritten are kept as they are, so errors
+ * raised by them can still be located in the source; errors in an inlined
+ * body are located at the call. Evaluations that are optimized away spend no
+ * {@link Fuel} and make no calls that could notice an interrupt, so an
+ * {@link Interpreter} can be made to run expressions as written instead.
+ * <p>
+ * A function is inlined only if its body is small and defines nothing, and
+ * the function, and every name its body reads, is bound in the environment
+ * itself, where it can never change. Its arguments must be constants or
+ * variables that are always bound, so nothing is evaluated more or less
+ * often, or in another order, than it would have been.
+ */
+public final class Optimizer {
+
+    /* The largest body, in atoms, that is inlined. */
+    private static final int INLINE_SIZE = 16;
+    /* How deep inlined bodies are inlined into in turn. */
+    private static final int INLINE_DEPTH = 4;
+
+    private static final Object NOT_CONSTANT = new Object();
+
+    private final Environment env;
+    private final Map<Closure, Boolean> recursive = new IdentityHashMap<>();
+
+    private Optimizer(Environment env) {
+        this.env = env;
+    }
+
+    /**
+     * Optimizes {@code ast} for any environment, which leaves out inlining.
+     */
+    public static Object optimize(Object ast) {
+        return new Optimizer(null).optimize(ast, Scope.TOP, 0);
+    }
+
+    /**
+     * Optimizes {@code ast} to be run in {@code env}, and in no other. Nothing
+     * is inlined while a {@link Probe} is installed, so profiles show every
+     * call.
+     */
+    public static Object optimize(Object ast, Environment env) {
+        return new Optimizer(Probe.active() == null ? env : null).optimize(ast, Scope.TOP, 0);
+    }
+
+    private Object optimize(Object ast, Scope scope, int depth) {
+        if (!(ast instanceof Object[]) || ((Object[]) ast).length == 0) {
+            return ast;
+        }
+        Object[] list = (Object[]) ast;
+        SpecialForm form = list[0] instanceof String ? SpecialForm.of(list[0]) : null;
+        if (form == null) {
+            Object[] call = optimizeFrom(list, 1, scope, depth);
+            /* A head that stops being a form would stop being called, as in ((+ 1 2)). */
+            Object head = optimize(list[0], scope, depth);
+            if (head != list[0] && head instanceof Object[]) {
+                call = call == list ? list.clone() : call;
+                call[0] = head;
+            }
+            return inline(call, scope, depth);
+        }
+        switch (form) {
+        case QUOTE:
+            if (Evaluator.argumentError(list, 1) == null && !(list[1] instanceof String) && !(list[1] instanceof Object[])) {
+                return list[1];
+            }
+            return list;
+        case ATOM:
+            return fold(form, optimizeArguments(list, 1, scope, depth));
+        case EQ:
+        case ADD:
+        case SUBTRACT:
+        case MULTIPLY:
+        case DIVIDE:
+        case MODULO:
+        case GREATER_THAN:
+        case LESS_THAN:
+            return fold(form, optimizeArguments(list, 2, scope, depth));
+        case IF: {
+            if (Evaluator.argumentError(list, 3) != null) {
+                return list;
+            }
+            Object condition = optimize(list[1], scope, depth);
+            Object value = constant(condition);
+            if (value != NOT_CONSTANT) {
+                return optimize(Evaluator.isTrue(value) ? list[2] : list[3], scope, depth);
+            }
+            Object[] result = optimizeFrom(list, 2, scope, depth);
+            if (condition != list[1]) {
+                result = result == list ? list.clone() : result;
+                result[1] = condition;
+            }
+            return result;
+        }
+        case DEFINE:
+            if (Evaluator.argumentError(list, 2) != null || !(list[1] instanceof String)) {
+                return list;
+            }
+            return optimizeFrom(list, 2, scope, depth);
+        case LAMBDA:
+            if (Evaluator.argumentError(list, 2) != null || !(list[1] instanceof Object[])) {
+                return list;
+            }
+            return optimizeFrom(list, 2, scope.enter((Object[]) list[1], list[2]), depth);
+        case CONS:
+        case PMAP:
+        case PFILTER:
+            return optimizeArguments(list, 2, scope, depth);
+        case HEAD:
+        case TAIL:
+        case EMPTY:
+            return optimizeArguments(list, 1, scope, depth);
+        case MEMOIZE:
+            return Evaluator.argumentError(list, 1, 3) != null ? list : optimizeFrom(list, 1, scope, depth);
+        case PREDUCE:
+            return optimizeArguments(list, 3, scope, depth);
+        default:
+            return optimizeFrom(list, 1, scope, depth);
+        }
+    }
+
+    /**
+     * Optimizes the arguments of a special form, unless there are not
+     * {@code count} of them.
+     */
+    private Object[] optimizeArguments(Object[] list, int count, Scope scope, int depth) {
+        return Evaluator.argumentError(list, count) != null ? list : optimizeFrom(list, 1, scope, depth);
+    }
+
+    /**
+     * Optimizes the elements of {@code list} from {@code start} on, and
+     * returns it as it is if none of them changed.
+     */
+    private Object[] optimizeFrom(Object[] list, int start, Scope scope, int depth) {
+        Object[] result = list;
+        for (int i = start; i < list.length; i++) {
+            Object element = optimize(list[i], scope, depth);
+            if (element != list[i]) {
+                result = result == list ? list.clone() : result;
+                result[i] = element;
+            }
+        }
+        return result;
+    }
+
+    private static Object fold(SpecialForm form, Object[] list) {
+        if (Evaluator.argumentError(list, form == SpecialForm.ATOM ? 1 : 2) != null) {
+            return list;
+        }
+        Object first = constant(list[1]);
+        Object second = form == SpecialForm.ATOM ? null : constant(list[2]);
+        if (first == NOT_CONSTANT || second == NOT_CONSTANT) {
+            return list;
+        }
+        try {
+            switch (form) {
+            case ATOM:
+                return Evaluator.isAtom(first);
+            case EQ:
+                return Evaluator.eq(first, second);
+            case ADD:
+                return Numbers.add(first, second);
+            case SUBTRACT:
+                return Numbers.subtract(first, second);
+            case MULTIPLY:
+                return Numbers.multiply(first, second);
+            case DIVIDE:
+                return Numbers.divide(first, second);
+            case MODULO:
+                return Numbers.modulo(first, second);
+            case GREATER_THAN:
+                return Numbers.greaterThan(first, second);
+            default:
+                return Numbers.lessThan(first, second);
+            }
+        } catch (LispException ex) {
+            return list;
+        }
+    }
+
+    /**
+     * The value of {@code ast} if it does not depend on anything, or
+     * {@link #NOT_CONSTANT}.
+     */
+    private static Object constant(Object ast) {
+        if (ast instanceof Object[]) {
+            Object[] list = (Object[]) ast;
+            if (list.length == 2 && list[0] == SpecialForm.QUOTE.symbol()) {
+                return list[1];
+            }
+            return NOT_CONSTANT;
+        }
+        return ast instanceof String ? NOT_CONSTANT : ast;
+    }
+
+    private Object inline(Object[] call, Scope scope, int depth) {
+        if (env == null || depth >= INLINE_DEPTH || !(call[0] instanceof String) || scope.binds(call[0])) {
+            return call;
+        }
+        Object bound = boundHere((String) call[0]);
+        /* Memoized functions are called for their cache, which the body would bypass. */
+        if (!(bound instanceof Closure) || bound instanceof MemoizedClosure) {
+            return call;
+        }
+        Closure closure = (Closure) bound;
+        Object[] params = closure.getParams();
+        Set<Object> called = new HashSet<>();
+        if (closure.getEnv() != env || capturesFrame(closure) || params.length != call.length - 1 || !inlinable(closure, scope, called)) {
+            return call;
+        }
+        Map<Object, Object> arguments = new HashMap<>();
+        for (int i = 0; i < params.length; i++) {
+            Object argument = call[i + 1];
+            if (!(called.contains(params[i]) ? callable(argument, scope) : movable(argument, scope))) {
+                return call;
+            }
+            arguments.put(params[i], argument);
+        }
+        return optimize(substitute(closure.getBody(), arguments), scope, depth + 1);
+    }
+
+    /**
+     * True if a compiled {@code closure} keeps its free variables in frame
+     * slots. Its environment is then the top level one all the same, where
+     * its body would find other bindings for them.
+     */
+    private static boolean capturesFrame(Closure closure) {
+        if (closure instanceof CompiledClosure) {
+            return !((CompiledClosure) closure).isTopLevel();
+        }
+        return closure instanceof BytecodeClosure && !((BytecodeClosure) closure).isTopLevel();
+    }
+
+    /**
+     * True if {@code argument} can be evaluated where its parameter is used
+     * instead: a constant, or a variable that is always bound.
+     */
+    private boolean movable(Object argument, Scope scope) {
+        if (!(argument instanceof String)) {
+            return constant(argument) != NOT_CONSTANT;
+        }
+        return scope.isParam(argument) || !scope.binds(argument) && boundHere((String) argument) != null;
+    }
+
+    /**
+     * True if {@code argument} can be put at the head of a call. That leaves
+     * variables that may hold a function, as a constant there would mean
+     * something else, as in {@code ('foo)}, and calling what is not a
+     * function fails anyway, best where the source says it does.
+     */
+    private boolean callable(Object argument, Scope scope) {
+        if (!(argument instanceof String)) {
+            return false;
+        }
+        return scope.isParam(argument) || !scope.binds(argument) && boundHere((String) argument) instanceof Closure;
+    }
+
+    /**
+     * The value {@code name} is bound to in the environment itself, not in one
+     * it extends, or null.
+     */
+    private Object boundHere(String name) {
+        Object value = env.getDefinitions().get(name);
+        if (value != null) {
+            return value;
+        }
+        Object[] names = env.getNames();
+        for (int i = 0; i < names.length; i++) {
+            if (name.equals(names[i])) {
+                return env.getValues()[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * True if the body of {@code closure} can replace a call to it made in
+     * {@code scope}. Collects the names the body calls.
+     */
+    private boolean inlinable(Closure closure, Scope scope, Set<Object> called) {
+        Set<Object> params = new HashSet<>();
+        for (Object param : closure.getParams()) {
+            if (!(param instanceof String) || SpecialForm.of(param) != null || !params.add(param)) {
+                return false;
+            }
+        }
+        Set<String> free = new HashSet<>();
+        if (!simple(closure.getBody(), params, free, called, new int[] { INLINE_SIZE })) {
+            return false;
+        }
+        for (String name : free) {
+            if (scope.binds(name) || boundHere(name) == null) {
+                return false;
+            }
+        }
+        return !isRecursive(closure);
+    }
+
+    /**
+     * True if {@code ast} has no more than {@code budget[0]} atoms and
+     * defines nothing. Collects the names it reads other than
+     * {@code params}, and the names it calls.
+     */
+    private static boolean simple(Object ast, Set<Object> params, Set<String> free, Set<Object> called, int[] budget) {
+        if (--budget[0] < 0) {
+            return false;
+        }
+        if (ast instanceof String) {
+            if (!params.contains(ast)) {
+                free.add((String) ast);
+            }
+            return true;
+        }
+        if (!(ast instanceof Object[])) {
+            return true;
+        }
+        Object[] list = (Object[]) ast;
+        if (list.length == 0) {
+            return true;
+        }
+        SpecialForm form = list[0] instanceof String ? SpecialForm.of(list[0]) : null;
+        if (form == SpecialForm.QUOTE) {
+            return true;
+        }
+        if (form == SpecialForm.DEFINE || form == SpecialForm.LAMBDA) {
+            return false;
+        }
+        if (form == null) {
+            called.add(list[0]);
+        }
+        for (int i = form == null ? 0 : 1; i < list.length; i++) {
+            if (!simple(list[i], params, free, called, budget)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if {@code closure} can end up calling itself through the names
+     * bound in the environment.
+     */
+    private boolean isRecursive(Closure closure) {
+        Boolean known = recursive.get(closure);
+        if (known == null) {
+            known = reaches(closure.getBody(), closure, new HashSet<>());
+            recursive.put(closure, known);
+        }
+        return known;
+    }
+
+    private boolean reaches(Object ast, Closure target, Set<Object> seen) {
+        if (ast instanceof String) {
+            Object value = boundHere((String) ast);
+            if (value == target) {
+                return true;
+            }
+            return value instanceof Closure && seen.add(value) && reaches(((Closure) value).getBody(), target, seen);
+        }
+        if (!(ast instanceof Object[])) {
+            return false;
+        }
+        Object[] list = (Object[]) ast;
+        if (list.length > 0 && list[0] == SpecialForm.QUOTE.symbol()) {
+            return false;
+        }
+        for (Object element : list) {
+            if (reaches(element, target, seen)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A copy of {@code body} with the parameters replaced by the arguments.
+     * The body defines nothing, so every parameter in it is one of ours.
+     */
+    private static Object substitute(Object body, Map<Object, Object> arguments) {
+        if (body instanceof String) {
+            Object argument = arguments.get(body);
+            return argument != null ? argument : body;
+        }
+        if (!(body instanceof Object[])) {
+            return body;
+        }
+        Object[] list = ((Object[]) body).clone();
+        if (list.length == 0 || list[0] == SpecialForm.QUOTE.symbol()) {
+            return list;
+        }
+        for (int i = list[0] instanceof String && SpecialForm.of(list[0]) != null ? 1 : 0; i < list.length; i++) {
+            list[i] = substitute(list[i], arguments);
+        }
+        return list;
+    }
+
+    /**
+     * The names bound around the expression being optimized: the parameters
+     * of the enclosing lambdas, and everything their bodies define.
+     */
+    private static final class Scope {
+
+        static final Scope TOP = new Scope(null, Collections.emptySet(), Collections.emptySet());
+
+        private final Scope parent;
+        private final Set<Object> params;
+        private final Set<Object> defined;
+
+        private Scope(Scope parent, Set<Object> params, Set<Object> defined) {
+            this.parent = parent;
+            this.params = params;
+            this.defined = defined;
+        }
+
+        Scope enter(Object[] params, Object body) {
+            Set<Object> defined = new HashSet<>();
+            collectDefinitions(body, defined);
+            return new Scope(this, new HashSet<>(Arrays.asList(params)), defined);
+        }
+
+        boolean binds(Object name) {
+            for (Scope scope = this; scope != null; scope = scope.parent) {
+                if (scope.params.contains(name) || scope.defined.contains(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * True if {@code name} is a parameter, which is always bound, and not
+         * shadowed by a definition that may not have run yet.
+         */
+        boolean isParam(Object name) {
+            for (Scope scope = this; scope != null; scope = scope.parent) {
+                if (scope.defined.contains(name)) {
+                    return false;
+                }
+                if (scope.params.contains(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static void collectDefinitions(Object ast, Set<Object> defined) {
+            if (!(ast instanceof Object[])) {
+                return;
+            }
+            Object[] list = (Object[]) ast;
+            if (list.length > 0 && list[0] == SpecialForm.QUOTE.symbol()) {
+                return;
+            }
+            if (list.length > 1 && list[0] == SpecialForm.DEFINE.symbol()) {
+                defined.add(list[1]);
+            }
+            for (Object element : list) {
+                collectDefinitions(element, defined);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+
+/**
+ * Evaluates top level forms as soon as they are parsed, running each on the
+ * executor once the earlier forms it depends on have finished.
+ * <p>
+ * A form depends on an earlier one when it may read a name the earlier form
+ * defines, when the earlier form may read a name it defines, or when both
+ * define the same name. The names a form may read are the free symbols it
+ * evaluates, plus, transitively, the free symbols in the definitions of
+ * those names, since a form that calls a function reads whatever the body of
+ * the function reads. Defining a lambda or a constant reads nothing, so such
+ * forms are run straight away on the calling thread.
+ */
+final class ParallelEvaluation {
+
+    private final Environment env;
+    private final Engine engine;
+    private final Executor executor;
+    private final SourceMap positions;
+    private final boolean optimizing;
+
+    private final List<CompletableFuture<Object>> results = new ArrayList<>();
+    private final Map<String, CompletableFuture<Object>> definers = new HashMap<>();
+    private final Map<String, List<CompletableFuture<Object>>> readers = new HashMap<>();
+    private final Map<String, Set<String>> definitionReads = new HashMap<>();
+
+    ParallelEvaluation(Environment env, Engine engine, Executor executor, SourceMap positions, boolean optimizing) {
+        this.env = env;
+        this.engine = engine;
+        this.executor = executor;
+        this.positions = positions;
+        this.optimizing = optimizing;
+    }
+
+    /**
+     * Evaluates every form and returns the values in source order. The first
+     * error in source order is thrown, though forms after it that did not
+     * depend on it may have run already.
+     */
+    List<Object> evaluate(Iterator<Object> forms) {
+        try {
+            while (forms.hasNext()) {
+                submit(forms.next());
+            }
+        } catch (RuntimeException ex) {
+            join();
+            throw ex;
+        }
+        return join();
+    }
+
+    private void submit(Object form) {
+        Set<String> defines = new HashSet<>();
+        Set<String> free = new HashSet<>();
+        scan(form, Collections.<Object>emptySet(), false, defines, free);
+        boolean readsNothing = readsNothing(form);
+        Set<String> reads = readsNothing ? Collections.<String>emptySet() : reachable(free);
+
+        List<CompletableFuture<Object>> dependencies = new ArrayList<>();
+        for (String name : reads) {
+            addIfPresent(dependencies, definers.get(name));
+        }
+        for (String name : defines) {
+            addIfPresent(dependencies, definers.get(name));
+            List<CompletableFuture<Object>> earlierReaders = readers.remove(name);
+            if (earlierReaders != null) {
+                dependencies.addAll(earlierReaders);
+            }
+        }
+
+        CompletableFuture<Object> result = schedule(form, dependencies, readsNothing);
+        for (String name : reads) {
+            List<CompletableFuture<Object>> list = readers.get(name);
+            if (list == null) {
+                list = new ArrayList<>();
+                readers.put(name, list);
+            }
+            list.add(result);
+        }
+        for (String name : defines) {
+            definers.put(name, result);
+            definitionReads.put(name, free);
+        }
+        results.add(result);
+    }
+
+    private CompletableFuture<Object> schedule(Object form, List<CompletableFuture<Object>> dependencies,
+            boolean readsNothing) {
+        if (dependencies.isEmpty()) {
+            if (readsNothing) {
+                CompletableFuture<Object> result = new CompletableFuture<>();
+                try {
+                    result.complete(run(form));
+                } catch (RuntimeException ex) {
+                    result.completeExceptionally(ex);
+                }
+                return result;
+            }
+            return CompletableFuture.supplyAsync(() -> run(form), executor);
+        }
+        CompletableFuture<?>[] waitFor = dependencies.toArray(new CompletableFuture<?>[dependencies.size()]);
+        return CompletableFuture.allOf(waitFor).thenApplyAsync(done -> run(form), executor);
+    }
+
+    private Object run(Object form) {
+        try {
+            return engine.evaluate(optimizing ? Optimizer.optimize(form, env) : form, env);
+        } catch (LispException ex) {
+            throw positions.locate(ex, form);
+        }
+    }
+
+    private List<Object> join() {
+        List<Object> values = new ArrayList<>(results.size());
+        for (CompletableFuture<Object> result : results) {
+            try {
+                values.add(result.join());
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw ex;
+            }
+        }
+        return values;
+    }
+
+    private Set<String> reachable(Set<String> free) {
+        Set<String> reads = new HashSet<>(free);
+        ArrayDeque<String> pending = new ArrayDeque<>(free);
+        String name;
+        while ((name = pending.poll()) != null) {
+            Set<String> more = definitionReads.get(name);
+            if (more == null) {
+                more = closureReads(name);
+                definitionReads.put(name, more);
+            }
+            for (String symbol : more) {
+                if (reads.add(symbol)) {
+                    pending.add(symbol);
+                }
+            }
+        }
+        return reads;
+    }
+
+    /**
+     * The free symbols of a function that was in the environment before the
+     * file was loaded.
+     */
+    private Set<String> closureReads(String name) {
+        Object value;
+        try {
+            value = env.lookup(name);
+        } catch (LispException notDefined) {
+            return Collections.emptySet();
+        }
+        if (!(value instanceof Closure)) {
+            return Collections.emptySet();
+        }
+        Closure closure = (Closure) value;
+        Set<Object> params = new HashSet<>();
+        Collections.addAll(params, closure.getParams());
+        Set<String> free = new HashSet<>();
+        scan(closure.getBody(), params, true, new HashSet<String>(), free);
+        return free;
+    }
+
+    /**
+     * Collects the free symbols of {@code ast} and the names it defines
+     * outside of any lambda. Quoted data is skipped. Malformed forms are
+     * scanned as plain lists, which can only add symbols.
+     */
+    private static void scan(Object ast, Set<Object> bound, boolean inLambda, Set<String> defines,
+            Set<String> free) {
+        if (ast instanceof String) {
+            if (!bound.contains(ast)) {
+                free.add((String) ast);
+            }
+            return;
+        }
+        if (!(ast instanceof Object[])) {
+            return;
+        }
+        Object[] list = (Object[]) ast;
+        if (list.length == 0) {
+            return;
+        }
+        SpecialForm form = SpecialForm.of(list[0]);
+        int first = form == null ? 0 : 1;
+        if (form == SpecialForm.QUOTE) {
+            return;
+        }
+        if (form == SpecialForm.DEFINE && list.length > 1 && list[1] instanceof String) {
+            if (!inLambda) {
+                defines.add((String) list[1]);
+            }
+            first = 2;
+        }
+        if (form == SpecialForm.LAMBDA && list.length > 1 && list[1] instanceof Object[]) {
+            Set<Object> inner = new HashSet<>(bound);
+            Collections.addAll(inner, (Object[]) list[1]);
+            bound = inner;
+            inLambda = true;
+            first = 2;
+        }
+        for (int i = first; i < list.length; i++) {
+            scan(list[i], bound, inLambda, defines, free);
+        }
+    }
+
+    /**
+     * True for constants, lambdas, and definitions of either, which evaluate
+     * without looking anything up.
+     */
+    private static boolean readsNothing(Object ast) {
+        if (ast instanceof String) {
+            return false;
+        }
+        if (!(ast instanceof Object[])) {
+            return true;
+        }
+        Object[] list = (Object[]) ast;
+        if (list.length == 0) {
+            return false;
+        }
+        SpecialForm form = SpecialForm.of(list[0]);
+        if (form == SpecialForm.QUOTE || form == SpecialForm.LAMBDA) {
+            return true;
+        }
+        return form == SpecialForm.DEFINE && list.length == 3 && readsNothing(list[2]);
+    }
+
+    private static void addIfPresent(List<CompletableFuture<Object>> list, CompletableFuture<Object> future) {
+        if (future != null) {
+            list.add(future);
+        }
+    }
+
+}
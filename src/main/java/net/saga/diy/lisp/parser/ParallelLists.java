@@ -0,0 +1,201 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.ConsList;
+import net.saga.diy.lisp.parser.types.LispException;
+
+/**
+ * The list operations behind {@code pmap}, {@code pfilter} and
+ * {@code preduce}. Lists are split in halves until the pieces are small
+ * enough to be worked through in one go, and the pieces are run on the common
+ * {@link ForkJoinPool}. Lists no longer than {@link #SEQUENTIAL_CUTOFF} are
+ * processed on the calling thread.
+ * <p>
+ * Every piece run on the pool counts its steps with its own share of the
+ * caller's {@link Fuel}.
+ * <p>
+ * Closures are called concurrently, which is safe because every call binds
+ * its arguments in a new environment and only reads the environment it
+ * captured. The result has the same kind as the list passed in.
+ */
+public final class ParallelLists {
+
+    public static final int SEQUENTIAL_CUTOFF = 256;
+
+    private ParallelLists() {
+    }
+
+    public static Object map(Object function, Object list, Fuel fuel) {
+        Object[] elements = elements(list);
+        Object[] results = new Object[elements.length];
+        run(new MapTask(closure(function), elements, results, 0, elements.length, fuel));
+        return sameKind(list, results);
+    }
+
+    public static Object filter(Object predicate, Object list, Fuel fuel) {
+        Object[] elements = elements(list);
+        Object[] tests = new Object[elements.length];
+        run(new MapTask(closure(predicate), elements, tests, 0, elements.length, fuel));
+
+        Object[] kept = new Object[elements.length];
+        int size = 0;
+        for (int i = 0; i < elements.length; i++) {
+            if (Evaluator.isTrue(tests[i])) {
+                kept[size++] = elements[i];
+            }
+        }
+        return sameKind(list, Arrays.copyOf(kept, size));
+    }
+
+    /**
+     * Combines the elements with {@code function}, starting from
+     * {@code initial}. Pieces of the list are combined in parallel, so the
+     * function has to be associative for the result to match a left fold.
+     */
+    public static Object reduce(Object function, Object initial, Object list, Fuel fuel) {
+        Closure closure = closure(function);
+        Object[] elements = elements(list);
+        if (elements.length == 0) {
+            return initial;
+        }
+        ReduceTask task = new ReduceTask(closure, elements, 0, elements.length, fuel);
+        Object total = elements.length <= SEQUENTIAL_CUTOFF ? task.reduce(fuel) : ForkJoinPool.commonPool().invoke(task);
+        return Evaluator.apply(closure, new Object[] { initial, total }, fuel);
+    }
+
+    private static void run(MapTask task) {
+        if (task.to - task.from <= SEQUENTIAL_CUTOFF) {
+            task.map(task.fuel);
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    private static Closure closure(Object function) {
+        if (!(function instanceof Closure)) {
+            throw new LispException("Not a function: " + Evaluator.toString(function));
+        }
+        return (Closure) function;
+    }
+
+    private static Object[] elements(Object list) {
+        if (list instanceof ConsList) {
+            return ((ConsList) list).toArray();
+        }
+        if (!(list instanceof Object[])) {
+            throw new LispException("Not a list: " + Evaluator.toString(list));
+        }
+        return (Object[]) list;
+    }
+
+    private static Object sameKind(Object list, Object[] elements) {
+        return list instanceof ConsList ? ConsList.of(elements) : elements;
+    }
+
+    private static final class MapTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Closure function;
+        private final Object[] elements;
+        private final Object[] results;
+        final int from;
+        final int to;
+        final Fuel fuel;
+
+        MapTask(Closure function, Object[] elements, Object[] results, int from, int to, Fuel fuel) {
+            this.function = function;
+            this.elements = elements;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.fuel = fuel;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_CUTOFF) {
+                map(fuel == null ? null : fuel.share());
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new MapTask(function, elements, results, from, middle, fuel),
+                    new MapTask(function, elements, results, middle, to, fuel));
+        }
+
+        void map(Fuel counter) {
+            for (int i = from; i < to; i++) {
+                results[i] = Evaluator.apply(function, new Object[] { elements[i] }, counter);
+            }
+        }
+
+    }
+
+    /**
+     * Reduces a non-empty range, keeping the left part on the left of every
+     * call.
+     */
+    private static final class ReduceTask extends RecursiveTask<Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Closure function;
+        private final Object[] elements;
+        private final int from;
+        private final int to;
+        private final Fuel fuel;
+
+        ReduceTask(Closure function, Object[] elements, int from, int to, Fuel fuel) {
+            this.function = function;
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+            this.fuel = fuel;
+        }
+
+        @Override
+        protected Object compute() {
+            Fuel counter = fuel == null ? null : fuel.share();
+            if (to - from <= SEQUENTIAL_CUTOFF) {
+                return reduce(counter);
+            }
+            int middle = (from + to) >>> 1;
+            ReduceTask left = new ReduceTask(function, elements, from, middle, fuel);
+            left.fork();
+            Object right = new ReduceTask(function, elements, middle, to, fuel).compute();
+            return Evaluator.apply(function, new Object[] { left.join(), right }, counter);
+        }
+
+        Object reduce(Fuel counter) {
+            Object result = elements[from];
+            for (int i = from + 1; i < to; i++) {
+                result = Evaluator.apply(function, new Object[] { result, elements[i] }, counter);
+            }
+            return result;
+        }
+
+    }
+
+}
@@ -18,137 +18,166 @@
  */
 package net.saga.diy.lisp.parser;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
-import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import net.saga.diy.lisp.parser.types.LispException;
 
 public class Parser {
 
-    private static final Pattern PATTERN = Pattern.compile("^[^\\s)']+");
-
     public static Object parse(String source) {
-        throw new IllegalStateException("not implemented");
-
-    }
-
-    private static String removeComments(String source) {
-
-        return source.replaceAll(";.*\\n", "\n");
+        return parse(source, null);
     }
 
-    private static List<String> splitExpressions(String source) {
-        List<String> exprs = new ArrayList<>();
-        CharBuffer buff = CharBuffer.wrap(source.toCharArray());
-
-        while (buff.hasRemaining()) {
-            exprs.add(nextExpression(buff));
+    /**
+     * Parses one expression, recording where its lists start in
+     * {@code positions} unless it is null.
+     */
+    public static Object parse(String source, SourceMap positions) {
+        Lexer lexer = new Lexer(source.toCharArray());
+        List<Object> stack = new ArrayList<>();
+
+        Object expression = read(lexer, lexer.next(), stack, positions);
+        if (lexer.next() != Lexer.EOF) {
+            throw new LispException("Expected EOF at " + lexer.position());
         }
 
-        return exprs;
+        return expression;
     }
 
-    private static String nextExpression(CharBuffer buff) {
-        buff.mark();
-        char next = buff.get();
-        while (next == ' ' || next == '\n') {
-            buff.mark();
-            next = buff.get();
-        }
-        buff.reset();
-        StringBuilder expr = new StringBuilder();
-        char[] arr;
-        switch (next) {
-        case '\'':
-            buff.get();
-            expr.append("(quote ").append(nextExpression(buff)).append(")");
-
-            break;
-        case '(':
-            int last = findMatchingParen(buff) + 1;
-            arr = new char[last];
-            buff.get(arr, 0, last);
-            expr.append(arr);
-
-            break;
-        default:
-            String remaining = buff.toString();
-            Matcher match = PATTERN.matcher(remaining);
-            if (!match.lookingAt()) {
-                throw new LispException("Illegal start of expression:" + remaining);
-            }
-            int end = match.end();
-            arr = new char[end];
-            buff.get(arr, 0, end);
-            expr.append(arr);
-
-            break;
-        }
-
-        return expr.toString();
+    public static Object[] parseMultiple(Reader reader) {
+        List<Object> expressions = new ArrayList<>();
+        expressions(reader).forEachRemaining(expressions::add);
+        return expressions.toArray();
     }
 
-    private static int findMatchingParen(CharBuffer buff) {
-        return findMatchingParen(buff, 0);
+    /**
+     * Parses top level expressions lazily, one per call to {@code next()}.
+     * Only the expression being read is held in memory.
+     */
+    public static Iterator<Object> expressions(Reader reader) {
+        return expressions(reader, null);
     }
 
-    private static int findMatchingParen(CharBuffer buff, int start) {
+    /**
+     * Like {@link #expressions(Reader)}, recording where lists start in
+     * {@code positions} unless it is null.
+     */
+    public static Iterator<Object> expressions(Reader reader, SourceMap positions) {
+        return new ExpressionIterator(new Lexer(reader), positions);
+    }
 
-        assert buff.charAt(start) == '(';
+    /**
+     * Streams the top level expressions of a UTF-8 source file, decoding it from
+     * a memory mapped channel. Close the stream to release the file.
+     */
+    public static Stream<Object> parseFile(File sourceFile) {
+        return parseFile(sourceFile, null);
+    }
 
-        int pos = start;
-        int openBrackets = 1;
+    /**
+     * Like {@link #parseFile(File)}, recording where lists start in
+     * {@code positions} unless it is null.
+     */
+    public static Stream<Object> parseFile(File sourceFile, SourceMap positions) {
+        try {
+            Reader reader = new MappedFileReader(sourceFile);
+            Spliterator<Object> expressions = Spliterators.spliteratorUnknownSize(expressions(reader, positions),
+                    Spliterator.ORDERED | Spliterator.NONNULL);
+            return StreamSupport.stream(expressions, false).onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
 
-        while (openBrackets > 0) {
-            pos++;
-            if (buff.remaining() == pos) {
-                throw new LispException("Incomplete expression " + buff.toString());
+    /**
+     * Reads one expression starting at {@code token}. Elements of open lists are
+     * collected on the shared {@code stack} so that only the final arrays are
+     * allocated. Every list is added to {@code positions}, if given, once it is
+     * closed.
+     */
+    private static Object read(Lexer lexer, int token, List<Object> stack, SourceMap positions) {
+        int line = lexer.line();
+        int column = lexer.column();
+        int offset = lexer.offset();
+        switch (token) {
+        case Lexer.ATOM:
+            return lexer.atom();
+        case Lexer.QUOTE:
+            Object[] quoted = { SpecialForm.QUOTE.symbol(), read(lexer, lexer.next(), stack, positions) };
+            if (positions != null) {
+                positions.add(quoted, line, column, offset, lexer);
             }
-            if (buff.charAt(pos) == '(') {
-                openBrackets++;
+            return quoted;
+        case Lexer.OPEN:
+            int base = stack.size();
+            for (int next = lexer.next(); next != Lexer.CLOSE; next = lexer.next()) {
+                if (next == Lexer.EOF) {
+                    throw new LispException("Incomplete expression starting at line " + line + ", column " + column);
+                }
+                stack.add(read(lexer, next, stack, positions));
             }
-            if (buff.charAt(pos) == ')') {
-                openBrackets--;
+            List<Object> elements = stack.subList(base, stack.size());
+            Object[] list = elements.toArray();
+            elements.clear();
+            if (positions != null) {
+                if (list.length > 2 && list[0] == SpecialForm.LAMBDA.symbol() && list[1] instanceof Object[]) {
+                    positions.addLambda((Object[]) list[1], line, column, offset, lexer);
+                }
+                positions.add(list, line, column, offset, lexer);
             }
+            return list;
+        case Lexer.CLOSE:
+            throw new LispException("Unexpected ) at " + lexer.position());
+        default:
+            throw new LispException("Incomplete expression");
         }
-
-        return pos;
     }
 
-    public static Object[] parseMultiple(Reader reader) {
-        char chara;
-        int parens = 0;
-        boolean expressionStarted = false;
-        List<Object> expressions = new ArrayList<>();
+    private static final class ExpressionIterator implements Iterator<Object> {
 
-        StringBuilder builder = new StringBuilder();
-        try {
-            while ((chara = (char) reader.read()) != (char) -1) {
-                if (chara == '(') {
-                    parens++;
-                    expressionStarted = true;
-                } else if (chara == ')') {
-                    parens--;
-                }
+        private final Lexer lexer;
+        private final SourceMap positions;
+        private final List<Object> stack = new ArrayList<>();
+        private int token = -1;
 
-                builder.append(chara);
+        ExpressionIterator(Lexer lexer, SourceMap positions) {
+            this.lexer = lexer;
+            this.positions = positions;
+        }
 
-                if (expressionStarted && parens == 0) {
-                    expressionStarted = false;
-                    expressions.add(parse(builder.toString()));
-                    builder = new StringBuilder();
-                }
+        @Override
+        public boolean hasNext() {
+            if (token < 0) {
+                token = lexer.next();
+            }
+            return token != Lexer.EOF;
+        }
 
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+            int current = token;
+            token = -1;
+            return read(lexer, current, stack, positions);
         }
 
-        return expressions.toArray();
     }
 
 }
@@ -0,0 +1,256 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.saga.diy.lisp.parser.types.Environment;
+
+/**
+ * Runs scripts concurrently through an {@link Interpreter}, each on a thread
+ * of its own. On a JVM with virtual threads every script gets a virtual
+ * thread, otherwise a platform thread, so a script that blocks never keeps
+ * another one waiting for a pool thread.
+ * <p>
+ * Cancelling the future of a script, or letting its deadline pass,
+ * interrupts its thread and cancels the {@link Fuel} it runs with, which
+ * also reaches the pool threads working for it in {@code pmap} and the
+ * like. The evaluation then stops at the next function call, see
+ * {@link Evaluator#checkpoint(Fuel)}. A script that runs past its
+ * deadline fails with a {@link TimeoutException}. Scripts given a
+ * {@link Fuel} budget fail with an
+ * {@link net.saga.diy.lisp.parser.types.OutOfFuelException} when they use it
+ * up.
+ */
+public class ScriptExecutor implements AutoCloseable {
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = virtualThreadPerTaskExecutor();
+
+    private final Interpreter interpreter;
+    private final ExecutorService threads;
+    private final boolean virtual;
+    private final ScheduledThreadPoolExecutor deadlines;
+    private final Set<ScriptTask> unfinished = ConcurrentHashMap.newKeySet();
+
+    public ScriptExecutor() {
+        this(new Interpreter());
+    }
+
+    public ScriptExecutor(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+        this.virtual = virtualThreads != null;
+        this.threads = virtual ? virtualThreads : Executors.newCachedThreadPool(daemonThreads("diy-lisp-script-"));
+        this.deadlines = new ScheduledThreadPoolExecutor(1, daemonThreads("diy-lisp-deadline-"));
+        this.deadlines.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * True when scripts run on virtual threads.
+     */
+    public boolean usesVirtualThreads() {
+        return virtual;
+    }
+
+    public Future<Object> submit(String source, Environment env) {
+        return submit(source, env, (Fuel) null);
+    }
+
+    public Future<Object> submit(String source, Environment env, Fuel fuel) {
+        ScriptTask task = task(source, env, fuel);
+        try {
+            threads.execute(task);
+        } catch (RuntimeException ex) {
+            unfinished.remove(task);
+            throw ex;
+        }
+        return task;
+    }
+
+    public Future<Object> submit(String source, Environment env, long timeout, TimeUnit unit) {
+        return submit(source, env, null, timeout, unit);
+    }
+
+    /**
+     * Runs {@code source}, stopping it if it has not finished within
+     * {@code timeout}.
+     */
+    public Future<Object> submit(String source, Environment env, Fuel fuel, long timeout, TimeUnit unit) {
+        ScriptTask task = task(source, env, fuel);
+        task.deadline = deadlines.schedule(() -> task.expire(timeout, unit), timeout, unit);
+        try {
+            threads.execute(task);
+        } catch (RuntimeException ex) {
+            task.deadline.cancel(false);
+            unfinished.remove(task);
+            throw ex;
+        }
+        return task;
+    }
+
+    /**
+     * Every script runs with a fuel of its own, so that stopping it does not
+     * stop other scripts spending the same budget.
+     */
+    private ScriptTask task(String source, Environment env, Fuel fuel) {
+        Fuel own = fuel == null ? Fuel.unlimited() : fuel.detach();
+        ScriptTask task = new ScriptTask(() -> interpreter.execute(source, env, own), own, unfinished);
+        unfinished.add(task);
+        return task;
+    }
+
+    /**
+     * Stops accepting scripts. Scripts already submitted run to completion or
+     * until their deadline.
+     */
+    public void shutdown() {
+        threads.shutdown();
+        deadlines.shutdown();
+    }
+
+    /**
+     * Stops accepting scripts and interrupts the ones that are running.
+     */
+    public void shutdownNow() {
+        for (ScriptTask task : unfinished) {
+            task.fuel.cancel();
+        }
+        threads.shutdownNow();
+        deadlines.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threads.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    private static Method virtualThreadPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns null before Java 21, and when virtual threads are a preview
+     * feature that has not been enabled.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class ScriptTask extends FutureTask<Object> {
+
+        final Fuel fuel;
+        private Thread runner;
+        volatile ScheduledFuture<?> deadline;
+
+        private final Set<ScriptTask> unfinished;
+
+        ScriptTask(Callable<Object> script, Fuel fuel, Set<ScriptTask> unfinished) {
+            super(script);
+            this.fuel = fuel;
+            this.unfinished = unfinished;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            try {
+                super.run();
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mayInterruptIfRunning) {
+                fuel.cancel();
+            }
+            return cancelled;
+        }
+
+        /**
+         * Fails the script, cancels its fuel and interrupts it. Holding the
+         * lock means the interrupt can only reach the thread while it is
+         * still running this script.
+         */
+        synchronized void expire(long timeout, TimeUnit unit) {
+            if (isDone()) {
+                return;
+            }
+            setException(new TimeoutException("Script did not finish within " + timeout + " "
+                    + unit.toString().toLowerCase()));
+            fuel.cancel();
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+
+        @Override
+        protected void done() {
+            unfinished.remove(this);
+            ScheduledFuture<?> timer = deadline;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+
+    }
+
+}
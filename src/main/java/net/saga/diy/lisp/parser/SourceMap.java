@@ -0,0 +1,313 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import com.google.common.collect.MapMaker;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import net.saga.diy.lisp.parser.types.LispException;
+
+/**
+ * Where the lists of parsed source start and end. The AST itself carries no
+ * positions: the parser appends every list it closes to parallel arrays, which
+ * are only indexed when a position is first looked up. Parsing without a map
+ * records nothing.
+ * <p>
+ * Lines and columns count from 1, and a list ends at its closing parenthesis.
+ * Offsets count characters from 0, and the end offset is just past the list.
+ * Errors are located by the whole span of the form that failed.
+ *
+ * The parameter lists of lambdas are also indexed globally, weakly, so that
+ * profilers can find where a closure came from. A map can record only those,
+ * and leave finding other positions to {@link #locate(LispException, Object, String)}
+ * should something fail.
+ */
+public final class SourceMap {
+
+    private static final ConcurrentMap<Object, String> LAMBDAS = new MapMaker().weakKeys().makeMap();
+    private static final int LINE = 0;
+    private static final int COLUMN = 1;
+    private static final int OFFSET = 2;
+    private static final int END_LINE = 3;
+    private static final int END_COLUMN = 4;
+    private static final int END_OFFSET = 5;
+
+    private final String source;
+    private final boolean lists;
+    private Object[] forms = new Object[16];
+    private int[] lines = new int[16];
+    private int[] columns = new int[16];
+    private int[] offsets = new int[16];
+    private int[] endLines = new int[16];
+    private int[] endColumns = new int[16];
+    private int[] endOffsets = new int[16];
+    private int size;
+    private int lastLambda = -1;
+    private Map<Object, Integer> index;
+    private ConcurrentMap<Object, int[]> kept;
+
+    /**
+     * @param source the name of the file being parsed, or null
+     */
+    public SourceMap(String source) {
+        this(source, true);
+    }
+
+    /**
+     * @param lists false to record the parameter lists of lambdas only
+     */
+    SourceMap(String source, boolean lists) {
+        this.source = source;
+        this.lists = lists;
+    }
+
+    /**
+     * Where the lambda with the parameter list {@code params} starts, or null
+     * if it was not parsed with a map.
+     */
+    public static String lambdaLocation(Object[] params) {
+        return LAMBDAS.get(params);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Where {@code form} starts, as {@code file:line:column}, or as
+     * {@code line L, column C} when there is no file. Null if {@code form} is
+     * not a list recorded in this map.
+     */
+    public synchronized String describe(Object form) {
+        int[] span = span(form);
+        return span == null ? null : format(span[LINE], span[COLUMN]);
+    }
+
+    /**
+     * Line of {@code form}, or 0 if it is not recorded in this map.
+     */
+    public synchronized int line(Object form) {
+        int[] span = span(form);
+        return span == null ? 0 : span[LINE];
+    }
+
+    public synchronized int column(Object form) {
+        int[] span = span(form);
+        return span == null ? 0 : span[COLUMN];
+    }
+
+    /**
+     * Offset of the start of {@code form}, or -1 if it is not recorded in
+     * this map.
+     */
+    public synchronized int offset(Object form) {
+        int[] span = span(form);
+        return span == null ? -1 : span[OFFSET];
+    }
+
+    public synchronized int endLine(Object form) {
+        int[] span = span(form);
+        return span == null ? 0 : span[END_LINE];
+    }
+
+    public synchronized int endColumn(Object form) {
+        int[] span = span(form);
+        return span == null ? 0 : span[END_COLUMN];
+    }
+
+    /**
+     * Offset just past the end of {@code form}, or -1 if it is not recorded
+     * in this map.
+     */
+    public synchronized int endOffset(Object form) {
+        int[] span = span(form);
+        return span == null ? -1 : span[END_OFFSET];
+    }
+
+    /**
+     * Where {@code form} starts and ends, as {@code file:line:column-line:column},
+     * or as {@code line L, columns C-E} when there is no file, and
+     * {@code line L, column C to line M, column E} when it spans lines. Null
+     * if {@code form} is not a list recorded in this map.
+     */
+    public synchronized String describeSpan(Object form) {
+        int[] span = span(form);
+        if (span == null) {
+            return null;
+        }
+        if (source != null) {
+            return format(span[LINE], span[COLUMN]) + "-" + span[END_LINE] + ":" + span[END_COLUMN];
+        }
+        if (span[LINE] == span[END_LINE]) {
+            return "line " + span[LINE] + ", columns " + span[COLUMN] + "-" + span[END_COLUMN];
+        }
+        return format(span[LINE], span[COLUMN]) + " to " + format(span[END_LINE], span[END_COLUMN]);
+    }
+
+    /**
+     * Records where {@code ex} happened: at its innermost failing form if this
+     * map knows it, otherwise at {@code ast}, the expression being run.
+     */
+    public LispException locate(LispException ex, Object ast) {
+        if (ex.getLocation() == null) {
+            String location = describeSpan(ex.getForm());
+            ex.setLocation(location != null ? location : describeSpan(ast));
+        }
+        return ex;
+    }
+
+    /**
+     * Records where {@code ex} happened in {@code source}, which {@code ast}
+     * was parsed from without recording positions. The source is parsed again
+     * with a map, and the failing form found in the copy by where it sits in
+     * {@code ast}. Parsing twice on errors is cheaper than recording every
+     * list of every expression that runs fine.
+     */
+    static LispException locate(LispException ex, Object ast, String source) {
+        if (ex.getLocation() == null) {
+            SourceMap positions = new SourceMap(null);
+            Object copy = Parser.parse(source, positions);
+            String location = positions.describeSpan(counterpart(ex.getForm(), ast, copy));
+            ex.setLocation(location != null ? location : positions.describeSpan(copy));
+        }
+        return ex;
+    }
+
+    /**
+     * The part of {@code copy} at the place {@code form} is in {@code ast}, or
+     * null if it is not there.
+     */
+    private static Object counterpart(Object form, Object ast, Object copy) {
+        if (ast == form) {
+            return copy;
+        }
+        if (!(ast instanceof Object[]) || !(copy instanceof Object[])) {
+            return null;
+        }
+        Object[] list = (Object[]) ast;
+        Object[] copied = (Object[]) copy;
+        for (int i = 0; i < list.length && i < copied.length; i++) {
+            Object found = counterpart(form, list[i], copied[i]);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    private String format(int line, int column) {
+        return source == null ? "line " + line + ", column " + column : source + ":" + line + ":" + column;
+    }
+
+    /**
+     * Line, column, offset, end line, end column and end offset of
+     * {@code form}, or null.
+     */
+    private int[] span(Object form) {
+        if (!(form instanceof Object[])) {
+            return null;
+        }
+        if (index == null) {
+            index = new IdentityHashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                index.put(forms[i], i);
+            }
+        }
+        Integer at = index.get(form);
+        if (at == null) {
+            return kept == null ? null : kept.get(form);
+        }
+        return new int[] { lines[at], columns[at], offsets[at], endLines[at], endColumns[at], endOffsets[at] };
+    }
+
+    /**
+     * Records {@code list}, which ends with the token the lexer read last.
+     */
+    synchronized void add(Object[] list, int line, int column, int offset, Lexer end) {
+        if (!lists) {
+            return;
+        }
+        if (size == forms.length) {
+            forms = Arrays.copyOf(forms, size * 2);
+            lines = Arrays.copyOf(lines, size * 2);
+            columns = Arrays.copyOf(columns, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+            endLines = Arrays.copyOf(endLines, size * 2);
+            endColumns = Arrays.copyOf(endColumns, size * 2);
+            endOffsets = Arrays.copyOf(endOffsets, size * 2);
+        }
+        forms[size] = list;
+        lines[size] = line;
+        columns[size] = column;
+        offsets[size] = offset;
+        endLines[size] = end.endLine();
+        endColumns[size] = end.endColumn();
+        endOffsets[size] = end.endOffset();
+        if (index != null) {
+            index.put(list, size);
+        }
+        size++;
+    }
+
+    /**
+     * Records the parameter list of a lambda at the position of the lambda.
+     */
+    synchronized void addLambda(Object[] params, int line, int column, int offset, Lexer end) {
+        if (lists) {
+            lastLambda = size;
+        }
+        add(params, line, column, offset, end);
+        LAMBDAS.put(params, format(line, column));
+    }
+
+    /**
+     * A point to {@link #forget} back to.
+     */
+    synchronized int mark() {
+        return size;
+    }
+
+    /**
+     * Drops the lists recorded since {@code mark}. If they include a lambda,
+     * they are kept weakly instead: closures can outlive the expression that
+     * created them, and errors inside them should still be found for as long
+     * as their bodies are around.
+     */
+    synchronized void forget(int mark) {
+        if (mark >= size) {
+            return;
+        }
+        if (lastLambda >= mark) {
+            if (kept == null) {
+                kept = new MapMaker().weakKeys().makeMap();
+            }
+            for (int i = mark; i < size; i++) {
+                kept.put(forms[i], new int[] { lines[i], columns[i], offsets[i], endLines[i], endColumns[i],
+                    endOffsets[i] });
+            }
+            lastLambda = -1;
+        }
+        Arrays.fill(forms, mark, size, null);
+        size = mark;
+        index = null;
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import net.saga.diy.lisp.parser.types.Symbols;
+
+/**
+ * The built in forms of the language. Forms are recognised by comparing the
+ * head of a list against the interned symbols, never by string comparison.
+ */
+public enum SpecialForm {
+
+    QUOTE("quote"),
+    ATOM("atom"),
+    EQ("eq"),
+    ADD("+"),
+    SUBTRACT("-"),
+    MULTIPLY("*"),
+    DIVIDE("/"),
+    MODULO("mod"),
+    GREATER_THAN(">"),
+    LESS_THAN("<"),
+    IF("if"),
+    DEFINE("define"),
+    LAMBDA("lambda"),
+    CONS("cons"),
+    HEAD("head"),
+    TAIL("tail"),
+    EMPTY("empty"),
+    LIST("list"),
+    PMAP("pmap"),
+    PFILTER("pfilter"),
+    PREDUCE("preduce"),
+    MEMOIZE("memoize");
+
+    /** Keyed by symbol, which being interned can be looked up by identity. */
+    private static final Map<Object, SpecialForm> FORMS = new IdentityHashMap<>();
+
+    static {
+        for (SpecialForm form : values()) {
+            FORMS.put(form.symbol, form);
+        }
+    }
+
+    private final String symbol;
+
+    private SpecialForm(String name) {
+        this.symbol = Symbols.intern(name);
+    }
+
+    public String symbol() {
+        return symbol;
+    }
+
+    /**
+     * Returns the form named by {@code head}, or null when {@code head} is not
+     * the symbol of a special form.
+     */
+    public static SpecialForm of(Object head) {
+        return FORMS.get(head);
+    }
+
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import com.google.common.io.ByteStreams;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import net.saga.diy.lisp.parser.Numbers;
+import net.saga.diy.lisp.parser.types.LispException;
+import net.saga.diy.lisp.parser.types.Symbols;
+
+/**
+ * Code compiled by {@link BytecodeCompiler}: a flat array of instructions
+ * (see {@link Opcodes}), the constants they refer to and what a closure needs
+ * to call it. Code for nested lambdas is kept in the constant pool.
+ * <p>
+ * Bytecode is immutable, apart from the {@link GlobalCache}s of the globals
+ * it reads, which are safe to share. It can be written to a file and read back, so a
+ * program only needs compiling once. The forms used to locate errors are not
+ * written, so errors raised by code that was read back carry no position.
+ */
+public final class Bytecode {
+
+    private static final int MAGIC = 0x44495942;
+    private static final int VERSION = 2;
+
+    private static final byte INTEGER = 0;
+    private static final byte BIG_INTEGER = 1;
+    private static final byte TRUE = 2;
+    private static final byte FALSE = 3;
+    private static final byte SYMBOL = 4;
+    private static final byte LIST = 5;
+    private static final byte BYTECODE = 6;
+
+    private static final Object[] NO_FORMS = new Object[0];
+    private static final int[] NO_RANGES = new int[0];
+
+    final int[] code;
+    final Object[] constants;
+    final Object[] params;
+    final Object body;
+    final int frameSize;
+    final int maxStack;
+    final int cost;
+    /* Calls after which a closure is compiled to a JVM class, or 0 for never. */
+    final int threshold;
+    /* The lists compiled into this code, innermost first, and where their code starts and ends. */
+    private final Object[] forms;
+    private final int[] ranges;
+    /* The caches of the globals read by this code, by the index of their name in the constants. */
+    final GlobalCache[] caches;
+
+    Bytecode(int[] code, Object[] constants, Object[] params, Object body, int frameSize, int maxStack, int cost,
+            int threshold, Object[] forms, int[] ranges) {
+        this.code = code;
+        this.constants = constants;
+        this.params = params;
+        this.body = body;
+        this.frameSize = frameSize;
+        this.maxStack = maxStack;
+        this.cost = cost;
+        this.threshold = threshold;
+        this.forms = forms;
+        this.ranges = ranges;
+        this.caches = new GlobalCache[constants.length];
+        for (int pc = 0; pc < code.length; pc += 1 + Opcodes.operands(code[pc])) {
+            if (code[pc] == Opcodes.GLOBAL || code[pc] == Opcodes.GLOBAL_FUNCTION) {
+                int name = code[pc + 1];
+                if (caches[name] == null) {
+                    caches[name] = new GlobalCache((String) constants[name]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs top level code, as returned by {@link BytecodeCompiler#compile}.
+     */
+    public Object exec(Frame frame) {
+        return Machine.run(this, frame, null);
+    }
+
+    /**
+     * The innermost list whose code contains {@code pc}, or null.
+     */
+    Object formAt(int pc) {
+        for (int i = 0; i < forms.length; i++) {
+            if (ranges[2 * i] <= pc && pc < ranges[2 * i + 1]) {
+                return forms[i];
+            }
+        }
+        return null;
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        write(data, this);
+        data.flush();
+    }
+
+    public static Bytecode read(InputStream in) throws IOException {
+        return read(ByteBuffer.wrap(ByteStreams.toByteArray(in)));
+    }
+
+    public static Bytecode read(ByteBuffer in) {
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new LispException("Not a bytecode file");
+            }
+            return (Bytecode) read(in.get(), in);
+        } catch (BufferUnderflowException | ClassCastException | IndexOutOfBoundsException ex) {
+            throw new LispException("Corrupt bytecode file");
+        }
+    }
+
+    private static void write(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof BigInteger) {
+            byte[] bytes = ((BigInteger) value).toByteArray();
+            out.writeByte(BIG_INTEGER);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(SYMBOL);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Object[]) {
+            Object[] list = (Object[]) value;
+            out.writeByte(LIST);
+            out.writeInt(list.length);
+            for (Object element : list) {
+                write(out, element);
+            }
+        } else if (value instanceof Bytecode) {
+            Bytecode bytecode = (Bytecode) value;
+            out.writeByte(BYTECODE);
+            out.writeInt(bytecode.code.length);
+            for (int instruction : bytecode.code) {
+                out.writeInt(instruction);
+            }
+            out.writeInt(bytecode.constants.length);
+            for (Object constant : bytecode.constants) {
+                write(out, constant);
+            }
+            write(out, bytecode.params);
+            write(out, bytecode.body);
+            out.writeInt(bytecode.frameSize);
+            out.writeInt(bytecode.maxStack);
+            out.writeInt(bytecode.cost);
+            out.writeInt(bytecode.threshold);
+        } else {
+            throw new LispException("Cannot save " + value.getClass().getName());
+        }
+    }
+
+    private static Object read(byte tag, ByteBuffer in) {
+        switch (tag) {
+        case INTEGER:
+            return Numbers.valueOf(in.getInt());
+        case BIG_INTEGER:
+            return new BigInteger(bytes(in));
+        case TRUE:
+            return true;
+        case FALSE:
+            return false;
+        case SYMBOL:
+            return Symbols.intern(new String(bytes(in), StandardCharsets.UTF_8));
+        case LIST: {
+            Object[] list = new Object[length(in, 1)];
+            for (int i = 0; i < list.length; i++) {
+                list[i] = read(in.get(), in);
+            }
+            return list;
+        }
+        case BYTECODE: {
+            int[] code = new int[length(in, 4)];
+            for (int i = 0; i < code.length; i++) {
+                code[i] = in.getInt();
+            }
+            Object[] constants = new Object[length(in, 1)];
+            for (int i = 0; i < constants.length; i++) {
+                constants[i] = read(in.get(), in);
+            }
+            Object[] params = (Object[]) read(in.get(), in);
+            Object body = read(in.get(), in);
+            return new Bytecode(code, constants, params, body, in.getInt(), in.getInt(), in.getInt(), in.getInt(),
+                    NO_FORMS, NO_RANGES);
+        }
+        default:
+            throw new LispException("Corrupt bytecode file");
+        }
+    }
+
+    /**
+     * Reads the length of what follows, whose elements take at least
+     * {@code size} bytes each, so that a corrupt length is caught before
+     * anything that size is allocated.
+     */
+    private static int length(ByteBuffer in, int size) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining() / size) {
+            throw new LispException("Corrupt bytecode file");
+        }
+        return length;
+    }
+
+    private static byte[] bytes(ByteBuffer in) {
+        byte[] bytes = new byte[length(in, 1)];
+        in.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import net.saga.diy.lisp.parser.Evaluator;
+import net.saga.diy.lisp.parser.Fuel;
+import net.saga.diy.lisp.parser.profiler.Probe;
+import net.saga.diy.lisp.parser.types.Closure;
+
+/**
+ * A closure created by bytecode. Like {@link CompiledClosure} it keeps the
+ * source of its body next to the code that runs it.
+ * <p>
+ * When its bytecode was compiled with a threshold, the closure counts its
+ * calls and, once the threshold is crossed, has {@link Jit} compile it to a
+ * JVM class that is run instead of the bytecode from then on.
+ */
+public class BytecodeClosure extends Closure {
+
+    final Bytecode code;
+    private final Frame frame;
+    private int calls;
+    private JitCode compiled;
+
+    BytecodeClosure(Frame frame, Bytecode code) {
+        super(frame.getEnv(), code.params, code.body);
+        this.code = code;
+        this.frame = frame;
+    }
+
+    /**
+     * True when the closure was not created inside another closure, so that
+     * its environment is all it closes over.
+     */
+    public boolean isTopLevel() {
+        return frame.parent == null;
+    }
+
+    /**
+     * True while the closure runs as a generated JVM class.
+     */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * Runs the body with {@code args} bound to the parameters, spending
+     * {@code fuel} on this call and every call made from it. The array becomes
+     * the new frame when the body defines nothing, so callers must hand over a
+     * fresh one.
+     */
+    public Object invoke(Object[] args, Fuel fuel) {
+        Object result = run(args, fuel);
+        return result instanceof TailCall ? finish((TailCall) result, fuel) : result;
+    }
+
+    /**
+     * Makes the calls left in tail position, one after the other, until one of
+     * them returns a value.
+     */
+    static Object finish(TailCall call, Fuel fuel) {
+        for (;;) {
+            if (!(call.closure instanceof BytecodeClosure)) {
+                return Evaluator.apply(call.closure, call.args, fuel);
+            }
+            Object result = ((BytecodeClosure) call.closure).run(call.args, fuel);
+            if (!(result instanceof TailCall)) {
+                return result;
+            }
+            call = (TailCall) result;
+        }
+    }
+
+    private Object run(Object[] args, Fuel fuel) {
+        Frame callee = enter(args, fuel);
+        JitCode jit = compiled;
+        if (jit == null && tierUp()) {
+            jit = Jit.compile(this);
+            calls = jit == null ? Integer.MIN_VALUE : 0;
+            compiled = jit;
+        }
+        Probe probe = Probe.active();
+        if (probe != null) {
+            probe.enter(this);
+        }
+        if (jit == null) {
+            return Machine.run(code, callee, probe);
+        }
+        try {
+            return jit.run(callee);
+        } finally {
+            if (probe != null) {
+                probe.exit();
+            }
+        }
+    }
+
+    /**
+     * Counts a call. True once the closure is compiled or due to be, in which
+     * case calls to it must go through {@link #invoke}.
+     */
+    boolean tierUp() {
+        return compiled != null || code.threshold > 0 && ++calls >= code.threshold;
+    }
+
+    /**
+     * Goes back to running the bytecode, until the closure is hot again.
+     */
+    void deoptimize() {
+        compiled = null;
+        calls = 0;
+    }
+
+    /**
+     * Checks and pays for a call, and returns the frame it runs in.
+     */
+    Frame enter(Object[] args, Fuel fuel) {
+        Evaluator.checkArity(getParams(), args);
+        Fuel.burn(fuel, code.cost);
+        Evaluator.checkpoint(fuel);
+        Object[] slots = args;
+        if (code.frameSize > args.length) {
+            slots = new Object[code.frameSize];
+            System.arraycopy(args, 0, slots, 0, args.length);
+        }
+        return new Frame(frame.getEnv(), slots, frame, fuel);
+    }
+
+}
@@ -0,0 +1,405 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.saga.diy.lisp.parser.Evaluator;
+import net.saga.diy.lisp.parser.MemoizedClosure;
+import net.saga.diy.lisp.parser.SpecialForm;
+
+/**
+ * Compiles parsed expressions into {@link Bytecode} for {@link Machine}.
+ * Symbols are resolved to frame slots the same way {@link Compiler} does, and
+ * each lambda becomes a {@link Bytecode} of its own in the constant pool of
+ * the code that creates it.
+ */
+public final class BytecodeCompiler {
+
+    /** The threshold {@link net.saga.diy.lisp.parser.Engine#TIERED} compiles with. */
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    private static final Object[] NO_PARAMS = new Object[0];
+    private static final int NOT_A_REGISTER = Integer.MIN_VALUE;
+
+    private final Scope scope;
+    private final int threshold;
+    private int[] code = new int[32];
+    private int length;
+    private int depth;
+    private int maxDepth;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+    private final List<Object> forms = new ArrayList<>();
+    private int[] ranges = new int[16];
+
+    private BytecodeCompiler(Scope scope, int threshold) {
+        this.scope = scope;
+        this.threshold = threshold;
+    }
+
+    public static Bytecode compile(Object ast) {
+        return compile(ast, 0);
+    }
+
+    /**
+     * Compiles {@code ast} for tiered execution: closures it creates are
+     * compiled to JVM classes once they have been called {@code threshold}
+     * times. A threshold of 0 keeps them interpreted.
+     */
+    public static Bytecode compile(Object ast, int threshold) {
+        BytecodeCompiler compiler = new BytecodeCompiler(null, threshold);
+        compiler.compile(ast, false);
+        compiler.emit(Opcodes.RETURN, -1);
+        return compiler.finish(NO_PARAMS, ast, 0, 0);
+    }
+
+    /**
+     * Compiles the body of a lambda. Calls in tail position replace the
+     * running closure instead of growing the stack.
+     */
+    private static Bytecode compileLambda(Scope parent, Object[] params, Object body, int threshold) {
+        Scope inner = new Scope(parent, params, body);
+        BytecodeCompiler compiler = new BytecodeCompiler(inner, threshold);
+        compiler.compile(body, true);
+        compiler.emit(Opcodes.RETURN, -1);
+        return compiler.finish(params, body, inner.size(), Compiler.cost(body));
+    }
+
+    private Bytecode finish(Object[] params, Object body, int frameSize, int cost) {
+        return new Bytecode(Arrays.copyOf(code, length), constants.toArray(), params, body, frameSize, maxDepth, cost,
+                threshold, forms.toArray(), Arrays.copyOf(ranges, forms.size() * 2));
+    }
+
+    private void compile(Object ast, boolean tail) {
+        if (ast instanceof Object[]) {
+            int start = length;
+            compileList((Object[]) ast, tail);
+            addForm(ast, start);
+        } else if (ast instanceof String) {
+            resolve((String) ast, scope, 0);
+        } else {
+            emit(Opcodes.CONST, 1, constant(ast));
+        }
+    }
+
+    /**
+     * Emits the load of a symbol, as a (depth, slot) reference when it is
+     * bound by an enclosing lambda, and from the environment otherwise.
+     */
+    private void resolve(String name, Scope scope, int depth) {
+        for (; scope != null; scope = scope.parent, depth++) {
+            int slot = scope.slotOf(name);
+            if (slot < 0) {
+                continue;
+            }
+            if (slot < scope.params) {
+                if (depth == 0) {
+                    emit(Opcodes.LOCAL, 1, slot);
+                } else {
+                    emit(Opcodes.ENCLOSING, 1, depth, slot);
+                }
+                return;
+            }
+            /* Defined names are only bound once the define has run. */
+            emit(Opcodes.DEFINED, 0, depth, slot, 0);
+            int skip = length - 1;
+            resolve(name, scope.parent, depth + 1);
+            code[skip] = length;
+            return;
+        }
+        emit(Opcodes.GLOBAL, 1, constant(name));
+    }
+
+    private void compileList(Object[] ast, boolean tail) {
+        if (ast.length == 0) {
+            fail("Cannot evaluate an empty list");
+            return;
+        }
+
+        SpecialForm form = ast[0] instanceof String ? SpecialForm.of(ast[0]) : null;
+        if (form != null) {
+            switch (form) {
+            case QUOTE:
+                if (check(ast, 1)) {
+                    emit(Opcodes.CONST, 1, constant(ast[1]));
+                }
+                return;
+            case ATOM:
+                unary(ast, Opcodes.ATOM);
+                return;
+            case EQ:
+                binary(ast, Opcodes.EQ, Opcodes.EQ_RK);
+                return;
+            case ADD:
+                binary(ast, Opcodes.ADD, Opcodes.ADD_RK);
+                return;
+            case SUBTRACT:
+                binary(ast, Opcodes.SUBTRACT, Opcodes.SUBTRACT_RK);
+                return;
+            case MULTIPLY:
+                binary(ast, Opcodes.MULTIPLY, Opcodes.MULTIPLY_RK);
+                return;
+            case DIVIDE:
+                binary(ast, Opcodes.DIVIDE, Opcodes.DIVIDE_RK);
+                return;
+            case MODULO:
+                binary(ast, Opcodes.MODULO, Opcodes.MODULO_RK);
+                return;
+            case GREATER_THAN:
+                binary(ast, Opcodes.GREATER_THAN, Opcodes.GREATER_THAN_RK);
+                return;
+            case LESS_THAN:
+                binary(ast, Opcodes.LESS_THAN, Opcodes.LESS_THAN_RK);
+                return;
+            case IF:
+                if (check(ast, 3)) {
+                    condition(ast[1]);
+                    int otherwise = length - 1;
+                    compile(ast[2], tail);
+                    emit(Opcodes.JUMP, -1, 0);
+                    int end = length - 1;
+                    code[otherwise] = length;
+                    compile(ast[3], tail);
+                    code[end] = length;
+                }
+                return;
+            case DEFINE:
+                String error = Evaluator.argumentError(ast, 2);
+                if (error == null && !(ast[1] instanceof String)) {
+                    error = "Variable name must be a symbol: " + ast[1];
+                }
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                compile(ast[2], false);
+                if (scope != null) {
+                    emit(Opcodes.DEFINE_LOCAL, 0, scope.slotOf((String) ast[1]), constant(ast[1]));
+                } else {
+                    emit(Opcodes.DEFINE, 0, constant(ast[1]));
+                }
+                return;
+            case LAMBDA:
+                error = Evaluator.argumentError(ast, 2);
+                if (error == null && !(ast[1] instanceof Object[])) {
+                    error = "Lambda parameters must be a list: " + ast[1];
+                }
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                emit(Opcodes.LAMBDA, 1, constant(compileLambda(scope, (Object[]) ast[1], ast[2], threshold)));
+                return;
+            case CONS:
+                binary(ast, Opcodes.CONS);
+                return;
+            case HEAD:
+                unary(ast, Opcodes.HEAD);
+                return;
+            case TAIL:
+                unary(ast, Opcodes.TAIL);
+                return;
+            case EMPTY:
+                unary(ast, Opcodes.EMPTY);
+                return;
+            case LIST:
+                for (int i = 1; i < ast.length; i++) {
+                    compile(ast[i], false);
+                }
+                emit(Opcodes.LIST, 2 - ast.length, ast.length - 1);
+                return;
+            case PMAP:
+                binary(ast, Opcodes.PMAP);
+                return;
+            case PFILTER:
+                binary(ast, Opcodes.PFILTER);
+                return;
+            case PREDUCE:
+                if (check(ast, 3)) {
+                    compile(ast[1], false);
+                    compile(ast[2], false);
+                    compile(ast[3], false);
+                    emit(Opcodes.PREDUCE, -2);
+                }
+                return;
+            case MEMOIZE:
+                error = Evaluator.argumentError(ast, 1, 3);
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                for (Object argument : MemoizedClosure.arguments(ast)) {
+                    compile(argument, false);
+                }
+                emit(Opcodes.MEMOIZE, -2);
+                return;
+            default:
+                break;
+            }
+        }
+
+        if (ast[0] instanceof String && isGlobal((String) ast[0])) {
+            emit(Opcodes.GLOBAL_FUNCTION, 1, constant(ast[0]));
+        } else {
+            compile(ast[0], false);
+            /* A list evaluating to a value may stand alone in a list, as in (('foo)). */
+            if (ast.length > 1 || !(ast[0] instanceof Object[])) {
+                emit(Opcodes.FUNCTION, 0);
+            }
+        }
+        for (int i = 1; i < ast.length; i++) {
+            compile(ast[i], false);
+        }
+        emit(tail ? Opcodes.TAIL_CALL : Opcodes.CALL, 1 - ast.length, ast.length - 1);
+    }
+
+    private void unary(Object[] ast, int opcode) {
+        if (check(ast, 1)) {
+            compile(ast[1], false);
+            emit(opcode, 0);
+        }
+    }
+
+    /**
+     * Emits the test of an {@code if}, ending in a jump whose target is the
+     * last operand. A comparison of registers becomes a single instruction.
+     */
+    private void condition(Object ast) {
+        SpecialForm form = ast instanceof Object[] && ((Object[]) ast).length == 3 ? SpecialForm.of(((Object[]) ast)[0]) : null;
+        int opcode = form == SpecialForm.EQ ? Opcodes.JUMP_UNLESS_EQ_RK
+                : form == SpecialForm.GREATER_THAN ? Opcodes.JUMP_UNLESS_GREATER_THAN_RK
+                        : form == SpecialForm.LESS_THAN ? Opcodes.JUMP_UNLESS_LESS_THAN_RK : -1;
+        if (opcode >= 0) {
+            int first = registerOperand(((Object[]) ast)[1]);
+            int second = registerOperand(((Object[]) ast)[2]);
+            if (first != NOT_A_REGISTER && second != NOT_A_REGISTER) {
+                int start = length;
+                emit(opcode, 0, first, second, 0);
+                addForm(ast, start);
+                return;
+            }
+        }
+        compile(ast, false);
+        emit(Opcodes.JUMP_IF_FALSE, -1, 0);
+    }
+
+    /**
+     * Emits a binary operator, in its register form when both operands are
+     * parameters of the current lambda or literals.
+     */
+    private void binary(Object[] ast, int opcode, int registerOpcode) {
+        if (check(ast, 2)) {
+            int first = registerOperand(ast[1]);
+            int second = registerOperand(ast[2]);
+            if (first != NOT_A_REGISTER && second != NOT_A_REGISTER) {
+                emit(registerOpcode, 1, first, second);
+                return;
+            }
+            compile(ast[1], false);
+            compile(ast[2], false);
+            emit(opcode, -1);
+        }
+    }
+
+    private int registerOperand(Object ast) {
+        if (ast instanceof String) {
+            int slot = scope != null ? scope.slotOf((String) ast) : -1;
+            return slot >= 0 && slot < scope.params ? slot : NOT_A_REGISTER;
+        }
+        if (ast instanceof Object[]) {
+            return NOT_A_REGISTER;
+        }
+        return ~constant(ast);
+    }
+
+    private boolean isGlobal(String name) {
+        for (Scope enclosing = scope; enclosing != null; enclosing = enclosing.parent) {
+            if (enclosing.slotOf(name) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void binary(Object[] ast, int opcode) {
+        if (check(ast, 2)) {
+            compile(ast[1], false);
+            compile(ast[2], false);
+            emit(opcode, -1);
+        }
+    }
+
+    /**
+     * True when {@code ast} has the given number of arguments. Otherwise the
+     * code raises the error once it is run.
+     */
+    private boolean check(Object[] ast, int expected) {
+        String error = Evaluator.argumentError(ast, expected);
+        if (error != null) {
+            fail(error);
+        }
+        return error == null;
+    }
+
+    private void fail(String error) {
+        /* Counted as pushing a value, so the code after it stays balanced. */
+        emit(Opcodes.FAIL, 1, constant(error));
+    }
+
+    private int constant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Remembers the code emitted for a list, so that errors raised by it can be
+     * traced back to the innermost form they come from.
+     */
+    private void addForm(Object form, int start) {
+        int index = forms.size() * 2;
+        if (index + 2 > ranges.length) {
+            ranges = Arrays.copyOf(ranges, ranges.length * 2);
+        }
+        ranges[index] = start;
+        ranges[index + 1] = length;
+        forms.add(form);
+    }
+
+    private void emit(int opcode, int stackEffect, int... operands) {
+        if (length + operands.length + 1 > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, length + operands.length + 1));
+        }
+        code[length++] = opcode;
+        for (int operand : operands) {
+            code[length++] = operand;
+        }
+        depth += stackEffect;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+}
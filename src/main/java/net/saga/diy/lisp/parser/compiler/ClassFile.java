@@ -0,0 +1,357 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a class file writer for {@link Jit}: static fields, methods
+ * with exception handlers, and the instructions the generated code uses.
+ * Classes are written in version 49, which needs no stack map frames.
+ */
+final class ClassFile {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int SWAP = 0x5f;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ACMPNE = 0xa6;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd;
+    static final int ATHROW = 0xbf;
+    static final int CHECKCAST = 0xc0;
+    static final int IFNONNULL = 0xc7;
+
+    private final String name;
+    private final String superName;
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolData = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolSize = 1;
+    private final ByteArrayOutputStream members = new ByteArrayOutputStream();
+    private final DataOutputStream memberData = new DataOutputStream(members);
+    private int fields;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFile(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void addField(int access, String fieldName, String descriptor) {
+        try {
+            memberData.writeShort(access);
+            memberData.writeShort(utf8(fieldName));
+            memberData.writeShort(utf8(descriptor));
+            memberData.writeShort(0);
+            fields++;
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    Code addMethod(int access, String methodName, String descriptor) {
+        return new Code(access, methodName, descriptor);
+    }
+
+    byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int thisClass = classRef(name);
+            int superClass = classRef(superName);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            if (poolSize > 0xFFFF) {
+                throw new IllegalStateException("Too many constants");
+            }
+            out.writeShort(poolSize);
+            out.write(pool.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fields);
+            out.write(members.toByteArray());
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, 1, value, null, 0, 0);
+    }
+
+    int classRef(String internalName) {
+        return entry("C" + internalName, 7, null, null, utf8(internalName), 0);
+    }
+
+    int integer(int value) {
+        return entry("I" + value, 3, null, value, 0, 0);
+    }
+
+    int fieldRef(String owner, String fieldName, String descriptor) {
+        return entry("F" + owner + '.' + fieldName + ':' + descriptor, 9, null, null, classRef(owner),
+                nameAndType(fieldName, descriptor));
+    }
+
+    int methodRef(String owner, String methodName, String descriptor) {
+        return entry("M" + owner + '.' + methodName + descriptor, 10, null, null, classRef(owner),
+                nameAndType(methodName, descriptor));
+    }
+
+    private int nameAndType(String memberName, String descriptor) {
+        return entry("N" + memberName + ':' + descriptor, 12, null, null, utf8(memberName), utf8(descriptor));
+    }
+
+    private int entry(String key, int tag, String text, Integer number, int first, int second) {
+        Integer index = poolIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolData.writeByte(tag);
+            if (text != null) {
+                poolData.writeUTF(text);
+            } else if (number != null) {
+                poolData.writeInt(number);
+            } else {
+                poolData.writeShort(first);
+                if (second != 0) {
+                    poolData.writeShort(second);
+                }
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        poolIndexes.put(key, poolSize);
+        return poolSize++;
+    }
+
+    /**
+     * A position in the code of a method. Branches to a label emitted before
+     * it is placed are patched once it is.
+     */
+    static final class Label {
+
+        private int position = -1;
+        private int[] branches = new int[2];
+        private int branchCount;
+
+    }
+
+    /**
+     * The body of one method. Branch offsets are 16 bits, so methods longer
+     * than 32k are refused with an {@link IllegalStateException}.
+     */
+    final class Code {
+
+        private final int access;
+        private final String methodName;
+        private final String descriptor;
+        private byte[] code = new byte[256];
+        private int length;
+        private final ByteArrayOutputStream handlers = new ByteArrayOutputStream();
+        private final DataOutputStream handlerData = new DataOutputStream(handlers);
+        private int handlerCount;
+
+        private Code(int access, String methodName, String descriptor) {
+            this.access = access;
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+        }
+
+        int position() {
+            return length;
+        }
+
+        Code op(int opcode) {
+            u1(opcode);
+            return this;
+        }
+
+        Code push(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value == (byte) value) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value == (short) value) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                u1(LDC_W);
+                u2(integer(value));
+            }
+            return this;
+        }
+
+        Code local(int opcode, int index) {
+            if (index > 255) {
+                throw new IllegalStateException("Too many locals");
+            }
+            u1(opcode);
+            u1(index);
+            return this;
+        }
+
+        Code type(int opcode, String internalName) {
+            u1(opcode);
+            u2(classRef(internalName));
+            return this;
+        }
+
+        Code field(int opcode, String owner, String fieldName, String fieldDescriptor) {
+            u1(opcode);
+            u2(fieldRef(owner, fieldName, fieldDescriptor));
+            return this;
+        }
+
+        Code invoke(int opcode, String owner, String method, String methodDescriptor) {
+            u1(opcode);
+            u2(methodRef(owner, method, methodDescriptor));
+            return this;
+        }
+
+        Code jump(int opcode, Label target) {
+            int at = length;
+            u1(opcode);
+            if (target.position >= 0) {
+                u2(offset(at, target.position));
+            } else {
+                if (target.branchCount == target.branches.length) {
+                    target.branches = Arrays.copyOf(target.branches, target.branchCount * 2);
+                }
+                target.branches[target.branchCount++] = at;
+                u2(0);
+            }
+            return this;
+        }
+
+        Code place(Label label) {
+            label.position = length;
+            for (int i = 0; i < label.branchCount; i++) {
+                int offset = offset(label.branches[i], length);
+                code[label.branches[i] + 1] = (byte) (offset >> 8);
+                code[label.branches[i] + 2] = (byte) offset;
+            }
+            return this;
+        }
+
+        void handler(int start, int end, int handler, String exceptionType) {
+            try {
+                handlerData.writeShort(start);
+                handlerData.writeShort(end);
+                handlerData.writeShort(handler);
+                handlerData.writeShort(classRef(exceptionType));
+                handlerCount++;
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        void finish(int maxStack, int maxLocals) {
+            if (length >= 0xFFFF) {
+                throw new IllegalStateException("Method too large");
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeShort(access);
+                out.writeShort(utf8(methodName));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + length + handlers.size());
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(length);
+                out.write(code, 0, length);
+                out.writeShort(handlerCount);
+                out.write(handlers.toByteArray());
+                out.writeShort(0);
+                methods.add(bytes.toByteArray());
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private int offset(int from, int to) {
+            int offset = to - from;
+            if (offset != (short) offset) {
+                throw new IllegalStateException("Method too large");
+            }
+            return offset;
+        }
+
+        private void u1(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import net.saga.diy.lisp.parser.Evaluator;
+import net.saga.diy.lisp.parser.Fuel;
+import net.saga.diy.lisp.parser.profiler.Probe;
+import net.saga.diy.lisp.parser.types.Closure;
+
+/**
+ * A closure created by compiled code. It keeps the source of its body, so it
+ * can still be inspected like any other closure, along with the compiled body.
+ */
+public class CompiledClosure extends Closure {
+
+    private final Node code;
+    private final Frame frame;
+    private final int frameSize;
+    private final int cost;
+
+    CompiledClosure(Frame frame, Object[] params, Object body, Node code, int frameSize, int cost) {
+        super(frame.getEnv(), params, body);
+        this.code = code;
+        this.frame = frame;
+        this.frameSize = frameSize;
+        this.cost = cost;
+    }
+
+    /**
+     * True when the closure was not created inside another compiled closure,
+     * so that its environment is all it closes over.
+     */
+    public boolean isTopLevel() {
+        return frame.parent == null;
+    }
+
+    /**
+     * Runs the body with {@code args} bound to the parameters. The array
+     * becomes the new frame when the body defines nothing, so callers must hand
+     * over a fresh one.
+     */
+    public Object invoke(Object[] args) {
+        return invoke(args, null);
+    }
+
+    /**
+     * Runs the body like {@link #invoke(Object[])}, spending {@code fuel} on
+     * this call and every call made from it.
+     */
+    public Object invoke(Object[] args, Fuel fuel) {
+        CompiledClosure closure = this;
+        Probe probe = Probe.active();
+        if (probe != null) {
+            probe.enter(closure);
+        }
+        try {
+            for (;;) {
+                Object result = closure.run(args, fuel);
+                if (!(result instanceof TailCall)) {
+                    return result;
+                }
+                TailCall call = (TailCall) result;
+                if (probe != null) {
+                    probe.exit();
+                }
+                probe = null;
+                if (!(call.closure instanceof CompiledClosure)) {
+                    return Evaluator.apply(call.closure, call.args, fuel);
+                }
+                closure = (CompiledClosure) call.closure;
+                args = call.args;
+                probe = Probe.active();
+                if (probe != null) {
+                    probe.enter(closure);
+                }
+            }
+        } finally {
+            if (probe != null) {
+                probe.exit();
+            }
+        }
+    }
+
+    private Object run(Object[] args, Fuel fuel) {
+        Evaluator.checkArity(getParams(), args);
+        Fuel.burn(fuel, cost);
+        Evaluator.checkpoint(fuel);
+        Object[] slots = args;
+        if (frameSize > args.length) {
+            slots = new Object[frameSize];
+            System.arraycopy(args, 0, slots, 0, args.length);
+        }
+        return code.exec(new Frame(frame.getEnv(), slots, frame, fuel));
+    }
+
+}
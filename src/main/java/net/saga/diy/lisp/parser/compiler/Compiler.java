@@ -0,0 +1,234 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import net.saga.diy.lisp.parser.Evaluator;
+import net.saga.diy.lisp.parser.MemoizedClosure;
+import net.saga.diy.lisp.parser.SpecialForm;
+import net.saga.diy.lisp.parser.types.Environment;
+
+/**
+ * Compiles parsed expressions into trees of {@link Node}s. Evaluating the
+ * compiled tree gives the same results as {@link Evaluator#evaluate}, but the
+ * work of recognising special forms is done once instead of on every visit.
+ */
+public final class Compiler {
+
+    private Compiler() {
+    }
+
+    public static Object evaluate(Object ast, Environment env) {
+        return compile(ast).exec(new Frame(env));
+    }
+
+    public static Node compile(Object ast) {
+        return compile(ast, null, false);
+    }
+
+    private static Node compile(Object ast, Scope scope) {
+        return compile(ast, scope, false);
+    }
+
+    /**
+     * Compiles {@code ast}. Calls in tail position, {@code tail} being true for
+     * a lambda body and passed on to the branches of an {@code if}, return a
+     * {@link TailCall} for the calling closure to run instead of growing the
+     * stack.
+     */
+    private static Node compile(Object ast, Scope scope, boolean tail) {
+        if (ast instanceof Object[]) {
+            return compileList((Object[]) ast, scope, tail);
+        }
+        if (ast instanceof String) {
+            return resolve((String) ast, scope, 0);
+        }
+        return new Nodes.Constant(ast);
+    }
+
+    /**
+     * Turns a symbol into a (depth, slot) reference when it is bound by an
+     * enclosing lambda. Anything else is looked up in the environment.
+     */
+    private static Node resolve(String name, Scope scope, int depth) {
+        for (; scope != null; scope = scope.parent, depth++) {
+            int slot = scope.slotOf(name);
+            if (slot < 0) {
+                continue;
+            }
+            if (slot < scope.params) {
+                return depth == 0 ? new Nodes.Local(slot) : new Nodes.Enclosing(depth, slot);
+            }
+            /* Defined names are only bound once the define has run. */
+            return new Nodes.Defined(depth, slot, resolve(name, scope.parent, depth + 1));
+        }
+        return new Nodes.Lookup(name);
+    }
+
+    private static Node compileList(Object[] ast, Scope scope, boolean tail) {
+        if (ast.length == 0) {
+            return new Nodes.Fail("Cannot evaluate an empty list", ast);
+        }
+
+        SpecialForm form = ast[0] instanceof String ? SpecialForm.of(ast[0]) : null;
+        if (form != null) {
+            String error;
+            switch (form) {
+            case QUOTE:
+                error = Evaluator.argumentError(ast, 1);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.Constant(ast[1]);
+            case ATOM:
+                error = Evaluator.argumentError(ast, 1);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.Atom(compile(ast[1], scope));
+            case EQ:
+                error = Evaluator.argumentError(ast, 2);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.Eq(compile(ast[1], scope), compile(ast[2], scope));
+            case ADD:
+            case SUBTRACT:
+            case MULTIPLY:
+            case DIVIDE:
+            case MODULO:
+            case GREATER_THAN:
+            case LESS_THAN:
+                error = Evaluator.argumentError(ast, 2);
+                return error != null ? new Nodes.Fail(error, ast) : arithmetic(form, compile(ast[1], scope), compile(ast[2], scope));
+            case IF:
+                error = Evaluator.argumentError(ast, 3);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.If(compile(ast[1], scope), compile(ast[2], scope, tail),
+                        compile(ast[3], scope, tail));
+            case DEFINE:
+                error = Evaluator.argumentError(ast, 2);
+                if (error == null && !(ast[1] instanceof String)) {
+                    error = "Variable name must be a symbol: " + ast[1];
+                }
+                if (error != null) {
+                    return new Nodes.Fail(error, ast);
+                }
+                if (scope != null) {
+                    return new Nodes.DefineLocal((String) ast[1], scope.slotOf((String) ast[1]), compile(ast[2], scope));
+                }
+                return new Nodes.Define((String) ast[1], compile(ast[2], scope));
+            case LAMBDA:
+                error = Evaluator.argumentError(ast, 2);
+                if (error == null && !(ast[1] instanceof Object[])) {
+                    error = "Lambda parameters must be a list: " + ast[1];
+                }
+                if (error != null) {
+                    return new Nodes.Fail(error, ast);
+                }
+                Scope inner = new Scope(scope, (Object[]) ast[1], ast[2]);
+                return new Nodes.Lambda((Object[]) ast[1], ast[2], compile(ast[2], inner, true), inner.size(), cost(ast[2]));
+            case CONS:
+                error = Evaluator.argumentError(ast, 2);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.Cons(compile(ast[1], scope), compile(ast[2], scope));
+            case HEAD:
+                error = Evaluator.argumentError(ast, 1);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.Head(compile(ast[1], scope));
+            case TAIL:
+                error = Evaluator.argumentError(ast, 1);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.Tail(compile(ast[1], scope));
+            case EMPTY:
+                error = Evaluator.argumentError(ast, 1);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.Empty(compile(ast[1], scope));
+            case LIST:
+                return new Nodes.ListOf(compileArguments(ast, scope));
+            case PMAP:
+                error = Evaluator.argumentError(ast, 2);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.ParallelMap(compile(ast[1], scope), compile(ast[2], scope));
+            case PFILTER:
+                error = Evaluator.argumentError(ast, 2);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.ParallelFilter(compile(ast[1], scope), compile(ast[2], scope));
+            case PREDUCE:
+                error = Evaluator.argumentError(ast, 3);
+                return error != null ? new Nodes.Fail(error, ast) : new Nodes.ParallelReduce(compile(ast[1], scope), compile(ast[2], scope),
+                        compile(ast[3], scope));
+            case MEMOIZE: {
+                error = Evaluator.argumentError(ast, 1, 3);
+                if (error != null) {
+                    return new Nodes.Fail(error, ast);
+                }
+                Object[] args = MemoizedClosure.arguments(ast);
+                return new Nodes.Memoize(compile(args[0], scope), compile(args[1], scope), compile(args[2], scope));
+            }
+            default:
+                break;
+            }
+        }
+
+        Node[] args = compileArguments(ast, scope);
+        if (tail) {
+            return new Nodes.TailCallSite(ast, compile(ast[0], scope), args);
+        }
+        return new Nodes.Call(ast, compile(ast[0], scope), args);
+    }
+
+    private static Node[] compileArguments(Object[] ast, Scope scope) {
+        Node[] args = new Node[ast.length - 1];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile(ast[i + 1], scope);
+        }
+        return args;
+    }
+
+    /**
+     * The number of forms in a lambda body, which is what a call spends from
+     * its {@link net.saga.diy.lisp.parser.Fuel}. It is about the number of
+     * steps the tree walker takes for the same call, counting every branch of
+     * an {@code if} and each nested lambda as one form.
+     */
+    static int cost(Object body) {
+        if (!(body instanceof Object[])) {
+            return 1;
+        }
+        Object[] list = (Object[]) body;
+        if (list.length == 0) {
+            return 1;
+        }
+        SpecialForm form = SpecialForm.of(list[0]);
+        if (form == SpecialForm.QUOTE || form == SpecialForm.LAMBDA) {
+            return 1;
+        }
+        int cost = 1;
+        for (int i = form == null ? 0 : 1; i < list.length; i++) {
+            if (list[i] instanceof Object[]) {
+                cost += cost(list[i]);
+            }
+        }
+        return cost;
+    }
+
+    private static Node arithmetic(SpecialForm operator, Node first, Node second) {
+        switch (operator) {
+        case ADD:
+            return new Nodes.Add(first, second);
+        case SUBTRACT:
+            return new Nodes.Subtract(first, second);
+        case MULTIPLY:
+            return new Nodes.Multiply(first, second);
+        case DIVIDE:
+            return new Nodes.Divide(first, second);
+        case MODULO:
+            return new Nodes.Modulo(first, second);
+        case GREATER_THAN:
+            return new Nodes.GreaterThan(first, second);
+        default:
+            return new Nodes.LessThan(first, second);
+        }
+    }
+
+}
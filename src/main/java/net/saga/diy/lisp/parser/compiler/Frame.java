@@ -0,0 +1,62 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import net.saga.diy.lisp.parser.Fuel;
+import net.saga.diy.lisp.parser.types.Environment;
+
+/**
+ * The runtime state a compiled {@link Node} executes against. Each call to a
+ * compiled closure gets a frame whose slots hold the parameters followed by
+ * the names defined in the body, linked to the frame the closure was created
+ * in. Names that are not lexically bound are looked up in the environment.
+ * The fuel is that of the caller, which pays for the call.
+ */
+public final class Frame {
+
+    private static final Object[] NO_SLOTS = new Object[0];
+
+    private final Environment env;
+    final Object[] slots;
+    final Frame parent;
+    final Fuel fuel;
+
+    public Frame(Environment env) {
+        this(env, null);
+    }
+
+    /**
+     * A top level frame whose calls spend {@code fuel}, null for no limit.
+     */
+    public Frame(Environment env, Fuel fuel) {
+        this(env, NO_SLOTS, null, fuel);
+    }
+
+    Frame(Environment env, Object[] slots, Frame parent, Fuel fuel) {
+        this.env = env;
+        this.slots = slots;
+        this.parent = parent;
+        this.fuel = fuel;
+    }
+
+    public Environment getEnv() {
+        return env;
+    }
+
+}
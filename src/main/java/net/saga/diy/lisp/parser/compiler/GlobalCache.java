@@ -0,0 +1,99 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import net.saga.diy.lisp.parser.types.Environment;
+
+/**
+ * Remembers the value a global had at one place in compiled code. An entry
+ * holds the environment the name was looked up from and the version of the
+ * name at the time, and is used for as long as the code runs in that
+ * environment and no definition shadowed the name.
+ * <p>
+ * Code is almost always run in one environment, but there is room for
+ * {@link #SIZE} of them. Past that the least recently added entry makes way,
+ * so a site that sees many environments costs about what a plain lookup
+ * does. Entries are never changed, only replaced, so a cache can be shared
+ * between threads.
+ * <p>
+ * Entries hold the environment and the value weakly, as compiled code can
+ * outlive the forks it ran in. The value is reachable from the environment
+ * for as long as the environment is, and would otherwise keep it alive
+ * when it is a function defined there.
+ */
+final class GlobalCache {
+
+    static final int SIZE = 4;
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private final String name;
+    private final Environment.Version version;
+    private volatile Entry[] entries = EMPTY;
+
+    GlobalCache(String name) {
+        this.name = name;
+        this.version = Environment.version(name);
+    }
+
+    Object lookup(Environment env) {
+        Entry[] entries = this.entries;
+        int stamp = version.get();
+        for (Entry entry : entries) {
+            if (entry.get() == env && entry.stamp == stamp) {
+                Object value = entry.value.get();
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        return miss(env, entries, stamp);
+    }
+
+    private Object miss(Environment env, Entry[] entries, int stamp) {
+        Object value = env.lookup(name);
+        int kept = 0;
+        Entry[] updated = new Entry[Math.min(entries.length + 1, SIZE)];
+        updated[kept++] = new Entry(env, stamp, value);
+        for (Entry entry : entries) {
+            Environment cached = entry.get();
+            if (kept < updated.length && cached != null && cached != env && entry.stamp == stamp) {
+                updated[kept++] = entry;
+            }
+        }
+        this.entries = kept == updated.length ? updated : Arrays.copyOf(updated, kept);
+        return value;
+    }
+
+    private static final class Entry extends WeakReference<Environment> {
+
+        final int stamp;
+        final WeakReference<Object> value;
+
+        Entry(Environment env, int stamp, Object value) {
+            super(env);
+            this.stamp = stamp;
+            this.value = new WeakReference<>(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,496 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+
+/**
+ * Compiles hot {@link BytecodeClosure}s to JVM classes, so that HotSpot can
+ * optimize them like any other Java code.
+ * <p>
+ * Each bytecode instruction becomes the equivalent JVM instructions, with the
+ * operand stack mapped onto the JVM's and the operations themselves left to
+ * {@link JitRuntime}. Constants become static final fields. The closure
+ * itself is a constant too, which turns calls it makes to itself into direct
+ * calls, and its tail calls to itself into a loop. Globals are read once at
+ * compile time and trusted for as long as their {@link Environment#version}
+ * does not change; when one does, the generated code looks it up again and
+ * the closure goes back to being interpreted.
+ * <p>
+ * Every class gets a class loader of its own, so it is unloaded together with
+ * its closure.
+ */
+final class Jit {
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String OBJECT_TYPE = "Ljava/lang/Object;";
+    private static final String FRAME = "net/saga/diy/lisp/parser/compiler/Frame";
+    private static final String FRAME_TYPE = "L" + FRAME + ";";
+    private static final String RUNTIME = "net/saga/diy/lisp/parser/compiler/JitRuntime";
+    private static final String NUMBERS = "net/saga/diy/lisp/parser/Numbers";
+    private static final String EVALUATOR = "net/saga/diy/lisp/parser/Evaluator";
+    private static final String VERSION = "net/saga/diy/lisp/parser/types/Environment$Version";
+    private static final String EXCEPTION = "net/saga/diy/lisp/parser/types/LispException";
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String TEST = "(Ljava/lang/Object;Ljava/lang/Object;)Z";
+    private static final String UNARY = "(Ljava/lang/Object;)Ljava/lang/Object;";
+
+    /* Locals of the generated body: the frame, its slots, and the arguments of the call being made. */
+    private static final int FRAME_LOCAL = 0;
+    private static final int SLOTS_LOCAL = 1;
+    private static final int ARGS_LOCAL = 2;
+    private static final int SPILL_LOCAL = 3;
+
+    private final BytecodeClosure closure;
+    private final Bytecode bytecode;
+    private final ClassFile file;
+    private final List<Object> values = new ArrayList<>();
+    private int self;
+    private int code;
+    private final int[] globals;
+    private final int[] versions;
+    private final int[] stamps;
+    private int maxLocals = SPILL_LOCAL;
+
+    private Jit(BytecodeClosure closure, String className) {
+        this.closure = closure;
+        this.bytecode = closure.code;
+        this.file = new ClassFile(className, "net/saga/diy/lisp/parser/compiler/JitCode");
+        this.globals = new int[bytecode.constants.length];
+        this.versions = new int[bytecode.constants.length];
+        this.stamps = new int[bytecode.constants.length];
+    }
+
+    /**
+     * Compiles {@code closure}, or returns null when its code cannot be
+     * expressed as a JVM method.
+     */
+    static JitCode compile(BytecodeClosure closure) {
+        String name = closure.getName() == null ? "lambda" : closure.getName().replaceAll("[^A-Za-z0-9_]", "_");
+        Jit jit = new Jit(closure, "net/saga/diy/lisp/parser/compiler/Jit$" + name);
+        byte[] classFile;
+        try {
+            classFile = jit.generate();
+        } catch (IllegalStateException ex) {
+            return null;
+        }
+        try {
+            Class<?> type = new Loader().define(jit.file.getName().replace('/', '.'), classFile);
+            return (JitCode) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private byte[] generate() {
+        for (Object constant : bytecode.constants) {
+            value(constant);
+        }
+        self = value(closure);
+        code = value(bytecode);
+        for (int pc = 0; pc < bytecode.code.length; pc += 1 + Opcodes.operands(bytecode.code[pc])) {
+            int opcode = bytecode.code[pc];
+            if (opcode == Opcodes.GLOBAL || opcode == Opcodes.GLOBAL_FUNCTION) {
+                int name = bytecode.code[pc + 1];
+                if (globals[name] == 0) {
+                    Environment.Version version = Environment.version((String) bytecode.constants[name]);
+                    stamps[name] = version.get();
+                    versions[name] = value(version);
+                    globals[name] = global((String) bytecode.constants[name]);
+                }
+            }
+        }
+
+        ClassFile.Code init = file.addMethod(ClassFile.ACC_PUBLIC, "<init>", "()V");
+        init.local(ClassFile.ALOAD, 0).invoke(ClassFile.INVOKESPECIAL, "net/saga/diy/lisp/parser/compiler/JitCode",
+                "<init>", "()V").op(ClassFile.RETURN);
+        init.finish(1, 1);
+
+        ClassFile.Code run = file.addMethod(ClassFile.ACC_PUBLIC, "run", "(" + FRAME_TYPE + ")" + OBJECT_TYPE);
+        run.local(ClassFile.ALOAD, 1).invoke(ClassFile.INVOKESTATIC, file.getName(), "body",
+                "(" + FRAME_TYPE + ")" + OBJECT_TYPE).op(ClassFile.ARETURN);
+        run.finish(1, 2);
+
+        body();
+
+        ClassFile.Code clinit = file.addMethod(ClassFile.ACC_STATIC, "<clinit>", "()V");
+        clinit.push(JitRuntime.register(values.toArray())).invoke(ClassFile.INVOKESTATIC, RUNTIME, "constants", "(I)[Ljava/lang/Object;");
+        clinit.local(ClassFile.ASTORE, 0);
+        for (int i = 0; i < values.size(); i++) {
+            file.addField(ClassFile.ACC_STATIC | ClassFile.ACC_FINAL, "c" + i, OBJECT_TYPE);
+            clinit.local(ClassFile.ALOAD, 0).push(i).op(ClassFile.AALOAD).field(ClassFile.PUTSTATIC, file.getName(), "c" + i,
+                    OBJECT_TYPE);
+        }
+        clinit.op(ClassFile.RETURN);
+        clinit.finish(3, 1);
+        return file.toByteArray();
+    }
+
+    private int value(Object value) {
+        values.add(value);
+        return values.size() - 1;
+    }
+
+    /**
+     * The field holding the value of a global as it is now, or -1 when it is
+     * not defined yet.
+     */
+    private int global(String name) {
+        try {
+            return value(closure.getEnv().lookup(name));
+        } catch (LispException ex) {
+            return -1;
+        }
+    }
+
+    private void body() {
+        int[] ops = bytecode.code;
+        ClassFile.Code out = file.addMethod(ClassFile.ACC_STATIC, "body", "(" + FRAME_TYPE + ")" + OBJECT_TYPE);
+        ClassFile.Label[] labels = new ClassFile.Label[ops.length + 1];
+        for (int pc = 0; pc < ops.length; pc += 1 + Opcodes.operands(ops[pc])) {
+            int target = target(ops, pc);
+            if (target >= 0 && labels[target] == null) {
+                labels[target] = new ClassFile.Label();
+            }
+        }
+        ClassFile.Label start = new ClassFile.Label();
+        int[] starts = new int[ops.length];
+        int[] ends = new int[ops.length];
+
+        out.place(start);
+        out.local(ClassFile.ALOAD, FRAME_LOCAL).invoke(ClassFile.INVOKESTATIC, RUNTIME, "slots",
+                "(" + FRAME_TYPE + ")[Ljava/lang/Object;").local(ClassFile.ASTORE, SLOTS_LOCAL);
+        for (int pc = 0; pc < ops.length; pc += 1 + Opcodes.operands(ops[pc])) {
+            if (labels[pc] != null) {
+                out.place(labels[pc]);
+            }
+            starts[pc] = out.position();
+            instruction(out, ops, pc, labels, start);
+            ends[pc] = out.position();
+        }
+
+        /* Errors get the innermost form of the instruction that raised them, as in the interpreter. */
+        for (int pc = 0; pc < ops.length; pc += 1 + Opcodes.operands(ops[pc])) {
+            out.handler(starts[pc], ends[pc], out.position(), EXCEPTION);
+            constant(out, code).push(pc).invoke(ClassFile.INVOKESTATIC, RUNTIME, "locate",
+                    "(L" + EXCEPTION + ";Ljava/lang/Object;I)L" + EXCEPTION + ";").op(ClassFile.ATHROW);
+        }
+        out.finish(bytecode.maxStack + 6, maxLocals);
+    }
+
+    private static int target(int[] ops, int pc) {
+        switch (ops[pc]) {
+        case Opcodes.JUMP:
+        case Opcodes.JUMP_IF_FALSE:
+            return ops[pc + 1];
+        case Opcodes.DEFINED:
+        case Opcodes.JUMP_UNLESS_EQ_RK:
+        case Opcodes.JUMP_UNLESS_GREATER_THAN_RK:
+        case Opcodes.JUMP_UNLESS_LESS_THAN_RK:
+            return ops[pc + 3];
+        default:
+            return -1;
+        }
+    }
+
+    private void instruction(ClassFile.Code out, int[] ops, int pc, ClassFile.Label[] labels, ClassFile.Label start) {
+        switch (ops[pc]) {
+        case Opcodes.CONST:
+            constant(out, ops[pc + 1]);
+            break;
+        case Opcodes.GLOBAL:
+            global(out, ops[pc + 1]);
+            break;
+        case Opcodes.GLOBAL_FUNCTION:
+            global(out, ops[pc + 1]);
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "function", UNARY);
+            break;
+        case Opcodes.LOCAL:
+            register(out, ops[pc + 1]);
+            break;
+        case Opcodes.ENCLOSING:
+            out.local(ClassFile.ALOAD, FRAME_LOCAL).push(ops[pc + 1]).push(ops[pc + 2]);
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "enclosing", "(" + FRAME_TYPE + "II)" + OBJECT_TYPE);
+            break;
+        case Opcodes.DEFINED:
+            out.local(ClassFile.ALOAD, FRAME_LOCAL).push(ops[pc + 1]).push(ops[pc + 2]);
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "enclosing", "(" + FRAME_TYPE + "II)" + OBJECT_TYPE);
+            out.op(ClassFile.DUP).jump(ClassFile.IFNONNULL, labels[ops[pc + 3]]).op(ClassFile.POP);
+            break;
+        case Opcodes.DEFINE:
+            out.local(ClassFile.ALOAD, FRAME_LOCAL).op(ClassFile.SWAP);
+            constant(out, ops[pc + 1]).invoke(ClassFile.INVOKESTATIC, RUNTIME, "define",
+                    "(" + FRAME_TYPE + OBJECT_TYPE + OBJECT_TYPE + ")" + OBJECT_TYPE);
+            break;
+        case Opcodes.DEFINE_LOCAL:
+            out.local(ClassFile.ALOAD, FRAME_LOCAL).op(ClassFile.SWAP).push(ops[pc + 1]);
+            constant(out, ops[pc + 2]).invoke(ClassFile.INVOKESTATIC, RUNTIME, "defineLocal",
+                    "(" + FRAME_TYPE + OBJECT_TYPE + "I" + OBJECT_TYPE + ")" + OBJECT_TYPE);
+            break;
+        case Opcodes.LAMBDA:
+            out.local(ClassFile.ALOAD, FRAME_LOCAL);
+            constant(out, ops[pc + 1]).invoke(ClassFile.INVOKESTATIC, RUNTIME, "lambda",
+                    "(" + FRAME_TYPE + OBJECT_TYPE + ")" + OBJECT_TYPE);
+            break;
+        case Opcodes.JUMP:
+            out.jump(ClassFile.GOTO, labels[ops[pc + 1]]);
+            break;
+        case Opcodes.JUMP_IF_FALSE:
+            out.invoke(ClassFile.INVOKESTATIC, EVALUATOR, "isTrue", "(Ljava/lang/Object;)Z");
+            out.jump(ClassFile.IFEQ, labels[ops[pc + 1]]);
+            break;
+        case Opcodes.JUMP_UNLESS_EQ_RK:
+            test(out, ops, pc, EVALUATOR, "eq", labels);
+            break;
+        case Opcodes.JUMP_UNLESS_GREATER_THAN_RK:
+            test(out, ops, pc, NUMBERS, "greaterThan", labels);
+            break;
+        case Opcodes.JUMP_UNLESS_LESS_THAN_RK:
+            test(out, ops, pc, NUMBERS, "lessThan", labels);
+            break;
+        case Opcodes.FUNCTION:
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "function", UNARY);
+            break;
+        case Opcodes.CALL:
+            call(out, ops[pc + 1]);
+            break;
+        case Opcodes.TAIL_CALL:
+            tailCall(out, ops[pc + 1], start);
+            break;
+        case Opcodes.RETURN:
+            out.op(ClassFile.ARETURN);
+            break;
+        case Opcodes.FAIL:
+            constant(out, ops[pc + 1]).invoke(ClassFile.INVOKESTATIC, RUNTIME, "fail", "(Ljava/lang/Object;)L" + EXCEPTION + ";");
+            out.op(ClassFile.ATHROW);
+            break;
+        case Opcodes.ATOM:
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "atom", UNARY);
+            break;
+        case Opcodes.HEAD:
+            out.invoke(ClassFile.INVOKESTATIC, EVALUATOR, "head", UNARY);
+            break;
+        case Opcodes.TAIL:
+            out.invoke(ClassFile.INVOKESTATIC, EVALUATOR, "tail", UNARY);
+            break;
+        case Opcodes.EMPTY:
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "empty", UNARY);
+            break;
+        case Opcodes.EQ_RK:
+            operands(out, ops, pc);
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "eq", BINARY);
+            break;
+        case Opcodes.EQ:
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "eq", BINARY);
+            break;
+        case Opcodes.ADD_RK:
+            operands(out, ops, pc);
+            out.invoke(ClassFile.INVOKESTATIC, NUMBERS, "add", BINARY);
+            break;
+        case Opcodes.ADD:
+            out.invoke(ClassFile.INVOKESTATIC, NUMBERS, "add", BINARY);
+            break;
+        case Opcodes.SUBTRACT_RK:
+            operands(out, ops, pc);
+            out.invoke(ClassFile.INVOKESTATIC, NUMBERS, "subtract", BINARY);
+            break;
+        case Opcodes.SUBTRACT:
+            out.invoke(ClassFile.INVOKESTATIC, NUMBERS, "subtract", BINARY);
+            break;
+        case Opcodes.MULTIPLY_RK:
+            operands(out, ops, pc);
+            out.invoke(ClassFile.INVOKESTATIC, NUMBERS, "multiply", BINARY);
+            break;
+        case Opcodes.MULTIPLY:
+            out.invoke(ClassFile.INVOKESTATIC, NUMBERS, "multiply", BINARY);
+            break;
+        case Opcodes.DIVIDE_RK:
+            operands(out, ops, pc);
+            out.invoke(ClassFile.INVOKESTATIC, NUMBERS, "divide", BINARY);
+            break;
+        case Opcodes.DIVIDE:
+            out.invoke(ClassFile.INVOKESTATIC, NUMBERS, "divide", BINARY);
+            break;
+        case Opcodes.MODULO_RK:
+            operands(out, ops, pc);
+            out.invoke(ClassFile.INVOKESTATIC, NUMBERS, "modulo", BINARY);
+            break;
+        case Opcodes.MODULO:
+            out.invoke(ClassFile.INVOKESTATIC, NUMBERS, "modulo", BINARY);
+            break;
+        case Opcodes.GREATER_THAN_RK:
+            operands(out, ops, pc);
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "greaterThan", BINARY);
+            break;
+        case Opcodes.GREATER_THAN:
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "greaterThan", BINARY);
+            break;
+        case Opcodes.LESS_THAN_RK:
+            operands(out, ops, pc);
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "lessThan", BINARY);
+            break;
+        case Opcodes.LESS_THAN:
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "lessThan", BINARY);
+            break;
+        case Opcodes.CONS:
+            out.invoke(ClassFile.INVOKESTATIC, EVALUATOR, "cons", BINARY);
+            break;
+        case Opcodes.LIST:
+            arguments(out, ops[pc + 1]);
+            out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "list", "([Ljava/lang/Object;)Ljava/lang/Object;");
+            break;
+        case Opcodes.PMAP:
+            out.local(ClassFile.ALOAD, FRAME_LOCAL).invoke(ClassFile.INVOKESTATIC, RUNTIME, "map",
+                    "(" + OBJECT_TYPE + OBJECT_TYPE + FRAME_TYPE + ")" + OBJECT_TYPE);
+            break;
+        case Opcodes.PFILTER:
+            out.local(ClassFile.ALOAD, FRAME_LOCAL).invoke(ClassFile.INVOKESTATIC, RUNTIME, "filter",
+                    "(" + OBJECT_TYPE + OBJECT_TYPE + FRAME_TYPE + ")" + OBJECT_TYPE);
+            break;
+        case Opcodes.PREDUCE:
+            out.local(ClassFile.ALOAD, FRAME_LOCAL).invoke(ClassFile.INVOKESTATIC, RUNTIME, "reduce",
+                    "(" + OBJECT_TYPE + OBJECT_TYPE + OBJECT_TYPE + FRAME_TYPE + ")" + OBJECT_TYPE);
+            break;
+        case Opcodes.MEMOIZE:
+            out.invoke(ClassFile.INVOKESTATIC, "net/saga/diy/lisp/parser/MemoizedClosure", "memoize",
+                    "(" + OBJECT_TYPE + OBJECT_TYPE + OBJECT_TYPE + ")" + OBJECT_TYPE);
+            break;
+        default:
+            throw new IllegalStateException("Unknown opcode " + ops[pc] + " at " + pc);
+        }
+    }
+
+    private ClassFile.Code constant(ClassFile.Code out, int index) {
+        return out.field(ClassFile.GETSTATIC, file.getName(), "c" + index, OBJECT_TYPE);
+    }
+
+    /**
+     * Loads a global, from its field while no definition may have shadowed it
+     * since it was read.
+     */
+    private void global(ClassFile.Code out, int name) {
+        if (globals[name] < 0) {
+            out.local(ClassFile.ALOAD, FRAME_LOCAL);
+            constant(out, name).invoke(ClassFile.INVOKESTATIC, RUNTIME, "global",
+                    "(" + FRAME_TYPE + OBJECT_TYPE + ")" + OBJECT_TYPE);
+            return;
+        }
+        ClassFile.Label stale = new ClassFile.Label();
+        ClassFile.Label done = new ClassFile.Label();
+        constant(out, versions[name]).type(ClassFile.CHECKCAST, VERSION).invoke(ClassFile.INVOKEVIRTUAL, VERSION, "get", "()I");
+        out.push(stamps[name]).jump(ClassFile.IF_ICMPNE, stale);
+        constant(out, globals[name]).jump(ClassFile.GOTO, done);
+        out.place(stale).local(ClassFile.ALOAD, FRAME_LOCAL);
+        constant(out, name);
+        constant(out, self).invoke(ClassFile.INVOKESTATIC, RUNTIME, "stale",
+                "(" + FRAME_TYPE + OBJECT_TYPE + OBJECT_TYPE + ")" + OBJECT_TYPE);
+        out.place(done);
+    }
+
+    private void register(ClassFile.Code out, int operand) {
+        if (operand >= 0) {
+            out.local(ClassFile.ALOAD, SLOTS_LOCAL).push(operand).op(ClassFile.AALOAD);
+        } else {
+            constant(out, ~operand);
+        }
+    }
+
+    private void operands(ClassFile.Code out, int[] ops, int pc) {
+        register(out, ops[pc + 1]);
+        register(out, ops[pc + 2]);
+    }
+
+    private void test(ClassFile.Code out, int[] ops, int pc, String owner, String method, ClassFile.Label[] labels) {
+        operands(out, ops, pc);
+        out.invoke(ClassFile.INVOKESTATIC, owner, method, TEST).jump(ClassFile.IFEQ, labels[ops[pc + 3]]);
+    }
+
+    /**
+     * Replaces the top {@code count} values with an array of them.
+     */
+    private void arguments(ClassFile.Code out, int count) {
+        maxLocals = Math.max(maxLocals, SPILL_LOCAL + count);
+        for (int i = count - 1; i >= 0; i--) {
+            out.local(ClassFile.ASTORE, SPILL_LOCAL + i);
+        }
+        out.push(count).type(ClassFile.ANEWARRAY, OBJECT);
+        for (int i = 0; i < count; i++) {
+            out.op(ClassFile.DUP).push(i).local(ClassFile.ALOAD, SPILL_LOCAL + i).op(ClassFile.AASTORE);
+        }
+    }
+
+    /**
+     * Leaves the function below its arguments on the stack and the arguments
+     * in their local, and branches to {@code other} unless the function is
+     * this closure and no probe needs to see the call.
+     */
+    private void selfCall(ClassFile.Code out, int count, ClassFile.Label other) {
+        arguments(out, count);
+        out.local(ClassFile.ASTORE, ARGS_LOCAL);
+        out.op(ClassFile.DUP);
+        constant(out, self).jump(ClassFile.IF_ACMPNE, other);
+        out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "probing", "()Z").jump(ClassFile.IFNE, other);
+        out.op(ClassFile.POP);
+        constant(out, self).local(ClassFile.ALOAD, ARGS_LOCAL).local(ClassFile.ALOAD, FRAME_LOCAL);
+        out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "enter", "(" + OBJECT_TYPE + "[Ljava/lang/Object;" + FRAME_TYPE + ")"
+                + FRAME_TYPE);
+    }
+
+    private void call(ClassFile.Code out, int count) {
+        ClassFile.Label other = new ClassFile.Label();
+        ClassFile.Label done = new ClassFile.Label();
+        selfCall(out, count, other);
+        out.invoke(ClassFile.INVOKESTATIC, file.getName(), "body", "(" + FRAME_TYPE + ")" + OBJECT_TYPE);
+        out.local(ClassFile.ALOAD, FRAME_LOCAL).invoke(ClassFile.INVOKESTATIC, RUNTIME, "result",
+                "(" + OBJECT_TYPE + FRAME_TYPE + ")" + OBJECT_TYPE);
+        out.jump(ClassFile.GOTO, done);
+        out.place(other).local(ClassFile.ALOAD, ARGS_LOCAL).local(ClassFile.ALOAD, FRAME_LOCAL);
+        out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "call", "(" + OBJECT_TYPE + "[Ljava/lang/Object;" + FRAME_TYPE + ")"
+                + OBJECT_TYPE);
+        out.place(done);
+    }
+
+    /**
+     * A tail call to this closure starts the body over in a new frame. Any
+     * other is returned for the caller to make.
+     */
+    private void tailCall(ClassFile.Code out, int count, ClassFile.Label start) {
+        ClassFile.Label other = new ClassFile.Label();
+        selfCall(out, count, other);
+        out.local(ClassFile.ASTORE, FRAME_LOCAL).jump(ClassFile.GOTO, start);
+        out.place(other).local(ClassFile.ALOAD, ARGS_LOCAL);
+        out.invoke(ClassFile.INVOKESTATIC, RUNTIME, "tailCall", "(" + OBJECT_TYPE + "[Ljava/lang/Object;)" + OBJECT_TYPE);
+    }
+
+    private static final class Loader extends ClassLoader {
+
+        Loader() {
+            super(Jit.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+
+    }
+
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+/**
+ * The superclass of the classes {@link Jit} generates, one per compiled
+ * closure. It is public because generated classes live in a class loader of
+ * their own.
+ */
+public abstract class JitCode {
+
+    protected JitCode() {
+    }
+
+    /**
+     * Runs the closure's body in {@code frame}. The result is a
+     * {@link TailCall} when the body ends in a call to another closure.
+     */
+    public abstract Object run(Frame frame);
+
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.saga.diy.lisp.parser.Evaluator;
+import net.saga.diy.lisp.parser.Numbers;
+import net.saga.diy.lisp.parser.ParallelLists;
+import net.saga.diy.lisp.parser.profiler.Probe;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.ConsList;
+import net.saga.diy.lisp.parser.types.LispException;
+
+/**
+ * The operations code generated by {@link Jit} calls. It is public because
+ * generated classes live in a class loader of their own, and is of no use to
+ * anything else.
+ */
+public final class JitRuntime {
+
+    private static final AtomicInteger IDS = new AtomicInteger();
+    private static final Map<Integer, Object[]> PENDING = new ConcurrentHashMap<>();
+
+    private JitRuntime() {
+    }
+
+    /**
+     * Keeps the constants of a class about to be defined until its static
+     * initializer collects them with {@link #constants(int)}.
+     */
+    static int register(Object[] constants) {
+        int id = IDS.incrementAndGet();
+        PENDING.put(id, constants);
+        return id;
+    }
+
+    public static Object[] constants(int id) {
+        return PENDING.remove(id);
+    }
+
+    public static Object[] slots(Frame frame) {
+        return frame.slots;
+    }
+
+    public static Object enclosing(Frame frame, int depth, int slot) {
+        for (; depth > 0; depth--) {
+            frame = frame.parent;
+        }
+        return frame.slots[slot];
+    }
+
+    public static Object global(Frame frame, Object name) {
+        return frame.getEnv().lookup((String) name);
+    }
+
+    /**
+     * Looks up a name whose value the compiled code of {@code closure}
+     * assumed, after a definition may have changed it. The closure goes back
+     * to being interpreted until it is compiled again.
+     */
+    public static Object stale(Frame frame, Object name, Object closure) {
+        ((BytecodeClosure) closure).deoptimize();
+        return frame.getEnv().lookup((String) name);
+    }
+
+    public static Object define(Frame frame, Object value, Object name) {
+        frame.getEnv().set((String) name, Evaluator.named(value, (String) name));
+        return name;
+    }
+
+    public static Object defineLocal(Frame frame, Object value, int slot, Object name) {
+        Object result = Evaluator.named(value, (String) name);
+        if (frame.slots[slot] != null) {
+            throw new LispException("Variable " + name + " is already defined");
+        }
+        frame.slots[slot] = result;
+        return name;
+    }
+
+    public static Object lambda(Frame frame, Object code) {
+        return new BytecodeClosure(frame, (Bytecode) code);
+    }
+
+    public static Object function(Object value) {
+        if (!(value instanceof Closure)) {
+            throw new LispException("Not a function: " + Evaluator.toString(value));
+        }
+        return value;
+    }
+
+    public static Object call(Object function, Object[] args, Frame frame) {
+        if (function instanceof BytecodeClosure) {
+            return ((BytecodeClosure) function).invoke(args, frame.fuel);
+        }
+        if (function instanceof Closure) {
+            return Evaluator.apply((Closure) function, args, frame.fuel);
+        }
+        /* The value of a list standing alone, as in (('foo)). */
+        return function;
+    }
+
+    public static Object tailCall(Object function, Object[] args) {
+        return function instanceof Closure ? new TailCall((Closure) function, args) : function;
+    }
+
+    /**
+     * True when calls must go through the closures, so that the active
+     * {@link Probe} sees them.
+     */
+    public static boolean probing() {
+        return Probe.active() != null;
+    }
+
+    /**
+     * Checks and pays for a call the compiled code makes to its own closure,
+     * and returns the frame to run it in.
+     */
+    public static Frame enter(Object closure, Object[] args, Frame caller) {
+        return ((BytecodeClosure) closure).enter(args, caller.fuel);
+    }
+
+    /**
+     * The value of a call the compiled code made to its own body, after any
+     * tail calls it left.
+     */
+    public static Object result(Object value, Frame frame) {
+        return value instanceof TailCall ? BytecodeClosure.finish((TailCall) value, frame.fuel) : value;
+    }
+
+    public static LispException fail(Object message) {
+        return new LispException((String) message);
+    }
+
+    /**
+     * Attaches the form at {@code pc} of {@code code} to an error raised by the
+     * compiled instruction there, the way {@link Machine} does.
+     */
+    public static LispException locate(LispException ex, Object code, int pc) {
+        if (ex.getForm() == null) {
+            ex.setForm(((Bytecode) code).formAt(pc));
+        }
+        return ex;
+    }
+
+    public static Object atom(Object value) {
+        return Evaluator.isAtom(value);
+    }
+
+    public static Object eq(Object first, Object second) {
+        return Evaluator.eq(first, second);
+    }
+
+    public static Object greaterThan(Object first, Object second) {
+        return Numbers.greaterThan(first, second);
+    }
+
+    public static Object lessThan(Object first, Object second) {
+        return Numbers.lessThan(first, second);
+    }
+
+    public static Object empty(Object value) {
+        return Evaluator.empty(value);
+    }
+
+    public static Object list(Object[] values) {
+        return ConsList.of(values);
+    }
+
+    public static Object map(Object function, Object list, Frame frame) {
+        return ParallelLists.map(function, list, frame.fuel);
+    }
+
+    public static Object filter(Object predicate, Object list, Frame frame) {
+        return ParallelLists.filter(predicate, list, frame.fuel);
+    }
+
+    public static Object reduce(Object function, Object initial, Object list, Frame frame) {
+        return ParallelLists.reduce(function, initial, list, frame.fuel);
+    }
+
+}
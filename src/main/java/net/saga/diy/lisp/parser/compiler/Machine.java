@@ -0,0 +1,306 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import net.saga.diy.lisp.parser.Evaluator;
+import net.saga.diy.lisp.parser.MemoizedClosure;
+import net.saga.diy.lisp.parser.Numbers;
+import net.saga.diy.lisp.parser.ParallelLists;
+import net.saga.diy.lisp.parser.profiler.Probe;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.ConsList;
+import net.saga.diy.lisp.parser.types.LispException;
+
+/**
+ * Runs {@link Bytecode} with an operand stack in a single dispatch loop.
+ * Calls to other closures recurse into a new loop, except for calls in tail
+ * position. A bytecode closure called there replaces the running code and
+ * frame, anything else is returned as a {@link TailCall} for the calling
+ * {@link BytecodeClosure} to make, so that neither takes any stack.
+ */
+final class Machine {
+
+    private Machine() {
+    }
+
+    /**
+     * Runs {@code code} in {@code frame}. The probe, if any, has entered the
+     * closure being run and is exited when it returns.
+     */
+    static Object run(Bytecode code, Frame frame, Probe probe) {
+        int[] ops = code.code;
+        Object[] constants = code.constants;
+        Object[] stack = new Object[code.maxStack];
+        int sp = 0;
+        int pc = 0;
+        try {
+            for (;;) {
+                switch (ops[pc++]) {
+                case Opcodes.CONST:
+                    stack[sp++] = constants[ops[pc++]];
+                    break;
+                case Opcodes.GLOBAL:
+                    stack[sp++] = code.caches[ops[pc++]].lookup(frame.getEnv());
+                    break;
+                case Opcodes.LOCAL:
+                    stack[sp++] = frame.slots[ops[pc++]];
+                    break;
+                case Opcodes.ENCLOSING: {
+                    Frame target = frame;
+                    for (int depth = ops[pc++]; depth > 0; depth--) {
+                        target = target.parent;
+                    }
+                    stack[sp++] = target.slots[ops[pc++]];
+                    break;
+                }
+                case Opcodes.DEFINED: {
+                    Frame target = frame;
+                    for (int depth = ops[pc++]; depth > 0; depth--) {
+                        target = target.parent;
+                    }
+                    Object value = target.slots[ops[pc++]];
+                    if (value != null) {
+                        stack[sp++] = value;
+                        pc = ops[pc];
+                    } else {
+                        pc++;
+                    }
+                    break;
+                }
+                case Opcodes.DEFINE: {
+                    String name = (String) constants[ops[pc++]];
+                    frame.getEnv().set(name, Evaluator.named(stack[sp - 1], name));
+                    stack[sp - 1] = name;
+                    break;
+                }
+                case Opcodes.DEFINE_LOCAL: {
+                    int slot = ops[pc++];
+                    String name = (String) constants[ops[pc++]];
+                    Object value = Evaluator.named(stack[sp - 1], name);
+                    if (frame.slots[slot] != null) {
+                        throw new LispException("Variable " + name + " is already defined");
+                    }
+                    frame.slots[slot] = value;
+                    stack[sp - 1] = name;
+                    break;
+                }
+                case Opcodes.LAMBDA:
+                    stack[sp++] = new BytecodeClosure(frame, (Bytecode) constants[ops[pc++]]);
+                    break;
+                case Opcodes.JUMP:
+                    pc = ops[pc];
+                    break;
+                case Opcodes.JUMP_IF_FALSE:
+                    pc = Evaluator.isTrue(stack[--sp]) ? pc + 1 : ops[pc];
+                    break;
+                case Opcodes.JUMP_UNLESS_EQ_RK:
+                    pc = Evaluator.eq(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants)) ? pc + 3 : ops[pc + 2];
+                    break;
+                case Opcodes.JUMP_UNLESS_GREATER_THAN_RK:
+                    pc = Numbers.greaterThan(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants)) ? pc + 3
+                            : ops[pc + 2];
+                    break;
+                case Opcodes.JUMP_UNLESS_LESS_THAN_RK:
+                    pc = Numbers.lessThan(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants)) ? pc + 3
+                            : ops[pc + 2];
+                    break;
+                case Opcodes.GLOBAL_FUNCTION:
+                    stack[sp] = code.caches[ops[pc++]].lookup(frame.getEnv());
+                    if (!(stack[sp++] instanceof Closure)) {
+                        throw new LispException("Not a function: " + Evaluator.toString(stack[sp - 1]));
+                    }
+                    break;
+                case Opcodes.FUNCTION:
+                    if (!(stack[sp - 1] instanceof Closure)) {
+                        throw new LispException("Not a function: " + Evaluator.toString(stack[sp - 1]));
+                    }
+                    break;
+                case Opcodes.CALL: {
+                    Object[] args = new Object[ops[pc++]];
+                    sp -= args.length;
+                    System.arraycopy(stack, sp, args, 0, args.length);
+                    Object fn = stack[sp - 1];
+                    if (fn instanceof BytecodeClosure) {
+                        stack[sp - 1] = ((BytecodeClosure) fn).invoke(args, frame.fuel);
+                    } else if (fn instanceof Closure) {
+                        stack[sp - 1] = Evaluator.apply((Closure) fn, args, frame.fuel);
+                    }
+                    /* Otherwise fn is the value of a list standing alone, as in (('foo)). */
+                    break;
+                }
+                case Opcodes.TAIL_CALL: {
+                    Object[] args = new Object[ops[pc++]];
+                    sp -= args.length;
+                    System.arraycopy(stack, sp, args, 0, args.length);
+                    Object fn = stack[sp - 1];
+                    if (!(fn instanceof Closure)) {
+                        break;
+                    }
+                    /* Left to the caller's trampoline unless it is more bytecode to run here. */
+                    if (!(fn instanceof BytecodeClosure) || ((BytecodeClosure) fn).tierUp()) {
+                        return new TailCall((Closure) fn, args);
+                    }
+                    if (probe != null) {
+                        probe.exit();
+                    }
+                    probe = null;
+                    BytecodeClosure closure = (BytecodeClosure) fn;
+                    frame = closure.enter(args, frame.fuel);
+                    probe = Probe.active();
+                    if (probe != null) {
+                        probe.enter(closure);
+                    }
+                    code = closure.code;
+                    ops = code.code;
+                    constants = code.constants;
+                    if (stack.length < code.maxStack) {
+                        stack = new Object[code.maxStack];
+                    }
+                    sp = 0;
+                    pc = 0;
+                    break;
+                }
+                case Opcodes.RETURN:
+                    return stack[sp - 1];
+                case Opcodes.FAIL:
+                    throw new LispException((String) constants[ops[pc++]]);
+                case Opcodes.ATOM:
+                    stack[sp - 1] = Evaluator.isAtom(stack[sp - 1]);
+                    break;
+                case Opcodes.EQ:
+                    sp--;
+                    stack[sp - 1] = Evaluator.eq(stack[sp - 1], stack[sp]);
+                    break;
+                case Opcodes.ADD:
+                    sp--;
+                    stack[sp - 1] = Numbers.add(stack[sp - 1], stack[sp]);
+                    break;
+                case Opcodes.SUBTRACT:
+                    sp--;
+                    stack[sp - 1] = Numbers.subtract(stack[sp - 1], stack[sp]);
+                    break;
+                case Opcodes.MULTIPLY:
+                    sp--;
+                    stack[sp - 1] = Numbers.multiply(stack[sp - 1], stack[sp]);
+                    break;
+                case Opcodes.DIVIDE:
+                    sp--;
+                    stack[sp - 1] = Numbers.divide(stack[sp - 1], stack[sp]);
+                    break;
+                case Opcodes.MODULO:
+                    sp--;
+                    stack[sp - 1] = Numbers.modulo(stack[sp - 1], stack[sp]);
+                    break;
+                case Opcodes.GREATER_THAN:
+                    sp--;
+                    stack[sp - 1] = Numbers.greaterThan(stack[sp - 1], stack[sp]);
+                    break;
+                case Opcodes.LESS_THAN:
+                    sp--;
+                    stack[sp - 1] = Numbers.lessThan(stack[sp - 1], stack[sp]);
+                    break;
+                case Opcodes.CONS:
+                    sp--;
+                    stack[sp - 1] = Evaluator.cons(stack[sp - 1], stack[sp]);
+                    break;
+                case Opcodes.HEAD:
+                    stack[sp - 1] = Evaluator.head(stack[sp - 1]);
+                    break;
+                case Opcodes.TAIL:
+                    stack[sp - 1] = Evaluator.tail(stack[sp - 1]);
+                    break;
+                case Opcodes.EMPTY:
+                    stack[sp - 1] = Evaluator.empty(stack[sp - 1]);
+                    break;
+                case Opcodes.LIST: {
+                    Object[] values = new Object[ops[pc++]];
+                    sp -= values.length;
+                    System.arraycopy(stack, sp, values, 0, values.length);
+                    stack[sp++] = ConsList.of(values);
+                    break;
+                }
+                case Opcodes.PMAP:
+                    sp--;
+                    stack[sp - 1] = ParallelLists.map(stack[sp - 1], stack[sp], frame.fuel);
+                    break;
+                case Opcodes.PFILTER:
+                    sp--;
+                    stack[sp - 1] = ParallelLists.filter(stack[sp - 1], stack[sp], frame.fuel);
+                    break;
+                case Opcodes.PREDUCE:
+                    sp -= 2;
+                    stack[sp - 1] = ParallelLists.reduce(stack[sp - 1], stack[sp], stack[sp + 1], frame.fuel);
+                    break;
+                case Opcodes.MEMOIZE:
+                    sp -= 2;
+                    stack[sp - 1] = MemoizedClosure.memoize(stack[sp - 1], stack[sp], stack[sp + 1]);
+                    break;
+                case Opcodes.EQ_RK:
+                    stack[sp++] = Evaluator.eq(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants));
+                    pc += 2;
+                    break;
+                case Opcodes.ADD_RK:
+                    stack[sp++] = Numbers.add(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants));
+                    pc += 2;
+                    break;
+                case Opcodes.SUBTRACT_RK:
+                    stack[sp++] = Numbers.subtract(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants));
+                    pc += 2;
+                    break;
+                case Opcodes.MULTIPLY_RK:
+                    stack[sp++] = Numbers.multiply(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants));
+                    pc += 2;
+                    break;
+                case Opcodes.DIVIDE_RK:
+                    stack[sp++] = Numbers.divide(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants));
+                    pc += 2;
+                    break;
+                case Opcodes.MODULO_RK:
+                    stack[sp++] = Numbers.modulo(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants));
+                    pc += 2;
+                    break;
+                case Opcodes.GREATER_THAN_RK:
+                    stack[sp++] = Numbers.greaterThan(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants));
+                    pc += 2;
+                    break;
+                case Opcodes.LESS_THAN_RK:
+                    stack[sp++] = Numbers.lessThan(load(ops[pc], frame, constants), load(ops[pc + 1], frame, constants));
+                    pc += 2;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + ops[pc - 1] + " at " + (pc - 1));
+                }
+            }
+        } catch (LispException ex) {
+            if (ex.getForm() == null) {
+                ex.setForm(code.formAt(pc - 1));
+            }
+            throw ex;
+        } finally {
+            if (probe != null) {
+                probe.exit();
+            }
+        }
+    }
+
+    private static Object load(int operand, Frame frame, Object[] constants) {
+        return operand >= 0 ? frame.slots[operand] : constants[~operand];
+    }
+
+}
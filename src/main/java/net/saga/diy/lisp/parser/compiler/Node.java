@@ -0,0 +1,48 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import java.math.BigInteger;
+
+/**
+ * A node of a compiled expression tree. Special forms and operators are
+ * resolved when the tree is built, so executing a node does no dispatch on the
+ * shape of the source.
+ */
+public abstract class Node {
+
+    public abstract Object exec(Frame frame);
+
+    /**
+     * Executes this node for a value that fits in a long, letting arithmetic
+     * keep intermediate results unboxed. Any other value is handed back in an
+     * {@link UnexpectedValue}.
+     */
+    public long execLong(Frame frame) {
+        Object value = exec(frame);
+        if (value instanceof Integer) {
+            return (Integer) value;
+        }
+        if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            return ((BigInteger) value).longValue();
+        }
+        throw new UnexpectedValue(value);
+    }
+
+}
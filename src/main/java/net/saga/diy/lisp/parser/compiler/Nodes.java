@@ -0,0 +1,772 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import net.saga.diy.lisp.parser.Evaluator;
+import net.saga.diy.lisp.parser.MemoizedClosure;
+import net.saga.diy.lisp.parser.Numbers;
+import net.saga.diy.lisp.parser.ParallelLists;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.ConsList;
+import net.saga.diy.lisp.parser.types.LispException;
+
+/**
+ * The node types produced by {@link Compiler}. Every operator has its own
+ * class so that each {@code exec} call site stays monomorphic.
+ */
+final class Nodes {
+
+    private Nodes() {
+    }
+
+    static final class Constant extends Node {
+
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return value;
+        }
+
+    }
+
+    static final class Lookup extends Node {
+
+        private final GlobalCache cache;
+
+        Lookup(String name) {
+            this.cache = new GlobalCache(name);
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return cache.lookup(frame.getEnv());
+        }
+
+    }
+
+    static final class Local extends Node {
+
+        private final int slot;
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return frame.slots[slot];
+        }
+
+    }
+
+    static final class Enclosing extends Node {
+
+        private final int depth;
+        private final int slot;
+
+        Enclosing(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            for (int i = depth; i > 0; i--) {
+                frame = frame.parent;
+            }
+            return frame.slots[slot];
+        }
+
+    }
+
+    static final class Defined extends Node {
+
+        private final int depth;
+        private final int slot;
+        private final Node outer;
+
+        Defined(int depth, int slot, Node outer) {
+            this.depth = depth;
+            this.slot = slot;
+            this.outer = outer;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            Frame target = frame;
+            for (int i = depth; i > 0; i--) {
+                target = target.parent;
+            }
+            Object value = target.slots[slot];
+            return value != null ? value : outer.exec(frame);
+        }
+
+    }
+
+    static final class Fail extends Node {
+
+        private final String message;
+        private final Object[] form;
+
+        Fail(String message, Object[] form) {
+            this.message = message;
+            this.form = form;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            LispException ex = new LispException(message);
+            ex.setForm(form);
+            throw ex;
+        }
+
+    }
+
+    static final class Atom extends Node {
+
+        private final Node value;
+
+        Atom(Node value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return Evaluator.isAtom(value.exec(frame));
+        }
+
+    }
+
+    static final class Eq extends Node {
+
+        private final Node first;
+        private final Node second;
+
+        Eq(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return Evaluator.eq(first.exec(frame), second.exec(frame));
+        }
+
+    }
+
+    static final class Add extends Node {
+
+        private final Node first;
+        private final Node second;
+
+        Add(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            try {
+                return Numbers.valueOf(execLong(frame));
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+
+        @Override
+        public long execLong(Frame frame) {
+            long a;
+            try {
+                a = first.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(Numbers.add(unexpected.value, second.exec(frame)));
+            }
+            long b;
+            try {
+                b = second.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(Numbers.add(Numbers.valueOf(a), unexpected.value));
+            }
+            try {
+                return Math.addExact(a, b);
+            } catch (ArithmeticException overflow) {
+                throw new UnexpectedValue(Numbers.add(a, b));
+            }
+        }
+
+    }
+
+    static final class Subtract extends Node {
+
+        private final Node first;
+        private final Node second;
+
+        Subtract(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            try {
+                return Numbers.valueOf(execLong(frame));
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+
+        @Override
+        public long execLong(Frame frame) {
+            long a;
+            try {
+                a = first.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(Numbers.subtract(unexpected.value, second.exec(frame)));
+            }
+            long b;
+            try {
+                b = second.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(Numbers.subtract(Numbers.valueOf(a), unexpected.value));
+            }
+            try {
+                return Math.subtractExact(a, b);
+            } catch (ArithmeticException overflow) {
+                throw new UnexpectedValue(Numbers.subtract(a, b));
+            }
+        }
+
+    }
+
+    static final class Multiply extends Node {
+
+        private final Node first;
+        private final Node second;
+
+        Multiply(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            try {
+                return Numbers.valueOf(execLong(frame));
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+
+        @Override
+        public long execLong(Frame frame) {
+            long a;
+            try {
+                a = first.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(Numbers.multiply(unexpected.value, second.exec(frame)));
+            }
+            long b;
+            try {
+                b = second.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(Numbers.multiply(Numbers.valueOf(a), unexpected.value));
+            }
+            try {
+                return Math.multiplyExact(a, b);
+            } catch (ArithmeticException overflow) {
+                throw new UnexpectedValue(Numbers.multiply(a, b));
+            }
+        }
+
+    }
+
+    static final class Divide extends Node {
+
+        private final Node first;
+        private final Node second;
+
+        Divide(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            try {
+                return Numbers.valueOf(execLong(frame));
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+
+        @Override
+        public long execLong(Frame frame) {
+            long a;
+            try {
+                a = first.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(Numbers.divide(unexpected.value, second.exec(frame)));
+            }
+            long b;
+            try {
+                b = second.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(Numbers.divide(Numbers.valueOf(a), unexpected.value));
+            }
+            if (b == 0 || (b == -1 && a == Long.MIN_VALUE)) {
+                throw new UnexpectedValue(Numbers.divide(a, b));
+            }
+            return a / b;
+        }
+
+    }
+
+    static final class Modulo extends Node {
+
+        private final Node first;
+        private final Node second;
+
+        Modulo(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            try {
+                return Numbers.valueOf(execLong(frame));
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+
+        @Override
+        public long execLong(Frame frame) {
+            long a;
+            try {
+                a = first.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(Numbers.modulo(unexpected.value, second.exec(frame)));
+            }
+            long b;
+            try {
+                b = second.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(Numbers.modulo(Numbers.valueOf(a), unexpected.value));
+            }
+            if (b == 0) {
+                throw new UnexpectedValue(Numbers.modulo(a, b));
+            }
+            return a % b;
+        }
+
+    }
+
+    static final class GreaterThan extends Node {
+
+        private final Node first;
+        private final Node second;
+
+        GreaterThan(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            long a;
+            try {
+                a = first.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                return Numbers.greaterThan(unexpected.value, second.exec(frame));
+            }
+            long b;
+            try {
+                b = second.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                return Numbers.greaterThan(Numbers.valueOf(a), unexpected.value);
+            }
+            return a > b;
+        }
+
+    }
+
+    static final class LessThan extends Node {
+
+        private final Node first;
+        private final Node second;
+
+        LessThan(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            long a;
+            try {
+                a = first.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                return Numbers.lessThan(unexpected.value, second.exec(frame));
+            }
+            long b;
+            try {
+                b = second.execLong(frame);
+            } catch (UnexpectedValue unexpected) {
+                return Numbers.lessThan(Numbers.valueOf(a), unexpected.value);
+            }
+            return a < b;
+        }
+
+    }
+
+    static final class If extends Node {
+
+        private final Node condition;
+        private final Node then;
+        private final Node otherwise;
+
+        If(Node condition, Node then, Node otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return Evaluator.isTrue(condition.exec(frame)) ? then.exec(frame) : otherwise.exec(frame);
+        }
+
+    }
+
+    static final class Define extends Node {
+
+        private final String name;
+        private final Node value;
+
+        Define(String name, Node value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            frame.getEnv().set(name, Evaluator.named(value.exec(frame), name));
+            return name;
+        }
+
+    }
+
+    static final class DefineLocal extends Node {
+
+        private final String name;
+        private final int slot;
+        private final Node value;
+
+        DefineLocal(String name, int slot, Node value) {
+            this.name = name;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            Object result = Evaluator.named(value.exec(frame), name);
+            if (frame.slots[slot] != null) {
+                throw new LispException("Variable " + name + " is already defined");
+            }
+            frame.slots[slot] = result;
+            return name;
+        }
+
+    }
+
+    static final class Lambda extends Node {
+
+        private final Object[] params;
+        private final Object body;
+        private final Node code;
+        private final int frameSize;
+        private final int cost;
+
+        Lambda(Object[] params, Object body, Node code, int frameSize, int cost) {
+            this.params = params;
+            this.body = body;
+            this.code = code;
+            this.frameSize = frameSize;
+            this.cost = cost;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return new CompiledClosure(frame, params, body, code, frameSize, cost);
+        }
+
+    }
+
+    static final class Cons extends Node {
+
+        private final Node head;
+        private final Node tail;
+
+        Cons(Node head, Node tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return Evaluator.cons(head.exec(frame), tail.exec(frame));
+        }
+
+    }
+
+    static final class Head extends Node {
+
+        private final Node value;
+
+        Head(Node value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return Evaluator.head(value.exec(frame));
+        }
+
+    }
+
+    static final class Tail extends Node {
+
+        private final Node value;
+
+        Tail(Node value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return Evaluator.tail(value.exec(frame));
+        }
+
+    }
+
+    static final class Empty extends Node {
+
+        private final Node value;
+
+        Empty(Node value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return Evaluator.empty(value.exec(frame));
+        }
+
+    }
+
+    static final class ListOf extends Node {
+
+        private final Node[] elements;
+
+        ListOf(Node[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            Object[] values = new Object[elements.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = elements[i].exec(frame);
+            }
+            return ConsList.of(values);
+        }
+
+    }
+
+    static final class ParallelMap extends Node {
+
+        private final Node function;
+        private final Node list;
+
+        ParallelMap(Node function, Node list) {
+            this.function = function;
+            this.list = list;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return ParallelLists.map(function.exec(frame), list.exec(frame), frame.fuel);
+        }
+
+    }
+
+    static final class ParallelFilter extends Node {
+
+        private final Node predicate;
+        private final Node list;
+
+        ParallelFilter(Node predicate, Node list) {
+            this.predicate = predicate;
+            this.list = list;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return ParallelLists.filter(predicate.exec(frame), list.exec(frame), frame.fuel);
+        }
+
+    }
+
+    static final class ParallelReduce extends Node {
+
+        private final Node function;
+        private final Node initial;
+        private final Node list;
+
+        ParallelReduce(Node function, Node initial, Node list) {
+            this.function = function;
+            this.initial = initial;
+            this.list = list;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return ParallelLists.reduce(function.exec(frame), initial.exec(frame), list.exec(frame), frame.fuel);
+        }
+
+    }
+
+    static final class Memoize extends Node {
+
+        private final Node function;
+        private final Node maximumSize;
+        private final Node weakValues;
+
+        Memoize(Node function, Node maximumSize, Node weakValues) {
+            this.function = function;
+            this.maximumSize = maximumSize;
+            this.weakValues = weakValues;
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            return MemoizedClosure.memoize(function.exec(frame), maximumSize.exec(frame), weakValues.exec(frame));
+        }
+
+    }
+
+    static final class Call extends Node {
+
+        private final Object[] form;
+        private final Node function;
+        private final Node[] args;
+        private final boolean listHead;
+
+        Call(Object[] form, Node function, Node[] args) {
+            this.form = form;
+            this.function = function;
+            this.args = args;
+            this.listHead = form[0] instanceof Object[];
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            try {
+                return call(frame);
+            } catch (LispException ex) {
+                if (ex.getForm() == null) {
+                    ex.setForm(form);
+                }
+                throw ex;
+            }
+        }
+
+        private Object call(Frame frame) {
+            Object fn = function.exec(frame);
+            if (!(fn instanceof Closure)) {
+                if (args.length == 0 && listHead) {
+                    return fn;
+                }
+                throw new LispException("Not a function: " + Evaluator.toString(fn));
+            }
+
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = args[i].exec(frame);
+            }
+            if (fn instanceof CompiledClosure) {
+                return ((CompiledClosure) fn).invoke(values, frame.fuel);
+            }
+            return Evaluator.apply((Closure) fn, values, frame.fuel);
+        }
+
+    }
+
+    static final class TailCallSite extends Node {
+
+        private final Object[] form;
+        private final Node function;
+        private final Node[] args;
+        private final boolean listHead;
+
+        TailCallSite(Object[] form, Node function, Node[] args) {
+            this.form = form;
+            this.function = function;
+            this.args = args;
+            this.listHead = form[0] instanceof Object[];
+        }
+
+        @Override
+        public Object exec(Frame frame) {
+            try {
+                return call(frame);
+            } catch (LispException ex) {
+                if (ex.getForm() == null) {
+                    ex.setForm(form);
+                }
+                throw ex;
+            }
+        }
+
+        private Object call(Frame frame) {
+            Object fn = function.exec(frame);
+            if (!(fn instanceof Closure)) {
+                if (args.length == 0 && listHead) {
+                    return fn;
+                }
+                throw new LispException("Not a function: " + Evaluator.toString(fn));
+            }
+
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = args[i].exec(frame);
+            }
+            return new TailCall((Closure) fn, values);
+        }
+
+    }
+
+}
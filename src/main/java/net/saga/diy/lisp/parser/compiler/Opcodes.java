@@ -0,0 +1,143 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+/**
+ * The instruction set run by {@link Machine}. An instruction is its opcode
+ * followed by its operands, all stored in the same {@code int[]}. Constant
+ * operands are indexes into the constant pool, jump targets are absolute
+ * positions in the code.
+ * <p>
+ * Most instructions work on the operand stack. The {@code _RK} forms of the
+ * binary operators take both operands straight from the frame or the
+ * constant pool instead: an operand r of zero or more is slot r of the
+ * current frame, a negative one is constant ~r. They save the dispatch of
+ * the loads, which is most of the cost of simple arithmetic.
+ */
+final class Opcodes {
+
+    /** Pushes constant k. */
+    static final int CONST = 0;
+    /** Pushes the value bound to the symbol in constant k in the environment. */
+    static final int GLOBAL = 1;
+    /** Pushes slot s of the current frame. */
+    static final int LOCAL = 2;
+    /** Pushes slot s of the frame d levels up. */
+    static final int ENCLOSING = 3;
+    /**
+     * Pushes slot s of the frame d levels up and jumps to t, unless it is not
+     * defined yet, in which case the code that follows looks further out.
+     */
+    static final int DEFINED = 4;
+    /** Binds the top of the stack to the symbol in constant k and replaces it with the symbol. */
+    static final int DEFINE = 5;
+    /** Binds the top of the stack to slot s and replaces it with the symbol in constant k. */
+    static final int DEFINE_LOCAL = 6;
+    /** Pushes a closure over the current frame for the {@link Bytecode} in constant k. */
+    static final int LAMBDA = 7;
+    static final int JUMP = 8;
+    /** Pops a value and jumps to t when it is false. */
+    static final int JUMP_IF_FALSE = 9;
+    /** Checks that the top of the stack can be called. */
+    static final int FUNCTION = 10;
+    /** Pops n arguments and calls the function below them. */
+    static final int CALL = 11;
+    /** Like {@link #CALL}, but a closure run by the machine replaces the running one. */
+    static final int TAIL_CALL = 12;
+    static final int RETURN = 13;
+    /** Raises the error message in constant k. */
+    static final int FAIL = 14;
+    static final int ATOM = 15;
+    static final int EQ = 16;
+    static final int ADD = 17;
+    static final int SUBTRACT = 18;
+    static final int MULTIPLY = 19;
+    static final int DIVIDE = 20;
+    static final int MODULO = 21;
+    static final int GREATER_THAN = 22;
+    static final int LESS_THAN = 23;
+    static final int CONS = 24;
+    static final int HEAD = 25;
+    static final int TAIL = 26;
+    static final int EMPTY = 27;
+    /** Replaces the top n values with a list of them. */
+    static final int LIST = 28;
+    static final int PMAP = 29;
+    static final int PFILTER = 30;
+    static final int PREDUCE = 31;
+    static final int EQ_RK = 32;
+    static final int ADD_RK = 33;
+    static final int SUBTRACT_RK = 34;
+    static final int MULTIPLY_RK = 35;
+    static final int DIVIDE_RK = 36;
+    static final int MODULO_RK = 37;
+    static final int GREATER_THAN_RK = 38;
+    static final int LESS_THAN_RK = 39;
+    /** Jumps to t unless the {@code _RK} comparison of its operands holds. */
+    static final int JUMP_UNLESS_EQ_RK = 41;
+    static final int JUMP_UNLESS_GREATER_THAN_RK = 42;
+    static final int JUMP_UNLESS_LESS_THAN_RK = 43;
+    /** {@link #GLOBAL} followed by {@link #FUNCTION}. */
+    static final int GLOBAL_FUNCTION = 40;
+    /** Replaces the function, cache size and weak values flag on top with a memoized function. */
+    static final int MEMOIZE = 44;
+
+    private Opcodes() {
+    }
+
+    /**
+     * The number of operands following {@code opcode}.
+     */
+    static int operands(int opcode) {
+        switch (opcode) {
+        case CONST:
+        case GLOBAL:
+        case LOCAL:
+        case DEFINE:
+        case LAMBDA:
+        case JUMP:
+        case JUMP_IF_FALSE:
+        case CALL:
+        case TAIL_CALL:
+        case FAIL:
+        case LIST:
+        case GLOBAL_FUNCTION:
+            return 1;
+        case ENCLOSING:
+        case DEFINE_LOCAL:
+        case EQ_RK:
+        case ADD_RK:
+        case SUBTRACT_RK:
+        case MULTIPLY_RK:
+        case DIVIDE_RK:
+        case MODULO_RK:
+        case GREATER_THAN_RK:
+        case LESS_THAN_RK:
+            return 2;
+        case DEFINED:
+        case JUMP_UNLESS_EQ_RK:
+        case JUMP_UNLESS_GREATER_THAN_RK:
+        case JUMP_UNLESS_LESS_THAN_RK:
+            return 3;
+        default:
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.saga.diy.lisp.parser.SpecialForm;
+
+/**
+ * Compile time view of a {@link Frame}: the names bound by one lambda, in slot
+ * order. Parameters come first, then the names the body may {@code define}.
+ */
+final class Scope {
+
+    final Scope parent;
+    final int params;
+    private final List<Object> names = new ArrayList<>();
+
+    Scope(Scope parent, Object[] params, Object body) {
+        this.parent = parent;
+        this.params = params.length;
+        for (Object param : params) {
+            names.add(param);
+        }
+        collectDefines(body);
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    int slotOf(String name) {
+        return names.indexOf(name);
+    }
+
+    /**
+     * Finds the names defined directly in this scope. Quoted data and nested
+     * lambdas are skipped, the latter get scopes of their own.
+     */
+    private void collectDefines(Object ast) {
+        if (!(ast instanceof Object[])) {
+            return;
+        }
+        Object[] list = (Object[]) ast;
+        SpecialForm form = list.length > 0 ? SpecialForm.of(list[0]) : null;
+        if (form == SpecialForm.QUOTE || form == SpecialForm.LAMBDA) {
+            return;
+        }
+        if (list.length == 3 && form == SpecialForm.DEFINE && list[1] instanceof String && !names.contains(list[1])) {
+            names.add(list[1]);
+        }
+        for (Object element : list) {
+            collectDefines(element);
+        }
+    }
+
+}
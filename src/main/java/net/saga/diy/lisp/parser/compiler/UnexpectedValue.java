@@ -0,0 +1,36 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+/**
+ * Carries a value out of {@link Node#execLong} when it is not a fixnum. It is
+ * only used for control flow, so it does not capture a stack trace.
+ */
+final class UnexpectedValue extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    final Object value;
+
+    UnexpectedValue(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.profiler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Calls aggregated by the path of closures that led to them. Each thread
+ * records into its own tree; reports merge them.
+ */
+final class CallTree {
+
+    private final Profiler.Stats stats;
+    private final Map<Profiler.Stats, CallTree> children = new ConcurrentHashMap<>();
+    private volatile long calls;
+    private volatile long totalNanos;
+    private volatile long selfNanos;
+    private volatile long totalBytes;
+    private volatile long selfBytes;
+
+    CallTree(Profiler.Stats stats) {
+        this.stats = stats;
+    }
+
+    CallTree child(Profiler.Stats callee) {
+        CallTree child = children.get(callee);
+        if (child == null) {
+            child = new CallTree(callee);
+            children.put(callee, child);
+        }
+        return child;
+    }
+
+    /**
+     * Only called by the thread owning this tree.
+     */
+    void record(long total, long self, long totalAllocated, long selfAllocated) {
+        calls++;
+        totalNanos += total;
+        selfNanos += self;
+        totalBytes += totalAllocated;
+        selfBytes += selfAllocated;
+    }
+
+    void merge(CallTree other) {
+        calls += other.calls;
+        totalNanos += other.totalNanos;
+        selfNanos += other.selfNanos;
+        totalBytes += other.totalBytes;
+        selfBytes += other.selfBytes;
+        for (CallTree child : other.children.values()) {
+            child(child.stats).merge(child);
+        }
+    }
+
+    void clear() {
+        calls = 0;
+        totalNanos = 0;
+        selfNanos = 0;
+        totalBytes = 0;
+        selfBytes = 0;
+        children.clear();
+    }
+
+    void print(StringBuilder report, int depth) {
+        if (stats != null) {
+            Profiler.line(report, calls, totalNanos, selfNanos, totalBytes, selfBytes, stats.describe(), depth);
+        }
+        List<CallTree> sorted = new ArrayList<>(children.values());
+        sorted.sort(Comparator.comparingLong((CallTree tree) -> tree.totalNanos).reversed());
+        for (CallTree child : sorted) {
+            child.print(report, depth + 1);
+        }
+    }
+
+}
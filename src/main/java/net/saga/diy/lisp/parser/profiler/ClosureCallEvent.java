@@ -0,0 +1,151 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.profiler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Flight recorder event for one profiled closure call. The project targets
+ * Java 8, whose API has no {@code jdk.jfr}, so the event type is made at run
+ * time through {@code jdk.jfr.EventFactory}, the way
+ * {@link net.saga.diy.lisp.parser.ScriptExecutor} finds virtual threads. On a
+ * JVM without it no events are recorded.
+ */
+final class ClosureCallEvent {
+
+    static final String NAME = "net.saga.diy.lisp.ClosureCall";
+
+    private static final MethodHandle NEW_EVENT;
+    private static final MethodHandle IS_ENABLED;
+    private static final MethodHandle BEGIN;
+    private static final MethodHandle END;
+    private static final MethodHandle SHOULD_COMMIT;
+    private static final MethodHandle SET;
+    private static final MethodHandle COMMIT;
+
+    static {
+        MethodHandle[] handles = new MethodHandle[7];
+        try {
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            Class<?> factoryType = Class.forName("jdk.jfr.EventFactory");
+            Object factory = factoryType.getMethod("create", List.class, List.class).invoke(null,
+                    Arrays.asList(annotation("Name", NAME), annotation("Label", "Closure Call"),
+                            annotation("Category", new String[] { "DIY Lisp" }),
+                            annotation("Description", "A closure call made while the profiler was running")),
+                    Arrays.asList(field("closure", "Closure"), field("location", "Location")));
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            handles[0] = lookup.findVirtual(factoryType, "newEvent", MethodType.methodType(event)).bindTo(factory);
+            handles[1] = lookup.findVirtual(event, "isEnabled", MethodType.methodType(boolean.class));
+            handles[2] = lookup.findVirtual(event, "begin", MethodType.methodType(void.class));
+            handles[3] = lookup.findVirtual(event, "end", MethodType.methodType(void.class));
+            handles[4] = lookup.findVirtual(event, "shouldCommit", MethodType.methodType(boolean.class));
+            handles[5] = lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class));
+            handles[6] = lookup.findVirtual(event, "commit", MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException ex) {
+            Arrays.fill(handles, null);
+        }
+        NEW_EVENT = handles[0];
+        IS_ENABLED = handles[1];
+        BEGIN = handles[2];
+        END = handles[3];
+        SHOULD_COMMIT = handles[4];
+        SET = handles[5];
+        COMMIT = handles[6];
+    }
+
+    private ClosureCallEvent() {
+    }
+
+    static boolean isAvailable() {
+        return NEW_EVENT != null;
+    }
+
+    /**
+     * True if a recording takes these events. Making an event to find out
+     * allocates, so callers ask once and remember.
+     */
+    static boolean isRecording() {
+        if (NEW_EVENT == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_ENABLED.invoke(NEW_EVENT.invoke());
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Begins an event, or returns null when none is being recorded.
+     */
+    static Object start() {
+        if (NEW_EVENT == null) {
+            return null;
+        }
+        try {
+            Object event = NEW_EVENT.invoke();
+            if (!(boolean) IS_ENABLED.invoke(event)) {
+                return null;
+            }
+            BEGIN.invoke(event);
+            return event;
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static void finish(Object event, String closure, String location) {
+        try {
+            END.invoke(event);
+            if ((boolean) SHOULD_COMMIT.invoke(event)) {
+                SET.invoke(event, 0, closure);
+                SET.invoke(event, 1, location);
+                COMMIT.invoke(event);
+            }
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static Object annotation(String type, Object value) throws ReflectiveOperationException {
+        Constructor<?> constructor = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+        return constructor.newInstance(Class.forName("jdk.jfr." + type), value);
+    }
+
+    private static Object field(String name, String label) throws ReflectiveOperationException {
+        Constructor<?> constructor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class,
+                List.class);
+        List<Object> annotations = new ArrayList<>(Collections.singletonList(annotation("Label", label)));
+        return constructor.newInstance(String.class, name, annotations);
+    }
+
+}
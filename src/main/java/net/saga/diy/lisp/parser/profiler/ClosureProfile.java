@@ -0,0 +1,83 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.profiler;
+
+/**
+ * What the profiler measured for the closures created from one lambda. Total
+ * time and bytes include everything the calls did, self time and bytes exclude
+ * the closures they called. Recursive calls only add to the total once.
+ */
+public final class ClosureProfile {
+
+    private final String name;
+    private final String location;
+    private final long calls;
+    private final long totalNanos;
+    private final long selfNanos;
+    private final long totalBytes;
+    private final long selfBytes;
+
+    ClosureProfile(String name, String location, long calls, long totalNanos, long selfNanos, long totalBytes,
+            long selfBytes) {
+        this.name = name;
+        this.location = location;
+        this.calls = calls;
+        this.totalNanos = totalNanos;
+        this.selfNanos = selfNanos;
+        this.totalBytes = totalBytes;
+        this.selfBytes = selfBytes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Where the lambda is in the source, or null if it was not parsed from
+     * source.
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getSelfNanos() {
+        return selfNanos;
+    }
+
+    /**
+     * Bytes allocated by the calls, or 0 when the JVM cannot measure
+     * allocations per thread.
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getSelfBytes() {
+        return selfBytes;
+    }
+
+}
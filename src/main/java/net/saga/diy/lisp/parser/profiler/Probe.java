@@ -0,0 +1,88 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.profiler;
+
+import net.saga.diy.lisp.parser.types.Closure;
+
+/**
+ * Watches closure calls while installed. The engines call {@link #enter} before
+ * running a closure body and {@link #exit} when it returns or makes a tail
+ * call, on the thread running the closure. At most one probe is installed at a
+ * time.
+ */
+public abstract class Probe {
+
+    private static volatile Probe active;
+
+    /**
+     * The installed probe, otherwise null. The engines read this on every
+     * closure call.
+     */
+    public static Probe active() {
+        return active;
+    }
+
+    public abstract void enter(Closure closure);
+
+    public abstract void exit();
+
+    protected final void install() {
+        synchronized (Probe.class) {
+            if (active != null && active != this) {
+                throw new IllegalStateException("Another profiler is already running: " + active);
+            }
+            active = this;
+        }
+    }
+
+    protected final void uninstall() {
+        synchronized (Probe.class) {
+            if (active == this) {
+                active = null;
+            }
+        }
+    }
+
+    protected final boolean isInstalled() {
+        return active == this;
+    }
+
+    /**
+     * The name a closure was defined as, or its parameter list for an
+     * anonymous closure.
+     */
+    static String label(String name, Object[] params) {
+        if (name != null) {
+            return name;
+        }
+        StringBuilder label = new StringBuilder("(lambda (");
+        for (int i = 0; i < params.length; i++) {
+            label.append(i == 0 ? "" : " ").append(params[i]);
+        }
+        return label.append(") ...)").toString();
+    }
+
+    /**
+     * A label followed by the source location, if known.
+     */
+    static String describe(String label, String location) {
+        return location == null ? label : label + " (" + location + ")";
+    }
+
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.profiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.saga.diy.lisp.parser.SourceMap;
+import net.saga.diy.lisp.parser.types.Closure;
+
+/**
+ * Counts closure calls and measures the time and memory they take, per lambda.
+ * Closures are reported under the name they were first defined as.
+ *
+ * The profiler is off until {@link #start()}. While it is off, the engines do
+ * nothing on a call but read {@link Probe#active()}. Reports taken while it
+ * runs are approximate.
+ * <p>
+ * Calls are also flight recorder events, if a recording was running when the
+ * thread making them was first seen after a {@link #reset()}. The call trees
+ * of threads that have ended are merged, so a thread per script does not
+ * make them grow.
+ */
+public final class Profiler extends Probe implements ProfilerMXBean {
+
+    public static final String OBJECT_NAME = "net.saga.diy.lisp:type=Profiler";
+
+    private static final Profiler INSTANCE = new Profiler();
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationCounter();
+    private static final boolean FLIGHT_RECORDER = ClosureCallEvent.isAvailable();
+    /** How many threads are seen between looking for those that ended. */
+    private static final int PRUNE_INTERVAL = 256;
+
+    private final Map<Object, Stats> stats = new ConcurrentHashMap<>();
+    private final Queue<ThreadTree> trees = new ConcurrentLinkedQueue<>();
+    private final CallTree ended = new CallTree(null);
+    private final AtomicInteger untilPrune = new AtomicInteger(PRUNE_INTERVAL);
+    private final ThreadLocal<Calls> calls = new ThreadLocal<>();
+    private volatile int generation;
+
+    private Profiler() {
+    }
+
+    public static Profiler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the profiler with the platform MBean server so it can be
+     * started, stopped and read from a JMX console.
+     */
+    public static void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (InstanceAlreadyExistsException ex) {
+            // Registered by another thread in the meantime.
+        } catch (JMException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return isInstalled();
+    }
+
+    @Override
+    public void start() {
+        install();
+    }
+
+    @Override
+    public void stop() {
+        uninstall();
+    }
+
+    @Override
+    public synchronized void reset() {
+        stats.clear();
+        trees.clear();
+        ended.clear();
+        generation++;
+    }
+
+    @Override
+    public void enter(Closure closure) {
+        Calls thread = calls.get();
+        if (thread == null || (thread.top == null && thread.generation != generation)) {
+            thread = new Calls(generation, FLIGHT_RECORDER && ClosureCallEvent.isRecording());
+            calls.set(thread);
+            trees.add(new ThreadTree(Thread.currentThread(), thread.root));
+            if (untilPrune.decrementAndGet() == 0) {
+                prune();
+                untilPrune.set(PRUNE_INTERVAL);
+            }
+        }
+        Stats closureStats = stats.computeIfAbsent(closure.getParams(), key -> new Stats(closure));
+        if (closureStats.name == null) {
+            closureStats.name = closure.getName();
+        }
+        thread.push(closureStats);
+    }
+
+    @Override
+    public void exit() {
+        Calls thread = calls.get();
+        if (thread != null && thread.top != null) {
+            thread.pop();
+        }
+    }
+
+    /**
+     * Merges the trees of threads that have ended into one, so they are not
+     * kept each on their own. A thread that has ended writes no more.
+     */
+    private synchronized void prune() {
+        for (Iterator<ThreadTree> it = trees.iterator(); it.hasNext();) {
+            ThreadTree tree = it.next();
+            if (!tree.thread.isAlive()) {
+                ended.merge(tree.root);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * The number of call trees kept one per thread.
+     */
+    int threadTrees() {
+        return trees.size();
+    }
+
+    @Override
+    public List<ClosureProfile> getClosures() {
+        List<ClosureProfile> profiles = new ArrayList<>();
+        for (Stats closureStats : stats.values()) {
+            profiles.add(closureStats.profile());
+        }
+        Collections.sort(profiles, Comparator.comparingLong(ClosureProfile::getSelfNanos).reversed());
+        return profiles;
+    }
+
+    /**
+     * One line per lambda, the most expensive first.
+     */
+    @Override
+    public String getFlatReport() {
+        StringBuilder report = new StringBuilder(header());
+        for (ClosureProfile profile : getClosures()) {
+            line(report, profile.getCalls(), profile.getTotalNanos(), profile.getSelfNanos(),
+                    profile.getTotalBytes(), profile.getSelfBytes(), describe(profile.getName(), profile.getLocation()), 0);
+        }
+        return report.toString();
+    }
+
+    /**
+     * The calls of all threads merged into one tree, callees indented below
+     * their callers.
+     */
+    @Override
+    public String getTreeReport() {
+        CallTree merged = new CallTree(null);
+        synchronized (this) {
+            merged.merge(ended);
+        }
+        for (ThreadTree tree : trees) {
+            merged.merge(tree.root);
+        }
+        StringBuilder report = new StringBuilder(header());
+        merged.print(report, -1);
+        return report.toString();
+    }
+
+    private static String header() {
+        return String.format("%10s %12s %12s %12s %12s  %s%n",
+                "calls", "total ms", "self ms", "total KB", "self KB", "closure");
+    }
+
+    static void line(StringBuilder report, long calls, long totalNanos, long selfNanos,
+            long totalBytes, long selfBytes, String name, int depth) {
+        report.append(String.format("%10d %12.3f %12.3f %12d %12d  ",
+                calls, totalNanos / 1e6, selfNanos / 1e6, totalBytes / 1024, selfBytes / 1024));
+        for (int i = 0; i < depth; i++) {
+            report.append("  ");
+        }
+        report.append(name).append(System.lineSeparator());
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATIONS == null ? 0 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+                if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) {
+                    return counter;
+                }
+            }
+        } catch (LinkageError ex) {
+            // Not a HotSpot compatible JVM.
+        }
+        return null;
+    }
+
+    static final class Stats {
+
+        final Object[] params;
+        final String location;
+        volatile String name;
+        final LongAdder calls = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAdder selfNanos = new LongAdder();
+        final LongAdder totalBytes = new LongAdder();
+        final LongAdder selfBytes = new LongAdder();
+
+        Stats(Closure closure) {
+            this.params = closure.getParams();
+            this.name = closure.getName();
+            this.location = SourceMap.lambdaLocation(params);
+        }
+
+        String label() {
+            return Probe.label(name, params);
+        }
+
+        String describe() {
+            return Probe.describe(label(), location);
+        }
+
+        ClosureProfile profile() {
+            return new ClosureProfile(label(), location, calls.sum(), totalNanos.sum(), selfNanos.sum(),
+                    totalBytes.sum(), selfBytes.sum());
+        }
+
+    }
+
+    private static final class ThreadTree {
+
+        final Thread thread;
+        final CallTree root;
+
+        ThreadTree(Thread thread, CallTree root) {
+            this.thread = thread;
+            this.root = root;
+        }
+
+    }
+
+    /**
+     * The closures a thread is running, innermost on top.
+     */
+    private static final class Calls {
+
+        final int generation;
+        final boolean recording;
+        final CallTree root = new CallTree(null);
+        final Map<Stats, int[]> depths = new IdentityHashMap<>();
+        Call top;
+
+        Calls(int generation, boolean recording) {
+            this.generation = generation;
+            this.recording = recording;
+        }
+
+        void push(Stats stats) {
+            int[] depth = depths.get(stats);
+            if (depth == null) {
+                depth = new int[1];
+                depths.put(stats, depth);
+            }
+            CallTree node = (top == null ? root : top.node).child(stats);
+            top = new Call(top, stats, node, depth[0]++ == 0, recording);
+        }
+
+        void pop() {
+            Call call = top;
+            top = call.parent;
+            long totalNanos = System.nanoTime() - call.startNanos;
+            long totalBytes = allocatedBytes() - call.startBytes;
+            long selfNanos = totalNanos - call.childNanos;
+            long selfBytes = totalBytes - call.childBytes;
+
+            Stats stats = call.stats;
+            stats.calls.increment();
+            stats.selfNanos.add(selfNanos);
+            stats.selfBytes.add(selfBytes);
+            if (call.outermost) {
+                stats.totalNanos.add(totalNanos);
+                stats.totalBytes.add(totalBytes);
+            }
+            depths.get(stats)[0]--;
+            call.node.record(totalNanos, selfNanos, totalBytes, selfBytes);
+            if (top != null) {
+                top.childNanos += totalNanos;
+                top.childBytes += totalBytes;
+            }
+            if (call.event != null) {
+                ClosureCallEvent.finish(call.event, stats.label(), stats.location);
+            }
+        }
+
+    }
+
+    private static final class Call {
+
+        final Call parent;
+        final Stats stats;
+        final CallTree node;
+        final boolean outermost;
+        final Object event;
+        final long startBytes;
+        final long startNanos;
+        long childNanos;
+        long childBytes;
+
+        Call(Call parent, Stats stats, CallTree node, boolean outermost, boolean recording) {
+            this.parent = parent;
+            this.stats = stats;
+            this.node = node;
+            this.outermost = outermost;
+            this.event = recording ? ClosureCallEvent.start() : null;
+            this.startBytes = allocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+    }
+
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.profiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Function;
+import net.saga.diy.lisp.parser.SourceMap;
+import net.saga.diy.lisp.parser.types.Closure;
+
+/**
+ * Samples the Lisp call stack of every thread at a fixed interval and counts
+ * how often each stack was seen, for flame graphs. A call only pushes onto and
+ * pops off a per-thread shadow stack, so it is cheap enough to leave running.
+ *
+ * Samples are wall clock time: a thread blocked inside a closure is sampled as
+ * well.
+ */
+public final class SamplingProfiler extends Probe {
+
+    private static final AtomicIntegerFieldUpdater<ShadowStack> DEPTH
+            = AtomicIntegerFieldUpdater.newUpdater(ShadowStack.class, "depth");
+
+    private final long intervalNanos;
+    private final ThreadLocal<ShadowStack> stacks = new ThreadLocal<>();
+    private final Queue<ShadowStack> threads = new ConcurrentLinkedQueue<>();
+    private final Map<String, long[]> samples = new TreeMap<>();
+    private final Map<Object[], String> labels = new IdentityHashMap<>();
+    private ScheduledExecutorService sampler;
+
+    public SamplingProfiler(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        }
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    public synchronized boolean isRunning() {
+        return isInstalled();
+    }
+
+    /**
+     * Installs the shadow stacks and starts sampling on a daemon thread.
+     *
+     * @throws IllegalStateException if another profiler is running
+     */
+    public synchronized void start() {
+        install();
+        if (sampler == null) {
+            sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "diy-lisp-sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sampler.scheduleAtFixedRate(this::sample, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        uninstall();
+        if (sampler != null) {
+            sampler.shutdownNow();
+            sampler = null;
+        }
+    }
+
+    public synchronized void reset() {
+        samples.clear();
+        labels.clear();
+    }
+
+    @Override
+    public void enter(Closure closure) {
+        ShadowStack stack = stacks.get();
+        if (stack == null) {
+            stack = new ShadowStack(Thread.currentThread());
+            stacks.set(stack);
+            threads.add(stack);
+        }
+        stack.push(closure);
+    }
+
+    @Override
+    public void exit() {
+        ShadowStack stack = stacks.get();
+        if (stack != null) {
+            stack.pop();
+        }
+    }
+
+    /**
+     * Takes one sample of every thread running a closure.
+     */
+    synchronized void sample() {
+        for (Iterator<ShadowStack> it = threads.iterator(); it.hasNext();) {
+            ShadowStack stack = it.next();
+            if (!stack.thread.isAlive()) {
+                it.remove();
+                continue;
+            }
+            String collapsed = stack.collapse(this::label);
+            if (collapsed != null) {
+                samples.computeIfAbsent(collapsed, key -> new long[1])[0]++;
+            }
+        }
+    }
+
+    private String label(Closure closure) {
+        String label = labels.get(closure.getParams());
+        if (label == null) {
+            label = describe(label(closure.getName(), closure.getParams()), SourceMap.lambdaLocation(closure.getParams()));
+            labels.put(closure.getParams(), label);
+        }
+        return label;
+    }
+
+    /**
+     * The samples in collapsed stack format: one line per distinct stack, the
+     * outermost closure first, frames separated by semicolons and followed by
+     * the number of samples. This is the input of flamegraph.pl and most other
+     * flame graph tools.
+     */
+    public synchronized String getCollapsedStacks() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, long[]> stack : samples.entrySet()) {
+            out.append(stack.getKey()).append(' ').append(stack.getValue()[0]).append('\n');
+        }
+        return out.toString();
+    }
+
+    public void writeCollapsedStacks(Writer out) {
+        try {
+            out.write(getCollapsedStacks());
+            out.flush();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * The closures one thread is running. Only the owning thread writes; the
+     * depth is published with an ordered store so the sampler sees every frame
+     * below it.
+     */
+    static final class ShadowStack {
+
+        final Thread thread;
+        volatile Closure[] frames = new Closure[32];
+        volatile int depth;
+
+        ShadowStack(Thread thread) {
+            this.thread = thread;
+        }
+
+        void push(Closure closure) {
+            int top = depth;
+            Closure[] current = frames;
+            if (top == current.length) {
+                current = Arrays.copyOf(current, top * 2);
+                frames = current;
+            }
+            current[top] = closure;
+            DEPTH.lazySet(this, top + 1);
+        }
+
+        void pop() {
+            int top = depth - 1;
+            if (top >= 0) {
+                DEPTH.lazySet(this, top);
+                frames[top] = null;
+            }
+        }
+
+        String collapse(Function<Closure, String> labels) {
+            int top = depth;
+            Closure[] current = frames;
+            StringBuilder collapsed = new StringBuilder();
+            for (int i = 0; i < Math.min(top, current.length); i++) {
+                Closure closure = current[i];
+                if (closure != null) {
+                    if (collapsed.length() > 0) {
+                        collapsed.append(';');
+                    }
+                    collapsed.append(labels.apply(closure));
+                }
+            }
+            return collapsed.length() == 0 ? null : collapsed.toString();
+        }
+
+    }
+
+}
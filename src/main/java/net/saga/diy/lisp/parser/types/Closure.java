@@ -20,20 +20,39 @@ package net.saga.diy.lisp.parser.types;
 
 public class Closure {
 
+    private final Environment env;
+    private final Object[] params;
+    private final Object body;
+    private String name;
+
     public Closure(Environment env, Object[] params, Object body) {
-        throw new IllegalStateException("not implemented");
+        this.env = env;
+        this.params = params;
+        this.body = body;
     }
 
     public Environment getEnv() {
-        throw new IllegalStateException("not implemented");
+        return env;
     }
 
     public Object[] getParams() {
-        throw new IllegalStateException("not implemented");
+        return params;
     }
 
     public Object getBody() {
-        throw new IllegalStateException("not implemented");
+        return body;
+    }
+
+    /**
+     * The variable this closure was first defined as, or null for a closure
+     * that was never bound by {@code define}.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
     }
 
 }
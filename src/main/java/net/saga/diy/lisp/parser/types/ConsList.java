@@ -0,0 +1,210 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.types;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable list with constant time {@code cons}, {@code head} and
+ * {@code tail}. Lists share structure: consing onto a list keeps the original
+ * as the tail, and a list built from an array walks that array in place, so
+ * taking the tail of it never copies.
+ */
+public abstract class ConsList implements Iterable<Object> {
+
+    public static final ConsList EMPTY = new Slice(new Object[0], 0);
+
+    private ConsList() {
+    }
+
+    /**
+     * A list over {@code elements}. The array is shared, not copied, and must
+     * not be changed afterwards.
+     */
+    public static ConsList of(Object... elements) {
+        return elements.length == 0 ? EMPTY : new Slice(elements, 0);
+    }
+
+    public abstract boolean isEmpty();
+
+    public abstract int size();
+
+    public abstract Object head();
+
+    public abstract ConsList tail();
+
+    public ConsList cons(Object head) {
+        return new Cell(head, this);
+    }
+
+    public Object[] toArray() {
+        Object[] array = new Object[size()];
+        int i = 0;
+        for (Object element : this) {
+            array[i++] = element;
+        }
+        return array;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+
+            private ConsList rest = ConsList.this;
+
+            @Override
+            public boolean hasNext() {
+                return !rest.isEmpty();
+            }
+
+            @Override
+            public Object next() {
+                if (rest.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Object head = rest.head();
+                rest = rest.tail();
+                return head;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ConsList) || ((ConsList) other).size() != size()) {
+            return false;
+        }
+        Iterator<Object> theirs = ((ConsList) other).iterator();
+        for (Object element : this) {
+            Object their = theirs.next();
+            if (element instanceof Object[] && their instanceof Object[]) {
+                if (!Arrays.deepEquals((Object[]) element, (Object[]) their)) {
+                    return false;
+                }
+            } else if (!element.equals(their)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (Object element : this) {
+            hash = 31 * hash + (element instanceof Object[] ? Arrays.deepHashCode((Object[]) element) : element.hashCode());
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("(");
+        for (Object element : this) {
+            if (builder.length() > 1) {
+                builder.append(' ');
+            }
+            builder.append(element instanceof Object[] ? Arrays.deepToString((Object[]) element) : element);
+        }
+        return builder.append(')').toString();
+    }
+
+    private static final class Cell extends ConsList {
+
+        private final Object head;
+        private final ConsList tail;
+        private final int size;
+
+        Cell(Object head, ConsList tail) {
+            this.head = head;
+            this.tail = tail;
+            this.size = tail.size() + 1;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Object head() {
+            return head;
+        }
+
+        @Override
+        public ConsList tail() {
+            return tail;
+        }
+
+    }
+
+    private static final class Slice extends ConsList {
+
+        private final Object[] elements;
+        private final int offset;
+
+        Slice(Object[] elements, int offset) {
+            this.elements = elements;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return offset == elements.length;
+        }
+
+        @Override
+        public int size() {
+            return elements.length - offset;
+        }
+
+        @Override
+        public Object head() {
+            if (isEmpty()) {
+                throw new LispException("Cannot take the head of an empty list");
+            }
+            return elements[offset];
+        }
+
+        @Override
+        public ConsList tail() {
+            if (isEmpty()) {
+                throw new LispException("Cannot take the tail of an empty list");
+            }
+            return offset + 1 == elements.length ? EMPTY : new Slice(elements, offset + 1);
+        }
+
+        @Override
+        public Object[] toArray() {
+            return Arrays.copyOfRange(elements, offset, elements.length);
+        }
+
+    }
+
+}
@@ -19,33 +19,253 @@
 package net.saga.diy.lisp.parser.types;
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
+ * Variables are kept in a chain of environments. Environments created by
+ * {@code extend} hold their bindings in plain arrays, which are cheaper to
+ * build and scan than a map for the handful of names a function call binds.
+ * Names added with {@code set} go into a {@link PersistentMap} that is only
+ * created on demand.
+ * <p>
+ * Because that map is never changed in place, {@link #fork()} and
+ * {@link #snapshot()} are constant time: the copy starts out sharing every
+ * binding with the original, and later definitions in either one are not
+ * seen by the other.
+ * <p>
+ * A {@link #concurrent()} environment, and everything extended or forked from
+ * it, can be shared between threads. Defining a name swaps in the new map
+ * with a compare-and-set, so only one of several threads defining the same
+ * name succeeds, and a definition is visible to every thread once
+ * {@code set} has returned. Extended bindings never change after
+ * construction.
+ * <p>
+ * A name can never be bound twice in the same environment, so the value a
+ * name resolves to only changes when a nearer environment defines it too.
+ * Such shadowing definitions are counted per name, see {@link #version(String)}.
  * 
  * @author summers
  */
 public class Environment {
 
-    private final HashMap<String, Object> variables;
+    private static final Object[] NONE = new Object[0];
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Environment, PersistentMap> VARIABLES
+            = AtomicReferenceFieldUpdater.newUpdater(Environment.class, PersistentMap.class, "variables");
+
+    private static final ConcurrentMap<String, Version> VERSIONS = new ConcurrentHashMap<>();
+
+    private volatile PersistentMap<String, Object> variables;
+    private final Object[] names;
+    private final Object[] values;
+    private final Environment parent;
+    private final boolean concurrent;
+    private final boolean readOnly;
 
     public Environment() {
-        throw new IllegalStateException("not implemented");
+        this(PersistentMap.<String, Object>empty(), NONE, NONE, null, false, false);
     }
 
+    @SuppressWarnings("unchecked")
     public Environment(HashMap variables) {
-        throw new IllegalStateException("not implemented");
+        this(copyOf(variables), NONE, NONE, null, false, false);
+    }
+
+    private Environment(PersistentMap<String, Object> variables, Object[] names, Object[] values,
+            Environment parent, boolean concurrent, boolean readOnly) {
+        this.variables = variables;
+        this.names = names;
+        this.values = values;
+        this.parent = parent;
+        this.concurrent = concurrent;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * An empty environment that can be shared between threads.
+     */
+    public static Environment concurrent() {
+        return new Environment(PersistentMap.<String, Object>empty(), NONE, NONE, null, true, false);
+    }
+
+    /**
+     * A shareable environment holding a copy of {@code variables}.
+     */
+    public static Environment concurrent(Map<String, Object> variables) {
+        return new Environment(copyOf(variables), NONE, NONE, null, true, false);
+    }
+
+    private static PersistentMap<String, Object> copyOf(Map<String, Object> variables) {
+        PersistentMap<String, Object> map = PersistentMap.empty();
+        for (Map.Entry<String, Object> entry : variables.entrySet()) {
+            map = map.plus(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public Environment getParent() {
+        return parent;
+    }
+
+    /**
+     * The names bound when this environment was extended. The array is shared
+     * and must not be changed.
+     */
+    public Object[] getNames() {
+        return names;
+    }
+
+    /**
+     * The values bound when this environment was extended, in the order of
+     * {@link #getNames()}. The array is shared.
+     */
+    public Object[] getValues() {
+        return values;
+    }
+
+    /**
+     * The names added with {@code set} so far.
+     */
+    public PersistentMap<String, Object> getDefinitions() {
+        PersistentMap<String, Object> map = variables;
+        return map == null ? PersistentMap.<String, Object>empty() : map;
+    }
+
+    /**
+     * A new environment that sees every binding this one has now. Names
+     * defined in the fork stay in the fork, and names defined here afterwards
+     * are not seen by it. Closures that were defined here before the fork
+     * still look up free names in this environment.
+     */
+    public Environment fork() {
+        return new Environment(variables, names, values, parent, concurrent, false);
+    }
+
+    /**
+     * A read-only copy of this environment as it is now. Snapshots cannot be
+     * defined into, but they can be forked as often as needed, which makes
+     * them a good base to hand out one fork per request from.
+     */
+    public Environment snapshot() {
+        return new Environment(variables, names, values, parent, concurrent, true);
+    }
+
+    /**
+     * The version of {@code name}, which changes whenever a definition, in any
+     * environment, shadows a binding of it in an enclosing one. A value looked
+     * up under the name stays valid for as long as its version does not
+     * change, provided it is looked up from the same environment.
+     */
+    public static Version version(String name) {
+        return VERSIONS.computeIfAbsent(name, key -> new Version());
     }
 
     public Object lookup(String varName) {
-        throw new IllegalStateException("not implemented");
+        Object value = find(varName);
+        if (value == null) {
+            throw new LispException("Variable " + varName + " is not defined");
+        }
+        return value;
+    }
+
+    private Object find(String varName) {
+        for (Environment env = this; env != null; env = env.parent) {
+            Object[] names = env.names;
+            for (int i = 0; i < names.length; i++) {
+                if (varName.equals(names[i])) {
+                    return env.values[i];
+                }
+            }
+            PersistentMap<String, Object> variables = env.variables;
+            if (variables != null) {
+                Object value = variables.get(varName);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        return null;
     }
 
     public Environment extend(String name, Object value) {
-        throw new IllegalStateException("not implemented");
+        return new Environment(null, new Object[] { name }, new Object[] { value }, this, concurrent, false);
+    }
+
+    public Environment extend(Map<String, Object> bindings) {
+        return new Environment(null, bindings.keySet().toArray(), bindings.values().toArray(), this, concurrent,
+                false);
+    }
+
+    /**
+     * Binds {@code names[i]} to {@code values[i]} in a new environment. The
+     * arrays are used as they are and must not be changed afterwards.
+     */
+    public Environment extend(Object[] names, Object[] values) {
+        return new Environment(null, names, values, this, concurrent, false);
     }
 
     public void set(String name, Object value) {
-        throw new IllegalStateException("not implemented");
+        if (readOnly) {
+            throw new LispException("Cannot define " + name + " in a read-only environment");
+        }
+        for (Object bound : names) {
+            if (name.equals(bound)) {
+                throw new LispException("Variable " + name + " is already defined");
+            }
+        }
+        for (;;) {
+            PersistentMap<String, Object> current = variables;
+            PersistentMap<String, Object> map = current == null ? PersistentMap.<String, Object>empty() : current;
+            if (map.containsKey(name)) {
+                throw new LispException("Variable " + name + " is already defined");
+            }
+            if (!concurrent) {
+                variables = map.plus(name, value);
+                break;
+            }
+            if (VARIABLES.compareAndSet(this, current, map.plus(name, value))) {
+                break;
+            }
+        }
+        if (parent != null && parent.find(name) != null) {
+            Version version = VERSIONS.get(name);
+            if (version != null) {
+                version.increment();
+            }
+        }
+    }
+
+    /**
+     * A counter of the shadowing definitions of one name. Only names that
+     * someone asked the version of are counted.
+     */
+    public static final class Version {
+
+        private volatile int value;
+
+        private Version() {
+        }
+
+        public int get() {
+            return value;
+        }
+
+        private synchronized void increment() {
+            value++;
+        }
+
     }
 
 }
@@ -0,0 +1,33 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.types;
+
+/**
+ * Thrown at the next function call once the thread running an evaluation
+ * has been interrupted. The interrupt status of the thread is left set.
+ */
+public class EvaluationInterruptedException extends LispException {
+
+    private static final long serialVersionUID = 1L;
+
+    public EvaluationInterruptedException() {
+        super("Evaluation interrupted");
+    }
+
+}
@@ -20,8 +20,39 @@ package net.saga.diy.lisp.parser.types;
 
 public class LispException extends RuntimeException {
 
+    private Object form;
+    private String location;
+
     public LispException(String message) {
         super(message);
     }
 
+    /**
+     * The innermost list that was being evaluated when this was thrown, or
+     * null if it was not thrown by an engine.
+     */
+    public Object getForm() {
+        return form;
+    }
+
+    public void setForm(Object form) {
+        this.form = form;
+    }
+
+    /**
+     * Where in the source the error happened, or null if unknown.
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    @Override
+    public String getMessage() {
+        return location == null ? super.getMessage() : super.getMessage() + " at " + location;
+    }
+
 }
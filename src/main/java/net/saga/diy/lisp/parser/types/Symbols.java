@@ -0,0 +1,50 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.types;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The global symbol table. Symbols are represented as strings, and every
+ * symbol the parser produces is the canonical instance returned by
+ * {@link #intern}, so symbols can be compared by reference. Canonical
+ * instances are the JVM's interned strings, which means string literals in
+ * Java code are already valid symbols. ASTs built by hand from computed
+ * strings must intern their symbols.
+ */
+public final class Symbols {
+
+    private static final ConcurrentHashMap<String, String> TABLE = new ConcurrentHashMap<>();
+
+    private Symbols() {
+    }
+
+    public static String intern(String name) {
+        String symbol = TABLE.get(name);
+        if (symbol == null) {
+            String canonical = name.intern();
+            symbol = TABLE.putIfAbsent(canonical, canonical);
+            if (symbol == null) {
+                symbol = canonical;
+            }
+        }
+        return symbol;
+    }
+
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import net.saga.diy.lisp.parser.compiler.BytecodeClosure;
+import net.saga.diy.lisp.parser.compiler.CompiledClosure;
+import net.saga.diy.lisp.parser.types.ConsList;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*An evaluated environment can be saved to an image and loaded back without
+ parsing or evaluating the source again. The build saves the standard library
+ as std/std.img.*/
+public class EnvironmentImageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStdLibImageIsBuilt() throws IOException {
+        Environment env;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("std/std.img")) {
+            env = EnvironmentImage.read(in);
+        }
+
+        for (Engine engine : Engine.values()) {
+            assertEquals(true, interpret("(not #f)", env, engine));
+            assertEquals(true, interpret("(or #f #t)", env, engine));
+            assertEquals("foo", interpret("(echo ('foo))", env, engine));
+        }
+    }
+
+    @Test
+    public void testMappedFileRoundTrip() throws IOException {
+        Environment env = new Environment();
+        interpret("(define add (lambda (x y) (+ x y)))", env);
+        interpret("(define big 12345678901234567890)", env);
+
+        File image = folder.newFile("env.img");
+        EnvironmentImage.write(env, image);
+        Environment loaded = EnvironmentImage.read(image);
+
+        assertEquals(5, interpret("(add 2 3)", loaded));
+        assertEquals(new BigInteger("12345678901234567890"), loaded.lookup("big"));
+    }
+
+    /* add5 closes over the frame of the outer lambda, and countdown refers to
+     itself through the environment it is defined in. */
+    @Test
+    public void testCapturedEnvironments() {
+        Environment env = new Environment();
+        interpret("(define add5 ((lambda (x) (lambda (y) (+ x y))) 5))", env);
+        interpret("(define countdown (lambda (n) (if (eq n 0) 'done (countdown (- n 1)))))", env);
+
+        Environment loaded = roundTrip(env);
+
+        assertEquals(7, interpret("(add5 2)", loaded));
+        assertEquals("done", interpret("(countdown 10)", loaded));
+    }
+
+    @Test
+    public void testValues() {
+        Environment env = new Environment();
+        interpret("(define yes #t)", env);
+        interpret("(define no #f)", env);
+        interpret("(define nested '(1 (a b) ()))", env);
+        interpret("(define numbers (list 1 2 3))", env);
+
+        Environment loaded = roundTrip(env);
+
+        assertEquals(true, loaded.lookup("yes"));
+        assertEquals(false, loaded.lookup("no"));
+        assertArrayEquals(new Object[] { 1, new Object[] { "a", "b" }, new Object[0] },
+                (Object[]) loaded.lookup("nested"));
+        assertEquals(ConsList.of(1, 2, 3), loaded.lookup("numbers"));
+        assertSame("a", ((Object[]) ((Object[]) loaded.lookup("nested"))[1])[0]);
+    }
+
+    @Test
+    public void testCompiledClosures() {
+        Environment env = new Environment();
+        interpret("(define double (lambda (x) (* x 2)))", env, Engine.COMPILER);
+
+        Environment loaded = roundTrip(env);
+
+        assertTrue(loaded.lookup("double") instanceof CompiledClosure);
+        assertEquals("double", ((CompiledClosure) loaded.lookup("double")).getName());
+        assertEquals(8, interpret("(double 4)", loaded, Engine.COMPILER));
+    }
+
+    @Test
+    public void testBytecodeClosures() {
+        Environment env = new Environment();
+        interpret("(define double (lambda (x) (* x 2)))", env, Engine.BYTECODE);
+
+        Environment loaded = roundTrip(env);
+
+        assertTrue(loaded.lookup("double") instanceof BytecodeClosure);
+        assertEquals(8, interpret("(double 4)", loaded, Engine.BYTECODE));
+    }
+
+    @Test
+    public void testMemoizedClosures() {
+        Environment env = new Environment();
+        interpret("(define fib (memoize (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))))", env);
+
+        Environment loaded = roundTrip(env);
+
+        MemoizedClosure fib = (MemoizedClosure) loaded.lookup("fib");
+        assertEquals("fib", fib.getName());
+        assertEquals(MemoizedClosure.DEFAULT_MAXIMUM_SIZE, fib.getMaximumSize());
+        assertEquals(new BigInteger("23416728348467685"), interpret("(fib 80)", loaded));
+    }
+
+    @Test(expected = LispException.class)
+    public void testCompiledClosuresOverLocalsCannotBeSaved() {
+        Environment env = new Environment();
+        interpret("(define add5 ((lambda (x) (lambda (y) (+ x y))) 5))", env, Engine.COMPILER);
+        roundTrip(env);
+    }
+
+    @Test
+    public void testFlagsAreKept() {
+        Environment env = Environment.concurrent();
+        interpret("(define x 1)", env);
+
+        Environment loaded = roundTrip(env.snapshot());
+
+        assertTrue(loaded.isReadOnly());
+        assertTrue(loaded.isConcurrent());
+        assertEquals(1, loaded.lookup("x"));
+    }
+
+    @Test(expected = LispException.class)
+    public void testCorruptImage() throws IOException {
+        EnvironmentImage.read(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+    }
+
+    /* A length that cannot be right fails like any other corruption, before anything that size is allocated. */
+    @Test
+    public void testTamperedLength() throws IOException {
+        Environment env = new Environment();
+        Object[] list = new Object[1000];
+        Arrays.fill(list, 1);
+        env.set("xs", list);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EnvironmentImage.write(env, out);
+        byte[] image = out.toByteArray();
+        int length = indexOf(image, new byte[] { 7, 0, 0, 3, (byte) 0xe8 }) + 1;
+        assertTrue(length > 0);
+
+        for (int tampered : new int[] { -1, Integer.MAX_VALUE, 1001 }) {
+            ByteBuffer.wrap(image).putInt(length, tampered);
+            try {
+                EnvironmentImage.read(new ByteArrayInputStream(image));
+                fail("Read a list of length " + tampered);
+            } catch (LispException expected) {
+            }
+        }
+    }
+
+    /* An object that refers to itself before it is read whole can only come from a corrupt image. */
+    @Test
+    public void testCyclicReference() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EnvironmentImage.write(new Environment(), out);
+        byte[] image = out.toByteArray();
+        /* The environment's parent, after the header, its tag and its concurrent flag, becomes a reference to itself. */
+        ByteArrayOutputStream cyclic = new ByteArrayOutputStream();
+        cyclic.write(image, 0, 11);
+        cyclic.write(new byte[] { 1, 0, 0, 0, 0 });
+        cyclic.write(image, 12, image.length - 12);
+
+        try {
+            EnvironmentImage.read(new ByteArrayInputStream(cyclic.toByteArray()));
+            fail("Read an environment that is its own parent");
+        } catch (LispException expected) {
+            assertEquals("Corrupt environment image", expected.getMessage());
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + part.length), part)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Environment roundTrip(Environment env) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            EnvironmentImage.write(env, out);
+            return EnvironmentImage.read(new ByteArrayInputStream(out.toByteArray()));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
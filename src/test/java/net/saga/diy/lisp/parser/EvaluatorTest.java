@@ -18,6 +18,7 @@
  */
 package net.saga.diy.lisp.parser;
 
+import java.math.BigInteger;
 import static net.saga.diy.lisp.parser.Parser.parse;
 import net.saga.diy.lisp.parser.types.Environment;
 import net.saga.diy.lisp.parser.types.LispException;
@@ -108,6 +109,22 @@ public class EvaluatorTest {
 
     }
 
+    /*
+     * Integers do not wrap around on overflow.
+     * 
+     * Results too large for an int become BigIntegers, and go back to being ints
+     * once they fit again.
+     */
+    @Test
+    public void evaluateOverflowingMath() {
+        assertEquals(new BigInteger("2147483648"), run("(+ 2147483647 1)"));
+        assertEquals(new BigInteger("4611686014132420609"), run("(* 2147483647 2147483647)"));
+        assertEquals(new BigInteger("99999999999999999999"), run("99999999999999999999"));
+        assertEquals(2147483647, run("(- 2147483648 1)"));
+        assertEquals(1, run("(mod 99999999999999999999 2)"));
+        assertEquals(true, run("(> 99999999999999999999 1)"));
+    }
+
     /* The math functions should only allow numbers as arguments. */
     @Test(expected = LispException.class)
     public void mathOnlyUsesInteger() {
@@ -0,0 +1,104 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import static net.saga.diy.lisp.parser.Interpreter.loadFile;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/*The standard library is loaded once and every request gets its own fork of
+ it. Whatever a request defines stays in its fork.*/
+public class ForkTest {
+
+    Environment base;
+
+    @Before
+    public void loadStdLib() throws URISyntaxException {
+        File stdLib = Paths.get(getClass().getClassLoader().getResource("std/std.diy").toURI()).toFile();
+        Environment env = new Environment();
+        loadFile(stdLib, env);
+        base = env.snapshot();
+    }
+
+    @Test
+    public void testForkSeesExistingBindings() {
+        Environment request = base.fork();
+        assertEquals(true, interpret("(not #f)", request));
+    }
+
+    @Test
+    public void testDefinesDoNotLeakBetweenForks() {
+        Environment first = base.fork();
+        Environment second = base.fork();
+
+        interpret("(define x 1)", first);
+        interpret("(define x 2)", second);
+
+        assertEquals(1, interpret("x", first));
+        assertEquals(2, interpret("x", second));
+    }
+
+    @Test(expected = LispException.class)
+    public void testSnapshotDoesNotSeeForkDefines() {
+        interpret("(define x 1)", base.fork());
+        base.lookup("x");
+    }
+
+    @Test
+    public void testForkDoesNotSeeLaterDefines() {
+        Environment env = new Environment();
+        interpret("(define x 1)", env);
+        Environment fork = env.fork();
+        interpret("(define y 2)", env);
+
+        /* y was defined after the fork, so the fork is free to define its own. */
+        interpret("(define y 5)", fork);
+
+        assertEquals(1, interpret("x", fork));
+        assertEquals(5, interpret("y", fork));
+        assertEquals(2, interpret("y", env));
+    }
+
+    @Test
+    public void testFunctionsDefinedInForkWorkWithBothEngines() {
+        for (Engine engine : Engine.values()) {
+            Environment request = base.fork();
+            interpret("(define twice (lambda (x) (+ x x)))", request, engine);
+            assertEquals(6, interpret("(twice 3)", request, engine));
+        }
+    }
+
+    @Test(expected = LispException.class)
+    public void testSnapshotIsReadOnly() {
+        interpret("(define x 1)", base);
+    }
+
+    @Test(expected = LispException.class)
+    public void testBindingsFromBaseCannotBeRedefined() {
+        interpret("(define not 1)", base.fork());
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.util.concurrent.ExecutionException;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import net.saga.diy.lisp.parser.types.ConsList;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.OutOfFuelException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/*An evaluation can be given a budget of steps, so a script that never ends
+ is stopped without having to kill its thread.*/
+public class FuelTest {
+
+    Environment env;
+
+    @Before
+    public void functions() {
+        env = new Environment();
+        interpret("(define loop (lambda (n) (loop (+ n 1))))", env);
+        interpret("(define fib (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))", env);
+    }
+
+    @Test
+    public void testRunawayRecursionIsStopped() {
+        for (Engine engine : Engine.values()) {
+            try {
+                interpret("(loop 0)", env, engine, new Fuel(10000));
+                fail("Expected to run out of fuel");
+            } catch (OutOfFuelException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testEnoughFuel() {
+        for (Engine engine : Engine.values()) {
+            assertEquals(55, interpret("(fib 10)", env, engine, new Fuel(1000000)));
+        }
+    }
+
+    /* The call, the lambda form and the addition in its body are one step each. */
+    @Test
+    public void testTreeWalkerCountsForms() {
+        assertEquals(3, interpret("((lambda (x) (+ x 1)) 2)", env, Engine.TREE_WALKER, new Fuel(3)));
+        try {
+            interpret("((lambda (x) (+ x 1)) 2)", env, Engine.TREE_WALKER, new Fuel(2));
+            fail("Expected to run out of fuel");
+        } catch (OutOfFuelException expected) {
+        }
+    }
+
+    /* Counted as written, the optimizer would fold the addition away. */
+    @Test
+    public void testRemaining() {
+        Fuel fuel = new Fuel(100);
+        new Interpreter(Engine.TREE_WALKER, 0, false).execute("(+ 1 2)", env, fuel);
+        assertEquals(99, fuel.remaining());
+    }
+
+    @Test
+    public void testParallelWorkersShareTheBudget() {
+        Object[] numbers = new Object[10000];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = i;
+        }
+        env.set("numbers", ConsList.of(numbers));
+
+        for (Engine engine : Engine.values()) {
+            assertEquals(10000, ((ConsList) interpret("(pmap (lambda (x) (+ x 1)) numbers)", env, engine,
+                    new Fuel(1000000))).size());
+            try {
+                interpret("(pmap (lambda (x) (+ x 1)) numbers)", env, engine, new Fuel(5000));
+                fail("Expected to run out of fuel");
+            } catch (OutOfFuelException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testScriptsWithABudget() throws Exception {
+        try (ScriptExecutor executor = new ScriptExecutor()) {
+            executor.submit("(loop 0)", env, new Fuel(10000)).get();
+            fail("Expected to run out of fuel");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof OutOfFuelException);
+        }
+    }
+
+}
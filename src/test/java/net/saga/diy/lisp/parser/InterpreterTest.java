@@ -0,0 +1,79 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import com.google.common.cache.CacheStats;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/*An Interpreter instance can cache what it parsed, so running the same
+ snippet again skips the parser.*/
+public class InterpreterTest {
+
+    @Test
+    public void testRepeatedSourceIsParsedOnce() {
+        Interpreter interpreter = new Interpreter(Engine.TREE_WALKER, 1000);
+        Environment env = new Environment();
+        interpreter.execute("(define add (lambda (x y) (+ x y)))", env);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(5, interpreter.execute("(add 2 3)", env));
+        }
+
+        CacheStats stats = interpreter.cacheStats();
+        assertEquals(2, stats.missCount());
+        assertEquals(9, stats.hitCount());
+    }
+
+    @Test
+    public void testCompiledFormsAreCached() {
+        Interpreter interpreter = new Interpreter(Engine.COMPILER, 1000);
+
+        assertEquals(3, interpreter.execute("((lambda (x) (+ x 1)) 2)", new Environment()));
+        assertEquals(3, interpreter.execute("((lambda (x) (+ x 1)) 2)", new Environment()));
+        assertEquals(1, interpreter.cacheStats().hitCount());
+    }
+
+    /* Sources are weighed by their length, the longest-unused entries are dropped first. */
+    @Test
+    public void testCacheIsBounded() {
+        Interpreter interpreter = new Interpreter(Engine.TREE_WALKER, 10);
+
+        interpreter.execute("(+ 1 2)", null);
+        interpreter.execute("(+ 10 20)", null);
+
+        assertEquals(1, interpreter.cacheStats().evictionCount());
+    }
+
+    @Test(expected = LispException.class)
+    public void testParseErrorsAreNotWrapped() {
+        new Interpreter(Engine.TREE_WALKER, 1000).execute("(foo", null);
+    }
+
+    @Test
+    public void testCacheCanBeDisabled() {
+        Interpreter interpreter = new Interpreter();
+
+        assertEquals(4, interpreter.execute("(* 2 2)", null));
+        assertEquals(0, interpreter.cacheStats().requestCount());
+    }
+
+}
@@ -20,10 +20,12 @@ package net.saga.diy.lisp.parser;
 
 import static net.saga.diy.lisp.parser.Evaluator.evaluate;
 import static net.saga.diy.lisp.parser.Parser.parse;
+import net.saga.diy.lisp.parser.types.ConsList;
 import net.saga.diy.lisp.parser.types.Environment;
 import net.saga.diy.lisp.parser.types.LispException;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import org.junit.Test;
 
 public class ListTest {
@@ -98,4 +100,45 @@ public class ListTest {
         assertEquals(true, evaluate(parse("(empty (tail '(1)))"), new Environment()));
     }
 
+    /*
+     * The `list` form builds a persistent list from its evaluated arguments.
+     * 
+     * Consing onto such a list keeps the original list as the tail instead of
+     * copying it, and taking the tail gives back that same list.
+     */
+    @Test
+    public void testPersistentList() {
+        Environment env = new Environment();
+        evaluate(parse("(define xs (list 1 (+ 1 1) 3))"), env);
+
+        assertEquals(ConsList.of(0, 1, 2, 3), evaluate(parse("(cons 0 xs)"), env));
+        assertSame(env.lookup("xs"), evaluate(parse("(tail (cons 0 xs))"), env));
+        assertEquals(2, evaluate(parse("(head (tail xs))"), env));
+        assertEquals(true, evaluate(parse("(empty (tail (tail (tail xs))))"), env));
+        assertEquals(false, evaluate(parse("(atom xs)"), env));
+    }
+
+    /* Building a long list one element at a time must not copy on every step. */
+    @Test
+    public void testBuildingLongPersistentList() {
+        Environment env = new Environment();
+        evaluate(parse("(define build (lambda (n acc) (if (eq n 0) acc (build (- n 1) (cons n acc)))))"), env);
+
+        ConsList result = (ConsList) evaluate(parse("(build 100000 (list))"), env);
+        assertEquals(100000, result.size());
+        assertEquals(1, result.head());
+    }
+
+    /* Walking a persistent list with `tail` shares what is left instead of copying it. */
+    @Test
+    public void testWalkingLongPersistentList() {
+        Environment env = new Environment();
+        evaluate(parse("(define build (lambda (n acc) (if (eq n 0) acc (build (- n 1) (cons n acc)))))"), env);
+        evaluate(parse("(define len (lambda (xs n) (if (empty xs) n (len (tail xs) (+ n 1)))))"), env);
+
+        assertEquals(100000, evaluate(parse("(len (build 100000 (list)) 0)"), env));
+        ConsList list = (ConsList) evaluate(parse("(list 1 2 3)"), env);
+        assertSame(list, Evaluator.tail(Evaluator.cons(0, list)));
+    }
+
 }
@@ -0,0 +1,168 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.math.BigInteger;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/*A memoized function remembers its results, so recursive definitions that
+ would recompute the same calls over and over run in linear time.*/
+public class MemoizeTest {
+
+    private static final String FIB = "(define fib (memoize (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))))";
+
+    @Test
+    public void testRecursionIsRemembered() {
+        for (Engine engine : Engine.values()) {
+            Environment env = new Environment();
+            interpret(FIB, env, engine);
+
+            assertEquals(engine.name(), new BigInteger("23416728348467685"), interpret("(fib 80)", env, engine));
+            MemoizedClosure fib = (MemoizedClosure) env.lookup("fib");
+            assertEquals(81, fib.stats().missCount());
+            assertEquals(78, fib.stats().hitCount());
+            assertEquals("fib", fib.getName());
+            assertEquals("fib", fib.getFunction().getName());
+        }
+    }
+
+    /* Lists are compared element by element, whatever they are made of. */
+    @Test
+    public void testArgumentsAreComparedByStructure() {
+        Environment env = new Environment();
+        interpret("(define first (memoize (lambda (xs) (head xs))))", env);
+
+        assertEquals(1, interpret("(first '(1 (2 3)))", env));
+        assertEquals(1, interpret("(first (list 1 (list 2 3)))", env));
+        assertEquals(1, interpret("(first (cons 1 '((2 3))))", env));
+        assertEquals(2, interpret("(first '(2 (2 3)))", env));
+        assertEquals(1, interpret("(first '(1 (2 4)))", env));
+
+        MemoizedClosure first = (MemoizedClosure) env.lookup("first");
+        assertEquals(3, first.stats().missCount());
+        assertEquals(2, first.stats().hitCount());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        MemoizedClosure memoized = (MemoizedClosure) interpret("(memoize (lambda (x) (* x x)) 10)", new Environment());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * i, Evaluator.apply(memoized, new Object[] { i }));
+        }
+
+        assertEquals(100, memoized.stats().missCount());
+        assertTrue(memoized.stats().evictionCount() >= 90);
+    }
+
+    /* Every memoized function has its own cache size and may let go of results nobody else holds. */
+    @Test
+    public void testOptions() {
+        for (Engine engine : Engine.values()) {
+            Environment env = new Environment();
+            interpret("(define id (lambda (x) x))", env, engine);
+
+            MemoizedClosure memoized = (MemoizedClosure) interpret("(memoize id (+ 2 3) #t)", env, engine);
+            assertEquals(engine.name(), 5, memoized.getMaximumSize());
+            assertTrue(memoized.hasWeakValues());
+            assertEquals(3, Evaluator.apply(memoized, new Object[] { 3 }));
+
+            memoized = (MemoizedClosure) interpret("(memoize id 5)", env, engine);
+            assertEquals(5, memoized.getMaximumSize());
+            assertFalse(memoized.hasWeakValues());
+
+            memoized = (MemoizedClosure) interpret("(memoize id)", env, engine);
+            assertEquals(MemoizedClosure.DEFAULT_MAXIMUM_SIZE, memoized.getMaximumSize());
+            assertFalse(memoized.hasWeakValues());
+        }
+    }
+
+    /* Memoizing again with the same options changes nothing, with others it starts over from the function. */
+    @Test
+    public void testMemoizingAgain() {
+        Environment env = new Environment();
+        interpret("(define id (memoize (lambda (x) x)))", env);
+        MemoizedClosure id = (MemoizedClosure) env.lookup("id");
+
+        assertSame(id, interpret("(memoize id)", env));
+        MemoizedClosure smaller = (MemoizedClosure) interpret("(memoize id 10)", env);
+        assertSame(id.getFunction(), smaller.getFunction());
+        assertEquals(10, smaller.getMaximumSize());
+    }
+
+    @Test
+    public void testBadOptions() {
+        for (Engine engine : Engine.values()) {
+            for (String program : new String[] { "(memoize)", "(memoize id 1 #t 2)", "(memoize id 'a)",
+                    "(memoize id -1)", "(memoize id 100000000000000000000)" }) {
+                Environment env = new Environment();
+                interpret("(define id (lambda (x) x))", env, engine);
+                try {
+                    interpret(program, env, engine);
+                    fail(engine.name() + " " + program);
+                } catch (LispException expected) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyFunctionsCanBeMemoized() {
+        for (Engine engine : Engine.values()) {
+            try {
+                interpret("(memoize 1)", new Environment(), engine);
+                fail(engine.name());
+            } catch (LispException expected) {
+            }
+        }
+    }
+
+    /* Errors are not remembered, the next call tries again. */
+    @Test
+    public void testErrorsAreNotCached() {
+        Environment env = new Environment();
+        interpret("(define inverse (memoize (lambda (x) (/ 1 x))))", env);
+        for (int i = 0; i < 2; i++) {
+            try {
+                interpret("(inverse 0)", env);
+                fail();
+            } catch (LispException expected) {
+            }
+        }
+        assertEquals(2, ((MemoizedClosure) env.lookup("inverse")).stats().missCount());
+    }
+
+    /* The optimizer leaves calls to memoized functions alone, or the cache would be skipped. */
+    @Test
+    public void testCallsAreNotInlined() {
+        Environment env = new Environment();
+        interpret("(define slow (memoize (lambda (x) (+ x 1))))", env);
+
+        Object ast = Parser.parse("(slow 1)");
+        assertEquals(ast, Optimizer.optimize(ast, env));
+    }
+
+}
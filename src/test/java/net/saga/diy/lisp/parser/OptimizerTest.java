@@ -0,0 +1,223 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import static net.saga.diy.lisp.parser.Parser.parse;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.Environment;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*The optimizer shrinks expressions before they are run, without changing
+ what they evaluate to.*/
+public class OptimizerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFoldsArithmetic() {
+        assertEquals(20, Optimizer.optimize(parse("(+ 10 10)")));
+        assertEquals(18, Optimizer.optimize(parse("(* (+ 1 2) (- 10 (mod 10 6)))")));
+        assertEquals(new BigInteger("4294967294"), Optimizer.optimize(parse("(* 2147483647 2)")));
+        assertArrayEquals(new Object[] { "+", "x", 3 }, (Object[]) Optimizer.optimize(parse("(+ x (/ 7 2))")));
+    }
+
+    @Test
+    public void testFoldsComparisons() {
+        assertEquals(true, Optimizer.optimize(parse("(eq 'foo 'foo)")));
+        assertEquals(false, Optimizer.optimize(parse("(eq '(1) '(1))")));
+        assertEquals(true, Optimizer.optimize(parse("(< 1 2)")));
+        assertEquals(false, Optimizer.optimize(parse("(atom '(1 2))")));
+    }
+
+    @Test
+    public void testPrunesIf() {
+        assertArrayEquals(new Object[] { "+", 1, "x" }, (Object[]) Optimizer.optimize(parse("(if #f 0 (+ 1 x))")));
+        assertEquals("x", Optimizer.optimize(parse("(if (> 2 1) x y)")));
+        assertEquals("x", Optimizer.optimize(parse("(if '(#f) x y)")));
+    }
+
+    @Test
+    public void testUnwrapsQuotedLiterals() {
+        assertEquals(5, Optimizer.optimize(parse("'5")));
+        assertEquals(false, Optimizer.optimize(parse("'#f")));
+        Object symbol = parse("'foo");
+        assertSame(symbol, Optimizer.optimize(symbol));
+    }
+
+    /* Whatever would fail is kept, to fail when it is run. */
+    @Test
+    public void testFailingFormsAreKept() {
+        for (String program : new String[] { "(/ 1 0)", "(+ 1 'a)", "(if #t)", "(+ 1 2 3)", "(head '())" }) {
+            Object ast = parse(program);
+            assertSame(program, ast, Optimizer.optimize(ast));
+        }
+    }
+
+    /* Lists are only copied when something in them changes, so errors can still be located. */
+    @Test
+    public void testUnchangedListsAreKept() {
+        Object ast = parse("(lambda (x) (f x (g 1)))");
+        assertSame(ast, Optimizer.optimize(ast));
+
+        Object[] call = (Object[]) parse("(f (+ 1 2) (g x))");
+        Object[] optimized = (Object[]) Optimizer.optimize(call);
+        assertEquals(3, optimized[1]);
+        assertSame(call[2], optimized[2]);
+    }
+
+    /* The head of a call is only folded into another form, never into a value it would be called as. */
+    @Test
+    public void testCallHeadsStayForms() {
+        for (String program : new String[] { "((+ 1 2))", "('5)" }) {
+            Object ast = parse(program);
+            assertSame(program, ast, Optimizer.optimize(ast));
+        }
+        assertEquals(3, interpret("((+ 1 2))", new Environment()));
+        assertEquals(5, interpret("('5)", new Environment()));
+    }
+
+    @Test
+    public void testInlinesSmallFunctions() {
+        Environment env = new Environment();
+        interpret("(define square (lambda (x) (* x x)))", env);
+        interpret("(define sum-of-squares (lambda (x y) (+ (square x) (square y))))", env);
+        interpret("(define apply-to-two (lambda (f) (f 2)))", env);
+
+        assertEquals(25, Optimizer.optimize(parse("(sum-of-squares 3 4)"), env));
+        assertEquals(4, Optimizer.optimize(parse("(apply-to-two square)"), env));
+        assertArrayEquals(new Object[] { "lambda", new Object[] { "y" }, new Object[] { "*", "y", "y" } },
+                (Object[]) Optimizer.optimize(parse("(lambda (y) (square y))"), env));
+    }
+
+    @Test
+    public void testKeepsCallsItCannotInline() {
+        Environment env = new Environment();
+        interpret("(define square (lambda (x) (* x x)))", env);
+        interpret("(define fib (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))", env);
+        interpret("(define apply-to-two (lambda (f) (f 2)))", env);
+        interpret("(define two 2)", env);
+        interpret("(define definer (lambda (x) (define y x)))", env);
+
+        for (String program : new String[] { "(fib 10)", "(square (fib 2))", "(square 1 2)", "(square z)",
+                "(apply-to-two '(1))", "(apply-to-two two)", "(definer 1)", "(lambda (square) (square 2))",
+                "(lambda (x) ((lambda (two) (define square 1)) (square 3)))" }) {
+            Object ast = parse(program);
+            assertSame(program, ast, Optimizer.optimize(ast, env));
+        }
+        Object ast = parse("(square 3)");
+        assertSame(ast, Optimizer.optimize(ast, env.extend(new Object[0], new Object[0])));
+    }
+
+    @Test
+    public void testResultsDoNotChange() {
+        String[] definitions = {
+            "(define square (lambda (x) (* x x)))",
+            "(define compose (lambda (f g x) (f (g x))))",
+            "(define inc (lambda (x) (+ x 1)))",
+            "(define pick (lambda (c a b) (if c a b)))",
+            "(define fact (lambda (n) (if (eq n 0) 1 (* n (fact (- n 1))))))"
+        };
+        String[] programs = {
+            "(compose square inc (+ 2 3))", "(pick (< 1 2) (square 3) 'no)", "(pick #f 'yes (fact (+ 5 5)))",
+            "((lambda (square) (square 2)) inc)", "(list (inc 1) (square (inc 2)) (if (eq 'a 'a) 'same 'other))",
+            "((+ 1 2))", "('5)", "((if #t inc square) 4)"
+        };
+        for (Engine engine : Engine.values()) {
+            Environment plain = new Environment();
+            Environment optimized = new Environment();
+            for (String definition : definitions) {
+                engine.evaluate(parse(definition), plain);
+                engine.evaluate(Optimizer.optimize(parse(definition), optimized), optimized);
+            }
+            for (String program : programs) {
+                Object expected = engine.evaluate(parse(program), plain);
+                Object actual = engine.evaluate(Optimizer.optimize(parse(program), optimized), optimized);
+                assertEquals(engine + " " + program, Evaluator.toString(expected), Evaluator.toString(actual));
+            }
+        }
+    }
+
+    /* Compiled closures over a frame report the top level as their environment, which their bodies must not be inlined into. */
+    @Test
+    public void testKeepsClosuresOverFrames() {
+        for (Engine engine : Engine.values()) {
+            Environment env = new Environment();
+            interpret("(define n 100)", env, engine);
+            interpret("(define mk (lambda (n) (lambda (x) (+ x n))))", env, engine);
+            interpret("(define a5 (mk 5))", env, engine);
+            assertEquals(engine.name(), 6, interpret("(a5 1)", env, engine));
+
+            interpret("(define c (lambda (x) (lambda () x)))", env, engine);
+            interpret("(define k (c 7))", env, engine);
+            interpret("(define x 9)", env, engine);
+            assertEquals(engine.name(), 7, interpret("(k)", env, engine));
+        }
+    }
+
+    /* Each interpreter decides for itself, so one that runs code as written does not affect others. */
+    @Test
+    public void testCanBeTurnedOffPerInterpreter() {
+        Interpreter asWritten = new Interpreter(Engine.TREE_WALKER, 0, false);
+        Interpreter optimizing = new Interpreter(Engine.TREE_WALKER, 0);
+        assertFalse(asWritten.isOptimizing());
+
+        Closure closure = (Closure) asWritten.execute("(lambda () (+ 1 2))", new Environment());
+        assertArrayEquals(new Object[] { "+", 1, 2 }, (Object[]) closure.getBody());
+        closure = (Closure) optimizing.execute("(lambda () (+ 1 2))", new Environment());
+        assertEquals(3, closure.getBody());
+        closure = (Closure) interpret("(lambda () (+ 1 2))", new Environment());
+        assertEquals(3, closure.getBody());
+    }
+
+    /* Files run by an interpreter that does not optimize are run as written too, in parallel or not. */
+    @Test
+    public void testFilesCanBeRunAsWritten() throws IOException {
+        File source = folder.newFile();
+        Files.write(source.toPath(), Arrays.asList("(define f (lambda () (+ 1 2)))", "f"), StandardCharsets.UTF_8);
+        Interpreter asWritten = new Interpreter(Engine.TREE_WALKER, 0, false);
+        Interpreter optimizing = new Interpreter(Engine.TREE_WALKER, 0);
+
+        List<Object> results = asWritten.executeFile(source, new Environment());
+        assertArrayEquals(new Object[] { "+", 1, 2 }, (Object[]) ((Closure) results.get(1)).getBody());
+        results = asWritten.executeFileInParallel(source, Environment.concurrent(), ForkJoinPool.commonPool());
+        assertArrayEquals(new Object[] { "+", 1, 2 }, (Object[]) ((Closure) results.get(1)).getBody());
+        Closure closure = (Closure) asWritten.load(source, new Environment());
+        assertArrayEquals(new Object[] { "+", 1, 2 }, (Object[]) closure.getBody());
+
+        closure = (Closure) optimizing.load(source, new Environment());
+        assertEquals(3, closure.getBody());
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import static net.saga.diy.lisp.parser.Interpreter.interpretFile;
+import static net.saga.diy.lisp.parser.Interpreter.interpretFileInParallel;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*Forms that do not depend on each other's definitions can be evaluated at the
+ same time. Whatever runs in parallel, the results have to be the ones a
+ sequential run gives, in source order.*/
+public class ParallelEvaluationTest {
+
+    private static final int RUNS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testSameResultsAsSequential() throws IOException {
+        File source = file(
+                "(define fib (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))",
+                "(define square (lambda (x) (* x x)))",
+                "(fib 15)",
+                "(square 12)",
+                "(define a (fib 12))",
+                "(define b (square a))",
+                "(+ a b)",
+                "'(some quoted data)",
+                "(list 1 2 3)",
+                "(define twice (lambda (f x) (f (f x))))",
+                "(twice square 3)",
+                "(fib 16)");
+
+        for (Engine engine : Engine.values()) {
+            List<Object> expected = describe(interpretFile(source, new Environment(), engine));
+            for (int i = 0; i < RUNS; i++) {
+                List<Object> actual = interpretFileInParallel(source, Environment.concurrent(), engine, pool);
+                assertEquals(expected, describe(actual));
+            }
+        }
+    }
+
+    /* f only reads g when it is called, so the call has to wait for g. */
+    @Test
+    public void testCallsWaitForWhatTheFunctionReads() throws IOException {
+        File source = file("(define f (lambda () g))", "(define g 1)", "(f)");
+
+        for (int i = 0; i < RUNS; i++) {
+            List<Object> results = interpretFileInParallel(source, Environment.concurrent(), Engine.TREE_WALKER,
+                    pool);
+            assertEquals(1, results.get(2));
+        }
+    }
+
+    /* Run in order, (f) fails because g is not defined yet. */
+    @Test
+    public void testDefinesWaitForEarlierReads() throws IOException {
+        File source = file("(define f (lambda () g))", "(f)", "(define g 1)");
+        for (int i = 0; i < RUNS; i++) {
+            assertFails(source, Environment.concurrent());
+        }
+    }
+
+    @Test
+    public void testFunctionsAlreadyInTheEnvironmentAreFollowed() throws IOException {
+        File source = file("(h)", "(define k 1)");
+        for (int i = 0; i < RUNS; i++) {
+            Environment env = Environment.concurrent();
+            interpret("(define h (lambda () k))", env);
+            assertFails(source, env);
+        }
+    }
+
+    @Test
+    public void testRedefiningFails() throws IOException {
+        assertFails(file("(define x 1)", "(define x 2)"), Environment.concurrent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEnvironmentMustBeConcurrent() throws IOException {
+        interpretFileInParallel(file("(+ 1 2)"), new Environment());
+    }
+
+    private void assertFails(File source, Environment env) {
+        try {
+            interpretFileInParallel(source, env, Engine.TREE_WALKER, pool);
+            fail("Expected a LispException");
+        } catch (LispException expected) {
+        }
+    }
+
+    private File file(String... forms) throws IOException {
+        File source = folder.newFile();
+        Files.write(source.toPath(), Arrays.asList(forms), StandardCharsets.UTF_8);
+        return source;
+    }
+
+    private static List<Object> describe(List<Object> results) {
+        List<Object> described = new ArrayList<>();
+        for (Object result : results) {
+            described.add(result instanceof Closure ? "<closure>" : Evaluator.toString(result));
+        }
+        return described;
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import net.saga.diy.lisp.parser.types.ConsList;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/*pmap, pfilter and preduce work through large lists on several threads.
+ Lists below the sequential cutoff are handled on the calling thread, the
+ results are the same either way.*/
+public class ParallelListsTest {
+
+    private static final int SIZE = 100000;
+
+    Environment env;
+
+    @Before
+    public void numbers() {
+        Object[] numbers = new Object[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            numbers[i] = i;
+        }
+        env = new Environment();
+        env.set("numbers", ConsList.of(numbers));
+        interpret("(define square (lambda (x) (* x x)))", env);
+    }
+
+    @Test
+    public void testMap() {
+        for (Engine engine : Engine.values()) {
+            ConsList squares = (ConsList) interpret("(pmap square numbers)", env, engine);
+
+            assertEquals(SIZE, squares.size());
+            Object[] elements = squares.toArray();
+            for (int i = 0; i < SIZE; i++) {
+                assertEquals(Numbers.valueOf((long) i * i), elements[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testFilter() {
+        for (Engine engine : Engine.values()) {
+            ConsList even = (ConsList) interpret("(pfilter (lambda (x) (eq 0 (mod x 2))) numbers)", env, engine);
+
+            assertEquals(SIZE / 2, even.size());
+            assertEquals(0, even.head());
+            assertEquals(2, even.tail().head());
+        }
+    }
+
+    @Test
+    public void testReduce() {
+        for (Engine engine : Engine.values()) {
+            assertEquals(Numbers.valueOf(SIZE * (SIZE - 1L) / 2), interpret("(preduce (lambda (a b) (+ a b)) 0 numbers)", env, engine));
+        }
+    }
+
+    /* Taking the right argument is associative but not commutative, so this
+     only gives the last element if the order of the pieces is kept. */
+    @Test
+    public void testReduceKeepsOrder() {
+        assertEquals(SIZE - 1, interpret("(preduce (lambda (a b) b) 'none numbers)", env));
+    }
+
+    @Test
+    public void testClosuresOverLocals() {
+        for (Engine engine : Engine.values()) {
+            ConsList shifted = (ConsList) interpret("((lambda (n) (pmap (lambda (x) (+ x n)) numbers)) 10)", env, engine);
+            assertEquals(SIZE + 9, shifted.toArray()[SIZE - 1]);
+        }
+    }
+
+    @Test
+    public void testSmallLists() {
+        for (Engine engine : Engine.values()) {
+            assertArrayEquals(new Object[] { 1, 4, 9 }, (Object[]) interpret("(pmap square '(1 2 3))", env, engine));
+            assertArrayEquals(new Object[] { 3 }, (Object[]) interpret("(pfilter (lambda (x) (> x 2)) '(1 2 3))", env,
+                    engine));
+            assertEquals(6, interpret("(preduce (lambda (a b) (+ a b)) 0 '(1 2 3))", env, engine));
+            assertEquals(42, interpret("(preduce (lambda (a b) (+ a b)) 42 '())", env, engine));
+        }
+    }
+
+    @Test(expected = LispException.class)
+    public void testErrorsInWorkersAreThrown() {
+        interpret("(pmap (lambda (x) (/ 1 (- x 5000))) numbers)", env);
+    }
+
+    @Test(expected = LispException.class)
+    public void testNotAFunction() {
+        interpret("(pmap 1 '(1 2 3))", env);
+    }
+
+    @Test(expected = LispException.class)
+    public void testWrongNumberOfArguments() {
+        interpret("(preduce square numbers)", env);
+    }
+
+}
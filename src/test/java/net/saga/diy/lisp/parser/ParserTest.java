@@ -18,12 +18,23 @@
  */
 package net.saga.diy.lisp.parser;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import static net.saga.diy.lisp.parser.Parser.parse;
 import net.saga.diy.lisp.parser.types.LispException;
+import net.saga.diy.lisp.parser.types.Symbols;
 import static net.saga.diy.lisp.parser.Utils.isList;
 import org.junit.Assert;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -221,4 +232,66 @@ public class ParserTest {
         Assert.assertArrayEquals(expected, ast);
     }
 
+    /*
+     * Reading from a stream yields every top level expression.
+     * 
+     * Tokens may be split across reads of the underlying reader, so a symbol
+     * longer than the read buffer must still come out in one piece.
+     */
+    @Test
+    public void testParseMultipleFromReader() {
+        StringBuilder longSymbol = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            longSymbol.append('x');
+        }
+        Object[] expressions = Parser.parseMultiple(new StringReader("(define a 1) ; a comment\n"
+                + "'b\n"
+                + "(" + longSymbol + " 12345)"));
+
+        assertEquals(3, expressions.length);
+        assertArrayEquals(new Object[] { "define", "a", 1 }, (Object[]) expressions[0]);
+        assertArrayEquals(new Object[] { "quote", "b" }, (Object[]) expressions[1]);
+        assertArrayEquals(new Object[] { longSymbol.toString(), 12345 }, (Object[]) expressions[2]);
+    }
+
+    /* Expressions can also be pulled one at a time from a reader. */
+    @Test
+    public void testIncrementalExpressions() {
+        Iterator<Object> expressions = Parser.expressions(new StringReader("1 (foo) #t"));
+
+        assertEquals(1, expressions.next());
+        assertArrayEquals(new Object[] { "foo" }, (Object[]) expressions.next());
+        assertEquals(true, expressions.next());
+        assertFalse(expressions.hasNext());
+    }
+
+    /* Source files are streamed from disk and decoded as UTF-8. */
+    @Test
+    public void testParseFile() throws IOException {
+        File source = File.createTempFile("parser", ".diy");
+        source.deleteOnExit();
+        Files.write(source.toPath(), "(define \u03bb 1)\n; done\n(\u03bb)".getBytes(StandardCharsets.UTF_8));
+
+        try (Stream<Object> expressions = Parser.parseFile(source)) {
+            Object[] parsed = expressions.collect(Collectors.toList()).toArray();
+            assertArrayEquals(new Object[] { new Object[] { "define", "\u03bb", 1 }, new Object[] { "\u03bb" } }, parsed);
+        }
+    }
+
+    /*
+     * Symbols are interned.
+     * 
+     * Every occurrence of a symbol is the same object, which is also the same
+     * object as the equal string literal, so symbols can be compared by reference.
+     */
+    @Test
+    public void testSymbolsAreInterned() {
+        Object[] ast = (Object[]) parse("(foo 'foo)");
+
+        assertSame("foo", ast[0]);
+        assertSame(ast[0], ((Object[]) ast[1])[1]);
+        assertSame("quote", ((Object[]) ast[1])[0]);
+        assertSame(ast[0], Symbols.intern(new StringBuilder("fo").append('o').toString()));
+    }
+
 }
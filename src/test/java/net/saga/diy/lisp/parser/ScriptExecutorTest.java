@@ -0,0 +1,160 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.EvaluationInterruptedException;
+import net.saga.diy.lisp.parser.types.LispException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/*Every script runs on its own thread and can be stopped, even one that
+ recurses forever.*/
+public class ScriptExecutorTest {
+
+    Environment env;
+
+    @Before
+    public void functions() {
+        env = Environment.concurrent();
+        interpret("(define loop (lambda (n) (loop (+ n 1))))", env);
+        interpret("(define square (lambda (x) (* x x)))", env);
+    }
+
+    @Test
+    public void testManyScripts() throws Exception {
+        try (ScriptExecutor executor = new ScriptExecutor()) {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                results.add(executor.submit("(square " + i + ")", env));
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i * i, results.get(i).get());
+            }
+        }
+    }
+
+    @Test
+    public void testRunawayScriptsTimeOut() throws Exception {
+        for (Engine engine : Engine.values()) {
+            ScriptExecutor executor = new ScriptExecutor(new Interpreter(engine, 0));
+            Future<Object> result = executor.submit("(loop 0)", env, 50, TimeUnit.MILLISECONDS);
+            try {
+                result.get();
+                fail("Expected a timeout");
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof TimeoutException);
+            }
+
+            /* The thread really stopped. */
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /* The pool threads working for a script stop with it, not just its own thread. */
+    @Test
+    public void testParallelWorkStopsWithTheScript() throws Exception {
+        interpret("(define range (lambda (n acc) (if (eq n 0) acc (range (- n 1) (cons n acc)))))", env);
+        interpret("(define spin (lambda (x) (spin x)))", env);
+        for (Engine engine : Engine.values()) {
+            ScriptExecutor executor = new ScriptExecutor(new Interpreter(engine, 0));
+            Future<Object> result = executor.submit("(pmap spin (range 2000 '()))", env, 50, TimeUnit.MILLISECONDS);
+            try {
+                result.get();
+                fail("Expected a timeout");
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof TimeoutException);
+            }
+
+            assertTrue(engine.name(), poolGoesIdle(5, TimeUnit.SECONDS));
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /* Polled rather than awaited, as awaiting quiescence would have this thread run the pool's tasks. */
+    private static boolean poolGoesIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (ForkJoinPool.commonPool().getActiveThreadCount() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Test
+    public void testScriptsCanBeCancelled() throws Exception {
+        ScriptExecutor executor = new ScriptExecutor();
+        Future<Object> result = executor.submit("(loop 0)", env);
+        Thread.sleep(20);
+        result.cancel(true);
+
+        try {
+            result.get();
+            fail("Expected the script to be cancelled");
+        } catch (CancellationException expected) {
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testScriptsFinishingInTimeAreNotAffected() throws Exception {
+        try (ScriptExecutor executor = new ScriptExecutor()) {
+            assertEquals(49, executor.submit("(square 7)", env, 10, TimeUnit.SECONDS).get());
+        }
+    }
+
+    @Test
+    public void testErrorsAreReported() throws Exception {
+        try (ScriptExecutor executor = new ScriptExecutor()) {
+            executor.submit("(undefined)", env).get();
+            fail("Expected an error");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof LispException);
+        }
+    }
+
+    /* Run as written, as the optimizer would inline the call. */
+    @Test(expected = EvaluationInterruptedException.class)
+    public void testInterruptedThreadStopsAtNextCall() {
+        Thread.currentThread().interrupt();
+        try {
+            new Interpreter(Engine.TREE_WALKER, 0, false).execute("(square 2)", env);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import static net.saga.diy.lisp.parser.Interpreter.loadFile;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/*A concurrent environment is loaded once and then used by many threads at
+ the same time. Defining a name is still only allowed once, even when several
+ threads race to do it.*/
+public class SharedEnvironmentTest {
+
+    private static final int THREADS = 8;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testStdLibIsSharedBetweenThreads() throws Exception {
+        File stdLib = Paths.get(getClass().getClassLoader().getResource("std/std.diy").toURI()).toFile();
+        final Environment env = Environment.concurrent();
+        loadFile(stdLib, env);
+
+        List<Future<Object>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final Engine engine = i % 2 == 0 ? Engine.TREE_WALKER : Engine.COMPILER;
+            results.add(pool.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    Object last = null;
+                    for (int j = 0; j < 500; j++) {
+                        last = interpret("(or #f (not #f))", env, engine);
+                    }
+                    return last;
+                }
+            }));
+        }
+
+        for (Future<Object> result : results) {
+            assertEquals(true, result.get());
+        }
+    }
+
+    @Test
+    public void testDefinesFromAllThreadsAreVisible() throws Exception {
+        final Environment env = Environment.concurrent();
+        List<Future<Object>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            results.add(pool.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    for (int j = 0; j < 200; j++) {
+                        interpret("(define v" + thread + "_" + j + " " + j + ")", env);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Object> result : results) {
+            result.get();
+        }
+
+        for (int i = 0; i < THREADS; i++) {
+            assertEquals(199, env.lookup("v" + i + "_199"));
+        }
+    }
+
+    @Test
+    public void testOnlyOneDefineWins() throws Exception {
+        final Environment env = Environment.concurrent();
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            results.add(pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    try {
+                        interpret("(define x " + thread + ")", env);
+                        return true;
+                    } catch (LispException expected) {
+                        return false;
+                    }
+                }
+            }));
+        }
+
+        int winners = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get()) {
+                winners++;
+            }
+        }
+        assertEquals(1, winners);
+    }
+
+    @Test
+    public void testExtendedEnvironmentsStayConcurrent() {
+        Environment env = Environment.concurrent();
+        assertTrue(env.extend("x", 1).isConcurrent());
+    }
+
+    @Test(expected = LispException.class)
+    public void testRedefiningIsStillIllegal() {
+        Environment env = Environment.concurrent();
+        env.set("x", 1);
+        env.set("x", 2);
+    }
+
+}
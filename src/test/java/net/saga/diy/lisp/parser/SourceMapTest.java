@@ -0,0 +1,230 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import static net.saga.diy.lisp.parser.Parser.parse;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/*The parser can remember where every list starts, next to the AST rather
+ than inside it, so errors can say where they happened.*/
+public class SourceMapTest {
+
+    @Test
+    public void testListPositions() {
+        SourceMap positions = new SourceMap(null);
+        Object[] ast = (Object[]) parse("(define square\n"
+                + "  ; a comment\n"
+                + "  (lambda (x)\n"
+                + "    (* x x)))", positions);
+        Object[] lambda = (Object[]) ast[2];
+        Object[] body = (Object[]) lambda[2];
+
+        assertEquals(1, positions.line(ast));
+        assertEquals(1, positions.column(ast));
+        assertEquals(3, positions.line(lambda));
+        assertEquals(3, positions.column(lambda));
+        assertEquals("line 4, column 5", positions.describe(body));
+        assertNull(positions.describe(new Object[0]));
+        assertNull(positions.describe("x"));
+    }
+
+    /* Every list is also recorded up to its closing parenthesis, and by offset. */
+    @Test
+    public void testSpans() {
+        SourceMap positions = new SourceMap(null);
+        String source = "(define square\n  (lambda (x)\n    (* x x)))";
+        Object[] ast = (Object[]) parse(source, positions);
+        Object[] lambda = (Object[]) ast[2];
+        Object[] body = (Object[]) lambda[2];
+
+        assertEquals(3, positions.endLine(ast));
+        assertEquals(13, positions.endColumn(ast));
+        assertEquals(0, positions.offset(ast));
+        assertEquals(source.length(), positions.endOffset(ast));
+        assertEquals("(lambda (x)\n    (* x x))",
+                source.substring(positions.offset(lambda), positions.endOffset(lambda)));
+        assertEquals("line 3, columns 5-11", positions.describeSpan(body));
+        assertEquals("line 2, column 3 to line 3, column 12", positions.describeSpan(lambda));
+        assertEquals(-1, positions.offset(new Object[0]));
+        assertNull(positions.describeSpan("x"));
+
+        Object[] quoted = (Object[]) ((Object[]) parse("(list 'abc)", positions))[1];
+        assertEquals("line 1, columns 7-10", positions.describeSpan(quoted));
+    }
+
+    /* Offsets are counted across refills of the reader's buffer. */
+    @Test
+    public void testSpansInLongInput() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            source.append("(x ").append(i).append(")\n");
+        }
+        SourceMap positions = new SourceMap("long.lisp");
+        Iterator<Object> expressions = Parser.expressions(new StringReader(source.toString()), positions);
+        for (int i = 0; i < 2000; i++) {
+            Object expression = expressions.next();
+            String text = "(x " + i + ")";
+            assertEquals(text, source.substring(positions.offset(expression), positions.endOffset(expression)));
+            assertEquals("long.lisp:" + (i + 1) + ":1-" + (i + 1) + ":" + text.length(), positions.describeSpan(expression));
+        }
+    }
+
+    /* The parameter list of a lambda is placed at the lambda, so profilers can
+     find a closure's source through it. */
+    @Test
+    public void testLambdaParameters() {
+        Object[] ast = (Object[]) parse("  (lambda (x) x)", new SourceMap("f.lisp"));
+        assertEquals("f.lisp:1:3", SourceMap.lambdaLocation((Object[]) ast[1]));
+        assertNull(SourceMap.lambdaLocation((Object[]) ((Object[]) parse("(lambda (x) x)"))[1]));
+    }
+
+    /* A map can record lambdas alone, which is all running an expression needs until something fails. */
+    @Test
+    public void testLambdasOnly() {
+        SourceMap positions = new SourceMap(null, false);
+        Object[] ast = (Object[]) parse("(define f\n  (lambda (x) x))", positions);
+        assertNull(positions.describe(ast));
+        assertEquals("line 2, column 3", SourceMap.lambdaLocation((Object[]) ((Object[]) ast[2])[1]));
+    }
+
+    /* Errors in forms nested in a lambda are found again in the source when they happen. */
+    @Test
+    public void testEvaluationErrorsInLambdas() {
+        for (Engine engine : Engine.values()) {
+            try {
+                interpret("((lambda (x)\n  (+ x (x 1))) 2)", new Environment(), engine);
+                fail("Expected an error");
+            } catch (LispException expected) {
+                assertEquals(engine.name(), "line 2, columns 8-12", expected.getLocation());
+            }
+        }
+    }
+
+    @Test
+    public void testQuotePositions() {
+        SourceMap positions = new SourceMap(null);
+        Object[] ast = (Object[]) parse("(list 'a)", positions);
+        assertEquals("line 1, column 7", positions.describe(ast[1]));
+    }
+
+    @Test
+    public void testIncompleteExpression() {
+        try {
+            parse("(foo\n  (bar x)\n  (baz y");
+            fail("Expected an incomplete expression");
+        } catch (LispException expected) {
+            assertEquals("Incomplete expression starting at line 3, column 3", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnexpectedParen() {
+        try {
+            parse("(foo (bar x y)))");
+            fail("Expected a parse error");
+        } catch (LispException expected) {
+            assertEquals("Expected EOF at line 1, column 16", expected.getMessage());
+        }
+    }
+
+    /* Lines are counted across refills of the reader's buffer. */
+    @Test
+    public void testPositionsInLongInput() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            source.append("(x ").append(i).append(")\n");
+        }
+        SourceMap positions = new SourceMap("long.lisp");
+        Iterator<Object> expressions = Parser.expressions(new StringReader(source.toString()), positions);
+        for (int i = 1; i <= 2000; i++) {
+            assertEquals("long.lisp:" + i + ":1", positions.describe(expressions.next()));
+        }
+    }
+
+    @Test
+    public void testEvaluationErrors() {
+        for (Engine engine : Engine.values()) {
+            try {
+                interpret("(cons 1\n  (+ 1 (2 1)))", new Environment(), engine);
+                fail("Expected an error");
+            } catch (LispException expected) {
+                assertEquals("Not a function: 2 at line 2, columns 8-12", expected.getMessage());
+            }
+        }
+    }
+
+    /* An error inside a function is found in the file that defined it, even
+     when it is called much later. */
+    @Test
+    public void testErrorsInFiles() throws IOException {
+        File file = File.createTempFile("errors", ".lisp");
+        file.deleteOnExit();
+        Files.write(file.toPath(), ("(define apply-one\n"
+                + "  (lambda (f)\n"
+                + "    (+ 1 (f 1))))\n"
+                + "(define x 1)\n"
+                + "(apply-one x)").getBytes(StandardCharsets.UTF_8));
+        for (Engine engine : Engine.values()) {
+            try {
+                Interpreter.loadFile(file, new Environment(), engine);
+                fail("Expected an error");
+            } catch (LispException expected) {
+                assertEquals(file.getPath() + ":3:10-3:14", expected.getLocation());
+            }
+            try {
+                Interpreter.interpretFileInParallel(file, Environment.concurrent(), engine,
+                        ForkJoinPool.commonPool());
+                fail("Expected an error");
+            } catch (LispException expected) {
+                assertEquals(file.getPath() + ":3:10-3:14", expected.getLocation());
+            }
+        }
+    }
+
+    /* Forms are forgotten once they have run, unless they define a lambda, which
+     keeps them only for as long as they are around. */
+    @Test
+    public void testForget() {
+        SourceMap positions = new SourceMap(null);
+        int mark = positions.mark();
+        Object constant = parse("(define x (+ 1 2))", positions);
+        positions.forget(mark);
+        assertNull(positions.describe(constant));
+
+        mark = positions.mark();
+        Object function = parse("(define f (lambda () 1))", positions);
+        positions.forget(mark);
+        assertEquals("line 1, column 1", positions.describe(function));
+        assertEquals(mark, positions.mark());
+    }
+
+}
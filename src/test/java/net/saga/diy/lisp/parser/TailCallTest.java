@@ -0,0 +1,85 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser;
+
+import static net.saga.diy.lisp.parser.Parser.parse;
+import net.saga.diy.lisp.parser.types.Environment;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/*Calls in tail position must not grow the Java stack, so loops written as
+ recursion can run for as long as they need to.*/
+public class TailCallTest {
+
+    private static final int DEPTH = 200000;
+
+    @Test
+    public void testSelfRecursionTreeWalker() {
+        assertEquals("done", countDown(Engine.TREE_WALKER));
+    }
+
+    @Test
+    public void testSelfRecursionCompiler() {
+        assertEquals("done", countDown(Engine.COMPILER));
+    }
+
+    @Test
+    public void testSelfRecursionBytecode() {
+        assertEquals("done", countDown(Engine.BYTECODE));
+    }
+
+    @Test
+    public void testSelfRecursionTiered() {
+        assertEquals("done", countDown(Engine.TIERED));
+    }
+
+    @Test
+    public void testMutualRecursionTreeWalker() {
+        assertEquals(true, evenOdd(Engine.TREE_WALKER));
+    }
+
+    @Test
+    public void testMutualRecursionCompiler() {
+        assertEquals(true, evenOdd(Engine.COMPILER));
+    }
+
+    @Test
+    public void testMutualRecursionBytecode() {
+        assertEquals(true, evenOdd(Engine.BYTECODE));
+    }
+
+    @Test
+    public void testMutualRecursionTiered() {
+        assertEquals(true, evenOdd(Engine.TIERED));
+    }
+
+    private static Object countDown(Engine engine) {
+        Environment env = new Environment();
+        engine.evaluate(parse("(define loop (lambda (n) (if (eq n 0) 'done (loop (- n 1)))))"), env);
+        return engine.evaluate(parse("(loop " + DEPTH + ")"), env);
+    }
+
+    private static Object evenOdd(Engine engine) {
+        Environment env = new Environment();
+        engine.evaluate(parse("(define even (lambda (n) (if (eq n 0) #t (odd (- n 1)))))"), env);
+        engine.evaluate(parse("(define odd (lambda (n) (if (eq n 0) #f (even (- n 1)))))"), env);
+        return engine.evaluate(parse("(even " + DEPTH + ")"), env);
+    }
+
+}
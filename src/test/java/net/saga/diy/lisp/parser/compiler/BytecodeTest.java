@@ -0,0 +1,196 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import static net.saga.diy.lisp.parser.Evaluator.evaluate;
+import net.saga.diy.lisp.parser.Engine;
+import net.saga.diy.lisp.parser.Interpreter;
+import static net.saga.diy.lisp.parser.Parser.parse;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/*The bytecode machine must behave exactly like the tree walking evaluator.
+ These tests run the same programs through both and compare the results.*/
+public class BytecodeTest {
+
+    @Test
+    public void testAtomsAndSpecialForms() {
+        assertSame("42");
+        assertSame("#t");
+        assertSame("'foo");
+        assertSame("(atom '(1 2))");
+        assertSame("(eq 'foo 'foo)");
+        assertSame("(eq '(1) '(1))");
+        assertSame("(eq #f (> (- (+ 1 3) (* 2 (mod 7 4))) 4))");
+        assertSame("(if (< 1 2) (/ 7 2) (this is never evaluated))");
+        assertSame("(+ 2147483647 1)");
+        assertSame("(- (* (* 2147483647 2147483647) (* 2147483647 2147483647)) 1)");
+        assertSame("(cons 0 '(1 2 3))");
+        assertSame("(head '(1 2 3))");
+        assertSame("(tail '(1 2 3))");
+        assertSame("(empty (tail '(1)))");
+        assertSame("(cons 0 (tail (list 1 2 3)))");
+        assertSame("(atom (list))");
+    }
+
+    @Test
+    public void testFunctions() {
+        assertSame("((lambda (x) (+ x 1)) 41)");
+        assertSame("((if #f wont-evaluate-this-branch (lambda (x) (* x 2))) 21)");
+        assertSame("(((lambda (x) (lambda (y) (- x y))) 50) 8)");
+        assertSame("(('foo))");
+        assertSame("(((lambda (x y) (lambda (x) (+ x y))) 1 2) 10)");
+        assertSame("((((lambda (a) (lambda (b) (lambda (c) (- a (- b c))))) 100) 10) 1)");
+    }
+
+    /* Names defined inside a body shadow outer ones only once the define has run. */
+    @Test
+    public void testLocalDefine() {
+        Environment env = new Environment();
+        Engine.BYTECODE.evaluate(parse("(define y 1)"), env);
+        Engine.BYTECODE.evaluate(parse("(define f (lambda (x) (if (eq x 0) y ((lambda (ignored) y) (define y x)))))"), env);
+
+        assertEquals(1, Engine.BYTECODE.evaluate(parse("(f 0)"), env));
+        assertEquals(5, Engine.BYTECODE.evaluate(parse("(f 5)"), env));
+        assertEquals(1, Engine.BYTECODE.evaluate(parse("y"), env));
+    }
+
+    @Test(expected = LispException.class)
+    public void testLocalRedefineIllegal() {
+        Engine.BYTECODE.evaluate(parse("((lambda (x) (define x 2)) 1)"), new Environment());
+    }
+
+    @Test
+    public void testLambdaEvaluatesToClosure() {
+        Environment env = new Environment();
+        Closure closure = (Closure) Engine.BYTECODE.evaluate(parse("(lambda (x y) (+ x y))"), env);
+
+        assertEquals(env, closure.getEnv());
+        assertArrayEquals(new Object[] { "x", "y" }, closure.getParams());
+        assertArrayEquals(new Object[] { "+", "x", "y" }, (Object[]) closure.getBody());
+    }
+
+    /* Closures made by every engine can call each other. */
+    @Test
+    public void testClosuresAreSharedBetweenEngines() {
+        Environment env = new Environment();
+        Engine.TREE_WALKER.evaluate(parse("(define add (lambda (x y) (+ x y)))"), env);
+        Engine.COMPILER.evaluate(parse("(define twice (lambda (f x) (f (f x))))"), env);
+        Engine.BYTECODE.evaluate(parse("(define double (lambda (x) (add x x)))"), env);
+
+        assertEquals(10, Engine.BYTECODE.evaluate(parse("(add 3 7)"), env));
+        assertEquals(28, Engine.BYTECODE.evaluate(parse("(twice double 7)"), env));
+        assertEquals(14, evaluate(parse("(double 7)"), env));
+    }
+
+    /* Malformed forms only fail once they are actually run. */
+    @Test
+    public void testErrorsAreRaisedWhenExecuted() {
+        assertEquals(1, Engine.BYTECODE.evaluate(parse("(if #t 1 (define x 1 2))"), new Environment()));
+    }
+
+    @Test(expected = LispException.class)
+    public void testCallingAtomRaisesException() {
+        Engine.BYTECODE.evaluate(parse("(#t 'foo 'bar)"), new Environment());
+    }
+
+    /* Errors carry the innermost list whose code raised them. */
+    @Test
+    public void testErrorsKnowTheirForm() {
+        Object[] ast = (Object[]) parse("(if #t (+ 1 'foo) 2)");
+        try {
+            Engine.BYTECODE.evaluate(ast, new Environment());
+            fail();
+        } catch (LispException ex) {
+            assertTrue(ex.getForm() == ast[2]);
+        }
+    }
+
+    /* Bytecode read back from its binary form runs like the original. */
+    @Test
+    public void testWriteAndRead() throws IOException {
+        Bytecode code = BytecodeCompiler.compile(parse(
+                "(((lambda (fact) (lambda (n) (fact fact n))) (lambda (self n) (if (< n 2) 1 (* n (self self (- n 1)))))) 25)"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        code.write(out);
+        Bytecode loaded = Bytecode.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(code.exec(new Frame(new Environment())), loaded.exec(new Frame(new Environment())));
+        assertEquals(new BigInteger("15511210043330985984000000"), loaded.exec(new Frame(new Environment())));
+    }
+
+    @Test(expected = LispException.class)
+    public void testReadRejectsOtherFiles() throws IOException {
+        Bytecode.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+    }
+
+    /* Lengths are checked before anything is allocated for them. */
+    @Test
+    public void testReadRejectsTamperedLengths() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BytecodeCompiler.compile(parse("(+ 1 2)")).write(out);
+        byte[] file = out.toByteArray();
+
+        for (int tampered : new int[] { -1, Integer.MAX_VALUE, file.length }) {
+            /* The length of the code, after the magic number, the version and the tag. */
+            ByteBuffer.wrap(file).putInt(9, tampered);
+            try {
+                Bytecode.read(new ByteArrayInputStream(file));
+                fail("Read code of length " + tampered);
+            } catch (LispException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testStdLibWithBytecode() throws URISyntaxException {
+        File stdLib = Paths.get(getClass().getClassLoader().getResource("std/std.diy").toURI()).toFile();
+        Environment env = new Environment();
+        Interpreter.interpretFile(stdLib, env, Engine.BYTECODE);
+
+        assertTrue((boolean) Interpreter.interpret("(or #f (not #f))", env, Engine.BYTECODE));
+        assertArrayEquals(new Object[] { "foo", "foo" }, (Object[]) Interpreter.interpret("(double_echo ('foo))", env,
+                Engine.BYTECODE));
+    }
+
+    private static void assertSame(String program) {
+        Object expected = evaluate(parse(program), new Environment());
+        Object actual = Engine.BYTECODE.evaluate(parse(program), new Environment());
+        if (expected instanceof Object[]) {
+            assertArrayEquals((Object[]) expected, (Object[]) actual);
+        } else {
+            assertEquals(expected, actual);
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import static net.saga.diy.lisp.parser.Evaluator.evaluate;
+import net.saga.diy.lisp.parser.Engine;
+import net.saga.diy.lisp.parser.Interpreter;
+import static net.saga.diy.lisp.parser.Parser.parse;
+import net.saga.diy.lisp.parser.types.Closure;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/*The compiling engine must behave exactly like the tree walking evaluator.
+ These tests run the same programs through both and compare the results.*/
+public class CompilerTest {
+
+    @Test
+    public void testAtomsAndSpecialForms() {
+        assertSame("42");
+        assertSame("#t");
+        assertSame("'foo");
+        assertSame("(atom '(1 2))");
+        assertSame("(eq 'foo 'foo)");
+        assertSame("(eq '(1) '(1))");
+        assertSame("(eq #f (> (- (+ 1 3) (* 2 (mod 7 4))) 4))");
+        assertSame("(if (< 1 2) (/ 7 2) (this is never evaluated))");
+        assertSame("(+ 2147483647 1)");
+        assertSame("(- (* (* 2147483647 2147483647) (* 2147483647 2147483647)) 1)");
+        assertSame("(/ (* 4611686014132420609 4) 4)");
+        assertSame("(> (+ 2147483647 1) 2147483647)");
+        assertSame("(cons 0 '(1 2 3))");
+        assertSame("(head '(1 2 3))");
+        assertSame("(tail '(1 2 3))");
+        assertSame("(empty (tail '(1)))");
+        assertSame("(cons 0 (tail (list 1 2 3)))");
+        assertSame("(atom (list))");
+    }
+
+    @Test
+    public void testFunctions() {
+        assertSame("((lambda (x) (+ x 1)) 41)");
+        assertSame("((if #f wont-evaluate-this-branch (lambda (x) (* x 2))) 21)");
+        assertSame("(((lambda (x) (lambda (y) (- x y))) 50) 8)");
+        assertSame("(('foo))");
+    }
+
+    /*
+     * Parameters are resolved to frame slots, so shadowing and captured variables
+     * of enclosing lambdas must still see the right binding.
+     */
+    @Test
+    public void testLexicalScope() {
+        assertSame("(((lambda (x y) (lambda (x) (+ x y))) 1 2) 10)");
+        assertSame("((((lambda (a) (lambda (b) (lambda (c) (- a (- b c))))) 100) 10) 1)");
+    }
+
+    /* Names defined inside a body shadow outer ones only once the define has run. */
+    @Test
+    public void testLocalDefine() {
+        Environment env = new Environment();
+        Compiler.evaluate(parse("(define y 1)"), env);
+        Compiler.evaluate(parse("(define f (lambda (x) (if (eq x 0) y ((lambda (ignored) y) (define y x)))))"), env);
+
+        assertEquals(1, Compiler.evaluate(parse("(f 0)"), env));
+        assertEquals(5, Compiler.evaluate(parse("(f 5)"), env));
+        assertEquals(1, Compiler.evaluate(parse("y"), env));
+    }
+
+    @Test(expected = LispException.class)
+    public void testLocalRedefineIllegal() {
+        Compiler.evaluate(parse("((lambda (x) (define x 2)) 1)"), new Environment());
+    }
+
+    @Test
+    public void testLambdaEvaluatesToClosure() {
+        Environment env = new Environment();
+        Closure closure = (Closure) Compiler.evaluate(parse("(lambda (x y) (+ x y))"), env);
+
+        assertEquals(env, closure.getEnv());
+        assertArrayEquals(new Object[] { "x", "y" }, closure.getParams());
+        assertArrayEquals(new Object[] { "+", "x", "y" }, (Object[]) closure.getBody());
+    }
+
+    /* Definitions made by one engine can be used by the other. */
+    @Test
+    public void testClosuresAreSharedBetweenEngines() {
+        Environment env = new Environment();
+        evaluate(parse("(define add (lambda (x y) (+ x y)))"), env);
+        Compiler.evaluate(parse("(define double (lambda (x) (add x x)))"), env);
+
+        assertEquals(10, Compiler.evaluate(parse("(add 3 7)"), env));
+        assertEquals(14, evaluate(parse("(double 7)"), env));
+    }
+
+    @Test
+    public void testRecursion() {
+        Environment env = new Environment();
+        Compiler.evaluate(parse("(define fact (lambda (n) (if (eq n 0) 1 (* n (fact (- n 1))))))"), env);
+
+        assertEquals(120, Compiler.evaluate(parse("(fact 5)"), env));
+    }
+
+    /* Malformed forms only fail once they are actually run. */
+    @Test
+    public void testErrorsAreRaisedWhenExecuted() {
+        assertEquals(1, Compiler.evaluate(parse("(if #t 1 (define x 1 2))"), new Environment()));
+    }
+
+    @Test(expected = LispException.class)
+    public void testWrongNumberOfArguments() {
+        Compiler.evaluate(parse("(define x 1 2)"), new Environment());
+    }
+
+    @Test(expected = LispException.class)
+    public void testCallingAtomRaisesException() {
+        Compiler.evaluate(parse("(#t 'foo 'bar)"), new Environment());
+    }
+
+    @Test(expected = LispException.class)
+    public void testMathOnlyUsesIntegers() {
+        Compiler.evaluate(parse("(+ 1 'foo)"), new Environment());
+    }
+
+    @Test
+    public void testStdLibWithCompiler() throws URISyntaxException {
+        File stdLib = Paths.get(getClass().getClassLoader().getResource("std/std.diy").toURI()).toFile();
+        Environment env = new Environment();
+        Interpreter.interpretFile(stdLib, env, Engine.COMPILER);
+
+        assertTrue((boolean) Interpreter.interpret("(or #f (not #f))", env, Engine.COMPILER));
+        assertArrayEquals(new Object[] { "foo", "foo" }, (Object[]) Interpreter.interpret("(double_echo ('foo))", env,
+                Engine.COMPILER));
+    }
+
+    private static void assertSame(String program) {
+        Object expected = evaluate(parse(program), new Environment());
+        Object actual = Compiler.evaluate(parse(program), new Environment());
+        if (expected instanceof Object[]) {
+            assertArrayEquals((Object[]) expected, (Object[]) actual);
+        } else {
+            assertEquals(expected, actual);
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import java.lang.ref.WeakReference;
+import net.saga.diy.lisp.parser.Engine;
+import static net.saga.diy.lisp.parser.Parser.parse;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/*Compiled code remembers the globals it looked up. What it remembers must
+ never be seen once a definition has shadowed the name, or from an environment
+ where the name means something else.*/
+public class GlobalCacheTest {
+
+    @Test
+    public void testLookupsAreRemembered() {
+        Environment env = new Environment();
+        env.set("x", 1);
+        GlobalCache cache = new GlobalCache("x");
+
+        assertEquals(1, cache.lookup(env));
+        assertEquals(1, cache.lookup(env));
+    }
+
+    @Test
+    public void testShadowingInvalidates() {
+        Environment base = new Environment();
+        base.set("x", 1);
+        Environment env = base.extend(new Object[0], new Object[0]);
+        GlobalCache cache = new GlobalCache("x");
+        assertEquals(1, cache.lookup(env));
+
+        env.set("x", 2);
+
+        assertEquals(2, cache.lookup(env));
+        assertEquals(1, cache.lookup(base));
+    }
+
+    /* Each environment gets its own value, also after the cache is full. */
+    @Test
+    public void testManyEnvironments() {
+        Environment[] envs = new Environment[GlobalCache.SIZE * 3];
+        for (int i = 0; i < envs.length; i++) {
+            envs[i] = new Environment();
+            envs[i].set("x", i);
+        }
+        GlobalCache cache = new GlobalCache("x");
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < envs.length; i++) {
+                assertEquals(i, cache.lookup(envs[i]));
+            }
+        }
+    }
+
+    @Test(expected = LispException.class)
+    public void testUndefinedNamesAreNotRemembered() {
+        Environment env = new Environment();
+        GlobalCache cache = new GlobalCache("x");
+        try {
+            cache.lookup(env);
+        } catch (LispException ex) {
+            env.set("x", 1);
+            assertEquals(1, cache.lookup(env));
+        }
+        cache.lookup(new Environment());
+    }
+
+    /* Code calling a function by name sees a shadowing definition of it, with every engine. */
+    @Test
+    public void testCallsSeeShadowingDefinitions() {
+        for (Engine engine : Engine.values()) {
+            Environment base = new Environment();
+            engine.evaluate(parse("(define g (lambda () 1))"), base);
+            Environment env = base.extend(new Object[0], new Object[0]);
+            engine.evaluate(parse("(define f (lambda () (g)))"), env);
+            Object call = engine.prepare(parse("(f)"));
+            assertEquals(1, engine.run(call, env));
+
+            engine.evaluate(parse("(define g (lambda () 2))"), env);
+
+            assertEquals(engine.name(), 2, engine.run(call, env));
+            assertEquals(engine.name(), 1, engine.evaluate(parse("(g)"), base));
+        }
+    }
+
+    @Test
+    public void testForksDoNotShareValues() {
+        for (Engine engine : Engine.values()) {
+            Environment base = new Environment();
+            Object lookup = engine.prepare(parse("x"));
+            Environment first = base.fork();
+            Environment second = base.fork();
+            first.set("x", "first");
+            second.set("x", "second");
+
+            assertSame(engine.name(), "first", engine.run(lookup, first));
+            assertSame(engine.name(), "second", engine.run(lookup, second));
+            assertSame(engine.name(), "first", engine.run(lookup, first));
+        }
+    }
+
+    /* A fork handed out for one request can be collected while the code it ran is still around. */
+    @Test
+    public void testForksAreNotKeptAlive() throws InterruptedException {
+        Environment base = new Environment().snapshot();
+        GlobalCache cache = new GlobalCache("f");
+        Environment fork = base.fork();
+        Engine.TREE_WALKER.evaluate(parse("(define f (lambda () 1))"), fork);
+        cache.lookup(fork);
+        WeakReference<Environment> collected = new WeakReference<>(fork);
+        fork = null;
+
+        for (int i = 0; i < 50 && collected.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(collected.get());
+    }
+
+}
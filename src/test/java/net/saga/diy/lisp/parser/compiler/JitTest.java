@@ -0,0 +1,139 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.compiler;
+
+import static net.saga.diy.lisp.parser.Evaluator.evaluate;
+import net.saga.diy.lisp.parser.Fuel;
+import static net.saga.diy.lisp.parser.Parser.parse;
+import net.saga.diy.lisp.parser.types.Environment;
+import net.saga.diy.lisp.parser.types.LispException;
+import net.saga.diy.lisp.parser.types.OutOfFuelException;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/*Closures past their threshold run as generated JVM classes. These tests
+ compile every closure on its first call and check that nothing changes but
+ the speed.*/
+public class JitTest {
+
+    private static final String[] FUNCTIONS = {
+        "(define fib (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))",
+        "(define fact (lambda (n) (if (eq n 0) 1 (* n (fact (- n 1))))))",
+        "(define count (lambda (n acc) (if (eq n 0) acc (count (- n 1) (+ acc 1)))))",
+        "(define even (lambda (n) (if (eq n 0) #t (odd (- n 1)))))",
+        "(define odd (lambda (n) (if (eq n 0) #f (even (- n 1)))))",
+        "(define range (lambda (a b) (if (> a b) '() (cons a (range (+ a 1) b)))))",
+        "(define map (lambda (f xs) (if (empty xs) xs (cons (f (head xs)) (map f (tail xs))))))",
+        "(define adder (lambda (x) (lambda (y) (+ x y))))"
+    };
+
+    @Test
+    public void testResultsMatchTheEvaluator() {
+        assertSame("(fib 15)");
+        assertSame("(fact 30)");
+        assertSame("(count 100000 0)");
+        assertSame("(even 10001)");
+        assertSame("(range 1 10)");
+        assertSame("(map (adder 10) (range 1 10))");
+        assertSame("(list (atom 'a) (eq '() (tail '(1))) (/ 7 2) (mod 7 2) (- 1 2))");
+        assertSame("((lambda (x) (if (< 1 x) (define y x) 'small)) 2)");
+    }
+
+    @Test
+    public void testHotClosuresAreCompiled() {
+        Environment env = functions();
+        run("(fib 10)", env);
+
+        assertTrue(((BytecodeClosure) env.lookup("fib")).isCompiled());
+    }
+
+    /* A global that the compiled code read before can be shadowed where the closure sees it. */
+    @Test
+    public void testRedefinitionFallsBackToTheInterpreter() {
+        Environment base = new Environment();
+        run("(define g (lambda () 1))", base);
+        Environment env = base.extend(new Object[0], new Object[0]);
+        run("(define f (lambda () (g)))", env);
+        assertEquals(1, run("(f)", env));
+        BytecodeClosure f = (BytecodeClosure) env.lookup("f");
+        assertTrue(f.isCompiled());
+
+        run("(define g (lambda () 2))", env);
+
+        assertEquals(2, run("(f)", env));
+        assertFalse(f.isCompiled());
+        assertEquals(2, run("(f)", env));
+        assertTrue(f.isCompiled());
+    }
+
+    /* Errors carry the innermost list whose code raised them. */
+    @Test
+    public void testErrorsKnowTheirForm() {
+        Object[] define = (Object[]) parse("(define f (lambda (x) (if #t (+ x 'foo) 2)))");
+        Environment env = new Environment();
+        BytecodeCompiler.compile(define, 1).exec(new Frame(env));
+        for (int i = 0; i < 2; i++) {
+            try {
+                run("(f 1)", env);
+                fail();
+            } catch (LispException ex) {
+                assertTrue(ex.getForm() == ((Object[]) ((Object[]) define[2])[2])[2]);
+            }
+        }
+        assertTrue(((BytecodeClosure) env.lookup("f")).isCompiled());
+    }
+
+    @Test(expected = OutOfFuelException.class)
+    public void testCompiledLoopsRunOutOfFuel() {
+        Environment env = new Environment();
+        run("(define loop (lambda (n) (loop (+ n 1))))", env);
+        BytecodeCompiler.compile(parse("(loop 0)"), 1).exec(new Frame(env, new Fuel(10000)));
+    }
+
+    private static Environment functions() {
+        Environment env = new Environment();
+        for (String function : FUNCTIONS) {
+            run(function, env);
+        }
+        return env;
+    }
+
+    private static Object run(String program, Environment env) {
+        return BytecodeCompiler.compile(parse(program), 1).exec(new Frame(env));
+    }
+
+    private static void assertSame(String program) {
+        Environment env = new Environment();
+        for (String function : FUNCTIONS) {
+            evaluate(parse(function), env);
+        }
+        Object expected = evaluate(parse(program), env);
+        Object actual = run(program, functions());
+        if (expected instanceof Object[]) {
+            assertArrayEquals((Object[]) expected, (Object[]) actual);
+        } else {
+            assertEquals(expected, actual);
+        }
+    }
+
+}
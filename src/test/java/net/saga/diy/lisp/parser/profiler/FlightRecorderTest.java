@@ -0,0 +1,66 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.profiler;
+
+import java.io.File;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import net.saga.diy.lisp.parser.types.Environment;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Test;
+
+/*While the profiler runs, every closure call is also a flight recorder event,
+ once the profiler is reset after the recording starts. Only compiled on Java 11 and later, see the java8 profile in the pom.*/
+public class FlightRecorderTest {
+
+    Profiler profiler = Profiler.get();
+
+    @After
+    public void stop() {
+        profiler.stop();
+        profiler.reset();
+    }
+
+    @Test
+    public void testClosureCallEvents() throws Exception {
+        Environment env = new Environment();
+        interpret("(define fib (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))", env);
+        File file = File.createTempFile("profile", ".jfr");
+        file.deleteOnExit();
+        try (Recording recording = new Recording()) {
+            recording.enable(ClosureCallEvent.NAME);
+            recording.start();
+            profiler.reset();
+            profiler.start();
+            interpret("(fib 5)", env);
+            profiler.stop();
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+        assertEquals(15, events.size());
+        assertEquals("fib", events.get(0).getString("closure"));
+        assertEquals("DIY Lisp", events.get(0).getEventType().getCategoryNames().get(0));
+    }
+
+}
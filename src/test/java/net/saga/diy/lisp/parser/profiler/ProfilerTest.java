@@ -0,0 +1,175 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.profiler;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import net.saga.diy.lisp.parser.Engine;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import net.saga.diy.lisp.parser.types.Environment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*The profiler counts how often each function is called and how long it takes,
+ so the expensive parts of a program can be found.*/
+public class ProfilerTest {
+
+    Environment env;
+    Profiler profiler = Profiler.get();
+
+    @Before
+    public void functions() {
+        profiler.reset();
+        env = new Environment();
+        interpret("(define fib (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))", env);
+        interpret("(define countdown (lambda (n) (if (eq n 0) 'done (countdown (- n 1)))))", env);
+    }
+
+    @After
+    public void stop() {
+        profiler.stop();
+        profiler.reset();
+    }
+
+    private ClosureProfile profile(String name) {
+        for (ClosureProfile profile : profiler.getClosures()) {
+            if (profile.getName().equals(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testCountsCallsInBothEngines() {
+        for (Engine engine : Engine.values()) {
+            Environment local = new Environment();
+            interpret("(define fib (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))", local, engine);
+            profiler.reset();
+            profiler.start();
+            assertEquals(55, interpret("(fib 10)", local, engine));
+            profiler.stop();
+            assertEquals(177, profile("fib").getCalls());
+        }
+    }
+
+    @Test
+    public void testNothingIsRecordedWhenStopped() {
+        interpret("(fib 10)", env);
+        assertTrue(profiler.getClosures().isEmpty());
+    }
+
+    /* A recursive function's total time counts the outermost call only, so it
+     never exceeds the time the whole program took. */
+    @Test
+    public void testRecursiveTotalIsNotCountedTwice() {
+        profiler.start();
+        long start = System.nanoTime();
+        interpret("(fib 15)", env);
+        long elapsed = System.nanoTime() - start;
+        profiler.stop();
+        ClosureProfile fib = profile("fib");
+        assertTrue(fib.getTotalNanos() <= elapsed);
+        assertTrue(fib.getSelfNanos() <= fib.getTotalNanos());
+    }
+
+    /* A tail call leaves the caller, so a loop shows up as calls side by side
+     rather than nested a thousand deep. */
+    @Test
+    public void testTailCallsAreNotNested() {
+        for (Engine engine : Engine.values()) {
+            Environment local = new Environment();
+            interpret("(define countdown (lambda (n) (if (eq n 0) 'done (countdown (- n 1)))))", local, engine);
+            profiler.reset();
+            profiler.start();
+            interpret("(countdown 1000)", local, engine);
+            profiler.stop();
+            assertEquals(1001, profile("countdown").getCalls());
+            String[] lines = profiler.getTreeReport().trim().split("\\R");
+            assertEquals(2, lines.length);
+            assertTrue(lines[1], lines[1].endsWith("  countdown (line 1, column 19)"));
+        }
+    }
+
+    @Test
+    public void testTreeReportNestsCallees() {
+        interpret("(define twice (lambda (n) (+ (fib n) (fib n))))", env);
+        profiler.start();
+        interpret("(twice 3)", env);
+        profiler.stop();
+        String tree = profiler.getTreeReport();
+        assertTrue(tree, tree.contains("  twice"));
+        assertTrue(tree, tree.contains("    fib"));
+        assertTrue(profiler.getFlatReport().contains("  fib"));
+    }
+
+    /* A thread per script must not leave a tree behind per thread, but its calls still count. */
+    @Test
+    public void testTreesOfEndedThreadsAreMerged() throws InterruptedException {
+        profiler.start();
+        for (int i = 0; i < 1000; i++) {
+            Thread thread = new Thread(() -> interpret("(fib 3)", env));
+            thread.start();
+            thread.join();
+        }
+        profiler.stop();
+        assertTrue(profiler.threadTrees() <= 256);
+        String[] lines = profiler.getTreeReport().trim().split("\\R");
+        assertTrue(lines[1], lines[1].trim().startsWith("1000 "));
+        assertEquals(5000, profile("fib").getCalls());
+    }
+
+    @Test
+    public void testAnonymousLambdas() {
+        profiler.start();
+        interpret("((lambda (x y) (+ x y)) 1 2)", env);
+        profiler.stop();
+        assertEquals(1, profile("(lambda (x y) ...)").getCalls());
+    }
+
+    @Test
+    public void testClosuresFromOneLambdaShareAnEntry() {
+        interpret("(define adder (lambda (x) (lambda (y) (+ x y))))", env);
+        interpret("(define add1 (adder 1))", env);
+        interpret("(define add2 (adder 2))", env);
+        profiler.start();
+        interpret("(+ (add1 1) (add2 2))", env);
+        profiler.stop();
+        assertEquals(2, profile("add1").getCalls());
+        assertNull(profile("add2"));
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        Profiler.registerMBean();
+        ObjectName name = new ObjectName(Profiler.OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().invoke(name, "start", null, null);
+        assertTrue(profiler.isRunning());
+        interpret("(fib 5)", env);
+        assertEquals(true, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Running"));
+        ManagementFactory.getPlatformMBeanServer().invoke(name, "stop", null, null);
+        Object closures = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Closures");
+        assertEquals(1, ((Object[]) closures).length);
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.profiler;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import net.saga.diy.lisp.parser.Engine;
+import static net.saga.diy.lisp.parser.Interpreter.interpret;
+import net.saga.diy.lisp.parser.types.Environment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Test;
+
+/*The sampling profiler looks at the Lisp call stack of running threads now and
+ then. Stacks seen often are where the time goes.*/
+public class SamplingProfilerTest {
+
+    static final String FIB = "fib (line 1, column 13)";
+    static final String OUTER = "outer (line 1, column 15)";
+
+    SamplingProfiler sampler = new SamplingProfiler(1, TimeUnit.MILLISECONDS);
+
+    @After
+    public void stop() {
+        sampler.stop();
+    }
+
+    private Environment functions(Engine engine) {
+        Environment env = new Environment();
+        interpret("(define fib (lambda (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))", env, engine);
+        interpret("(define outer (lambda (n) (+ 0 (fib n))))", env, engine);
+        return env;
+    }
+
+    @Test
+    public void testCollapsedStacks() {
+        for (Engine engine : Engine.values()) {
+            Environment env = functions(engine);
+            sampler.reset();
+            sampler.start();
+            for (int i = 0; i < 100 && !sampler.getCollapsedStacks().contains(OUTER + ";" + FIB + ";" + FIB); i++) {
+                interpret("(outer 18)", env, engine);
+            }
+            sampler.stop();
+            String stacks = sampler.getCollapsedStacks();
+            assertTrue(stacks, stacks.contains(OUTER + ";" + FIB + ";" + FIB));
+            for (String line : stacks.split("\n")) {
+                assertTrue(line, line.matches("outer \\(line 1, column 15\\)(;fib \\(line 1, column 13\\))* [0-9]+"));
+            }
+        }
+    }
+
+    @Test
+    public void testShadowStackIsEmptyAfterwards() {
+        Environment env = functions(Engine.TREE_WALKER);
+        sampler.start();
+        interpret("(outer 10)", env);
+        sampler.stop();
+        sampler.reset();
+        sampler.sample();
+        assertEquals("", sampler.getCollapsedStacks());
+    }
+
+    @Test
+    public void testWrite() {
+        sampler.start();
+        sampler.stop();
+        StringWriter out = new StringWriter();
+        sampler.writeCollapsedStacks(out);
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    public void testOnlyOneProfilerAtATime() {
+        Profiler.get().start();
+        try {
+            sampler.start();
+            fail("Expected the running profiler to be detected");
+        } catch (IllegalStateException expected) {
+        } finally {
+            Profiler.get().stop();
+        }
+        sampler.start();
+        assertTrue(sampler.isRunning());
+    }
+
+}
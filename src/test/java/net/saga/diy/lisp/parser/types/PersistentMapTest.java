@@ -0,0 +1,80 @@
+/**
+ * Copyright Summers Pittman, and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This project is based on, borrows heavily from, and copies the documentation of
+ * https://github.com/kvalle/diy-lisp/
+ */
+package net.saga.diy.lisp.parser.types;
+
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class PersistentMapTest {
+
+    @Test
+    public void testOldVersionsAreUnchanged() {
+        PersistentMap<String, Object> empty = PersistentMap.empty();
+        PersistentMap<String, Object> one = empty.plus("a", 1);
+        PersistentMap<String, Object> two = one.plus("b", 2);
+
+        assertEquals(0, empty.size());
+        assertEquals(1, one.size());
+        assertEquals(2, two.size());
+        assertNull(one.get("b"));
+        assertEquals(2, two.get("b"));
+    }
+
+    @Test
+    public void testManyKeys() {
+        PersistentMap<String, Object> map = PersistentMap.empty();
+        for (int i = 0; i < 10000; i++) {
+            map = map.plus("key" + i, i);
+        }
+
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, map.get("key" + i));
+        }
+        assertFalse(map.containsKey("key10000"));
+
+        final Map<String, Object> copy = new HashMap<>();
+        map.forEach((key, value) -> copy.put(key, value));
+        assertEquals(10000, copy.size());
+    }
+
+    /* "Aa" and "BB" have the same hash code. */
+    @Test
+    public void testCollidingKeys() {
+        PersistentMap<String, Object> map = PersistentMap.<String, Object>empty().plus("Aa", 1).plus("BB", 2);
+        map = map.plus("C#", 3).plus("BB", 4);
+
+        assertEquals(3, map.size());
+        assertEquals(1, map.get("Aa"));
+        assertEquals(4, map.get("BB"));
+        assertEquals(3, map.get("C#"));
+    }
+
+    @Test
+    public void testReplacingWithSameValueKeepsMap() {
+        PersistentMap<String, Object> map = PersistentMap.<String, Object>empty().plus("a", 1);
+        assertSame(map, map.plus("a", map.get("a")));
+    }
+
+}